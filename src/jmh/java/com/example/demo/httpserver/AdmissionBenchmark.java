@@ -0,0 +1,50 @@
+package com.example.demo.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of admission control per request: the check when nothing is configured, taking a token
+ * from a client's bucket, and entering and leaving the adaptive concurrency limiter. Limits are
+ * set high enough that every call is admitted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdmissionBenchmark {
+
+    private RateLimiter clients;
+    private ConcurrencyLimiter limiter;
+    private int client;
+    /** Stands in for the clock reading the engine already took when the request was parsed. */
+    private long now = System.nanoTime();
+
+    @Setup
+    public void setup() {
+        clients = new RateLimiter(1e9, 1_000_000, 4096);
+        limiter = new ConcurrencyLimiter(1000, 4, true, 2.0);
+    }
+
+    @Benchmark
+    public boolean unconfigured() {
+        // Admission.clients is null unless server.rateLimit.perClient is set
+        return Admission.admitRequest(client, now);
+    }
+
+    @Benchmark
+    public boolean clientBucket() {
+        return clients.tryAcquire(client++ & 255, now += 1000);
+    }
+
+    @Benchmark
+    public boolean concurrencyLimit() {
+        boolean admitted = limiter.tryAcquire();
+        limiter.release(1000);
+        return admitted;
+    }
+
+}
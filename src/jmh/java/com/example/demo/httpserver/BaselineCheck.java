@@ -0,0 +1,114 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare a JMH run against the recorded baseline and fail on regressions, for use as a CI gate:
+ * <pre>
+ * java -jar target/benchmarks.jar -f 3 -rf csv -rff target/jmh.csv
+ * java -cp target/benchmarks.jar com.example.demo.httpserver.BaselineCheck src/jmh/baseline.csv target/jmh.csv 25
+ * </pre>
+ * Both files are JMH CSV results. A benchmark regresses when its score is worse than the
+ * baseline by more than the tolerance percentage (default 20): slower for time modes, lower for
+ * throughput. Benchmarks missing from either file are reported and ignored.
+ */
+public final class BaselineCheck {
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCheck <baseline.csv> <results.csv> [tolerancePercent]");
+            System.exit(2);
+        }
+        Map<String, Result> baseline = read(Path.of(args[0]));
+        Map<String, Result> results = read(Path.of(args[1]));
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 20;
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> e : results.entrySet()) {
+            Result now = e.getValue();
+            Result before = baseline.get(e.getKey());
+            if (before == null) {
+                System.out.printf("NEW        %-70s %12.3f %s%n", e.getKey(), now.score, now.unit);
+                continue;
+            }
+            double change = (now.score - before.score) / before.score * 100;
+            double worse = now.higherIsBetter() ? -change : change;
+            boolean regressed = worse > tolerance;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-10s %-70s %12.3f -> %12.3f %s (%+.1f%%)%n", regressed ? "REGRESSED" : "ok",
+                    e.getKey(), before.score, now.score, now.unit, change);
+        }
+        for (String name : baseline.keySet()) {
+            if (!results.containsKey(name)) {
+                System.out.printf("MISSING    %s%n", name);
+            }
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + tolerance + "%");
+            System.exit(1);
+        }
+    }
+
+    private record Result(String mode, double score, String unit) {
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    /**
+     * @return results by benchmark name plus parameters, e.g. {@code RoundTripBenchmark.controller engine=nio}
+     */
+    static Map<String, Result> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        Map<String, Result> results = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return results;
+        }
+        List<String> header = fields(lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> f = fields(line);
+            StringBuilder name = new StringBuilder(f.get(0).substring(f.get(0).lastIndexOf('.', f.get(0).lastIndexOf('.') - 1) + 1));
+            for (int i = 7; i < f.size() && i < header.size(); i++) {
+                if (!f.get(i).isEmpty()) {
+                    name.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(f.get(i));
+                }
+            }
+            results.put(name.toString(), new Result(f.get(1), Double.parseDouble(f.get(4)), f.get(6)));
+        }
+        return results;
+    }
+
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        fields.add(sb.toString());
+        return fields;
+    }
+
+}
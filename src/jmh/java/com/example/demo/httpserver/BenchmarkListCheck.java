@@ -0,0 +1,49 @@
+package com.example.demo.httpserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.runner.BenchmarkList;
+import org.openjdk.jmh.runner.BenchmarkListEntry;
+
+/**
+ * Fail when the benchmark jar does not list a benchmark of every given class, i.e. when the JMH
+ * annotation processor did not run on them. The {@code benchmark} profile runs it after packaging:
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.demo.httpserver.BenchmarkListCheck RequestBenchmark RoutingBenchmark
+ * </pre>
+ * It reads the same {@code META-INF/BenchmarkList} as {@code java -jar target/benchmarks.jar -l}.
+ */
+public final class BenchmarkListCheck {
+
+    private BenchmarkListCheck() {
+    }
+
+    public static void main(String[] args) {
+        Set<String> listed = new TreeSet<>();
+        try {
+            for (BenchmarkListEntry entry : BenchmarkList.defaultList().getAll(null, Collections.emptyList())) {
+                String name = entry.getUserClassQName();
+                listed.add(name.substring(name.lastIndexOf('.') + 1));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("No benchmark list in the jar: " + e.getMessage());
+            System.exit(1);
+        }
+        List<String> missing = new ArrayList<>();
+        for (String benchmark : args) {
+            if (!listed.contains(benchmark)) {
+                missing.add(benchmark);
+            }
+        }
+        if (!missing.isEmpty()) {
+            System.err.println("Benchmarks missing from the jar: " + missing + "; listed: " + listed);
+            System.exit(1);
+        }
+        System.out.println("Benchmark list: " + listed);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.example.demo.httpserver;
+
+import com.example.demo.annotations.RequestParam;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller dispatch: the reflective path (annotation lookups and {@code Method.invoke} per
+ * request) against the {@link RouteInvoker} compiled at registration, and the whole of
+ * {@link HttpServer#invokeService} (lookup, call and encoded response) for a plain route and for
+ * the {@code @Cacheable} one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InvokerBenchmark {
+
+    private HttpRequest request;
+    private Method method;
+    private Object instance;
+    private RouteInvoker invoker;
+    private URI plainUri;
+    private URI cachedUri;
+
+    @Setup
+    public void setup() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.GreetingController"});
+        cachedUri = new URI("/app/greeting?name=bench");
+        plainUri = new URI("/app/greeting/bench");
+        request = new HttpRequest(cachedUri);
+        method = HttpServer.services.get("/greeting");
+        instance = HttpServer.instances.get(method);
+        invoker = HttpServer.router.match("GET", "/greeting").target();
+    }
+
+    @Benchmark
+    public Object reflective() throws Exception {
+        Parameter[] params = method.getParameters();
+        Object[] args = new Object[params.length];
+        for (int i = 0; i < params.length; i++) {
+            Parameter p = params[i];
+            if (p.isAnnotationPresent(RequestParam.class)) {
+                RequestParam rp = p.getAnnotation(RequestParam.class);
+                String val = request.getValue(rp.value());
+                args[i] = val != null ? val : rp.defaultValue();
+            }
+        }
+        return method.invoke(instance, args);
+    }
+
+    @Benchmark
+    public Object precompiled() throws Exception {
+        return invoker.invoke(request);
+    }
+
+    @Benchmark
+    public String invokeService() throws Exception {
+        return HttpServer.invokeService(plainUri);
+    }
+
+    @Benchmark
+    public String invokeServiceCached() throws Exception {
+        return HttpServer.invokeService(cachedUri);
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.example.demo.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JSON body written into a response: a controller building the JSON text itself and
+ * returning it as a string (the way {@code /hello} used to) against returning records that
+ * {@link Json} serializes, for one object and for a list of 100.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    public record Greeting(long id, String content) {
+    }
+
+    private static final OutputStream DISCARD = OutputStream.nullOutputStream();
+
+    private HttpRequest request;
+    private Greeting greeting;
+    private List<Greeting> greetings;
+
+    @Setup
+    public void setup() throws Exception {
+        request = new HttpRequest(new URI("/app/json/greeting"));
+        greeting = new Greeting(42, "Hello, World!");
+        greetings = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            greetings.add(new Greeting(i, "Hello, user " + i + "!"));
+        }
+        Json.prepare(Greeting.class);
+    }
+
+    @Benchmark
+    public HttpResponse stringObject() throws Exception {
+        HttpResponse res = new HttpResponse(request, DISCARD, true);
+        res.finish("{\"id\":" + greeting.id() + ",\"content\":\"" + greeting.content() + "\"}");
+        return res;
+    }
+
+    @Benchmark
+    public HttpResponse jsonObject() throws Exception {
+        HttpResponse res = new HttpResponse(request, DISCARD, true);
+        res.finish(greeting);
+        return res;
+    }
+
+    @Benchmark
+    public HttpResponse stringList() throws Exception {
+        StringBuilder sb = new StringBuilder("[");
+        for (Greeting g : greetings) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(g.id()).append(",\"content\":\"").append(g.content()).append("\"}");
+        }
+        HttpResponse res = new HttpResponse(request, DISCARD, true);
+        res.finish(sb.append(']').toString());
+        return res;
+    }
+
+    @Benchmark
+    public HttpResponse jsonList() throws Exception {
+        HttpResponse res = new HttpResponse(request, DISCARD, true);
+        res.finish(greetings);
+        return res;
+    }
+
+}
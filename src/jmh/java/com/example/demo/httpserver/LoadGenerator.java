@@ -0,0 +1,459 @@
+package com.example.demo.httpserver;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load generator: drives a server over loopback from a number of connections and
+ * reports throughput and the latency distribution.
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.demo.httpserver.LoadGenerator --embedded nio --connections 64 --mix mix
+ * </pre>
+ * <ul>
+ * <li>Closed loop (default): each connection sends its next request as soon as the previous
+ * response is read, which measures the highest throughput.</li>
+ * <li>Open loop ({@code --rate}): requests are scheduled at a fixed total rate whatever the
+ * server does. Latency is measured from the time a request was due, not when it could be sent,
+ * so a stalled server is charged for the requests it held back (coordinated omission
+ * correction); the service time from the actual send is reported too.</li>
+ * </ul>
+ * With {@code --baseline} the run fails (exit code 1) when throughput drops or p99 latency
+ * rises by more than {@code --tolerance} percent against the recorded baseline, or when any
+ * request fails; {@code --smoke} selects a short embedded run for CI.
+ */
+public final class LoadGenerator {
+
+    /** Named request mixes; {@code --mix} also takes a list of {@code path[:weight]}. */
+    private static final String GREETING = "/app/greeting?name=load";
+    private static final String PATH_VARIABLE = "/app/greeting/load";
+    private static final String STATIC = "/index.html";
+
+    private String host = "127.0.0.1";
+    private int port = ServerConfig.port;
+    private int connections = 16;
+    private int durationSeconds = 10;
+    private int warmupSeconds = 2;
+    private boolean keepAlive = true;
+    private double rate;
+    private String mixSpec = "mix";
+    private String embedded;
+    private Path baseline;
+    private Path saveBaseline;
+    private double tolerance = 30;
+
+    private final List<String> paths = new ArrayList<>();
+    private final List<byte[]> requests = new ArrayList<>();
+    private int[] cumulativeWeights;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder unexpectedStatus = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+
+    private long measureStart;
+    private long end;
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator load = new LoadGenerator();
+        try {
+            load.parseArgs(args);
+            load.parseMix();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+        }
+        if (load.embedded != null) {
+            ServerConfig.port = load.port;
+            startEmbedded(load.embedded);
+        }
+        boolean ok = load.run();
+        if (load.embedded != null) {
+            HttpServer.stop();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("""
+                Usage: LoadGenerator [options]
+                  --host HOST            server address (127.0.0.1)
+                  --port PORT            server port (server.port, 35000)
+                  --connections N        concurrent connections (16)
+                  --duration SECONDS     measured run time (10)
+                  --warmup SECONDS       unmeasured time before it (2)
+                  --keepalive true|false reuse connections (true)
+                  --rate N               open loop at N requests/s in total; closed loop when absent
+                  --mix NAME|LIST        greeting, pathvar, static, mix, or path[:weight],... (mix)
+                  --embedded ENGINE      start the server in this JVM with engine blocking or nio
+                  --baseline FILE        fail on a regression against this baseline
+                  --tolerance PERCENT    allowed regression (30)
+                  --save-baseline FILE   record this run as the baseline
+                  --smoke                short CI run: embedded blocking server, 8 connections, 5 s""");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--smoke")) {
+                embedded = embedded != null ? embedded : "blocking";
+                connections = 8;
+                durationSeconds = 5;
+                warmupSeconds = 2;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--host" -> host = value;
+                case "--port" -> port = Integer.parseInt(value);
+                case "--connections" -> connections = Integer.parseInt(value);
+                case "--duration" -> durationSeconds = Integer.parseInt(value);
+                case "--warmup" -> warmupSeconds = Integer.parseInt(value);
+                case "--keepalive" -> keepAlive = Boolean.parseBoolean(value);
+                case "--rate" -> rate = Double.parseDouble(value);
+                case "--mix" -> mixSpec = value;
+                case "--embedded" -> embedded = value;
+                case "--baseline" -> baseline = Path.of(value);
+                case "--tolerance" -> tolerance = Double.parseDouble(value);
+                case "--save-baseline" -> saveBaseline = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (connections < 1 || durationSeconds < 1 || warmupSeconds < 0 || rate < 0) {
+            throw new IllegalArgumentException("Invalid connections, duration, warm-up or rate");
+        }
+    }
+
+    private void parseMix() {
+        String spec = switch (mixSpec) {
+            case "greeting" -> GREETING;
+            case "pathvar" -> PATH_VARIABLE;
+            case "static" -> STATIC;
+            case "mix" -> GREETING + ":4," + PATH_VARIABLE + ":2," + STATIC + ":3,/styles.css:1";
+            default -> mixSpec;
+        };
+        List<Integer> weights = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            String path = item.trim();
+            int weight = 1;
+            int colon = path.lastIndexOf(':');
+            if (colon > 0 && path.substring(colon + 1).chars().allMatch(Character::isDigit)) {
+                weight = Integer.parseInt(path.substring(colon + 1));
+                path = path.substring(0, colon);
+            }
+            if (!path.startsWith("/") || weight < 1) {
+                throw new IllegalArgumentException("Invalid mix entry " + item);
+            }
+            paths.add(path);
+            weights.add(weight);
+            requests.add(("GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n"
+                    + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        cumulativeWeights = new int[weights.size()];
+        int sum = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            sum += weights.get(i);
+            cumulativeWeights[i] = sum;
+        }
+    }
+
+    private static void startEmbedded(String engine) throws Exception {
+        ServerConfig.engine = engine;
+        Thread server = new Thread(() -> {
+            try {
+                HttpServer.runServer(new String[0]);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "embedded-server");
+        server.setDaemon(true);
+        server.start();
+        for (int i = 0; ; i++) {
+            try (Socket probe = new Socket("127.0.0.1", ServerConfig.port)) {
+                return;
+            } catch (ConnectException e) {
+                if (i == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * @return false if the run failed the baseline comparison or had failed requests while
+     * being compared
+     */
+    private boolean run() throws Exception {
+        System.out.printf("%d connections, %s, %s, %d s (+%d s warm-up) against %s:%d%n", connections,
+                keepAlive ? "keep-alive" : "a connection per request",
+                rate > 0 ? "open loop at " + rate + " requests/s" : "closed loop",
+                durationSeconds, warmupSeconds, host, port);
+        System.out.println("Mix: " + describeMix());
+
+        long start = System.nanoTime();
+        measureStart = start + warmupSeconds * 1_000_000_000L;
+        end = measureStart + durationSeconds * 1_000_000_000L;
+        Thread[] workers = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            int index = i;
+            workers[i] = new Thread(() -> drive(start, index), "load-" + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long requests = completed.sum();
+        double throughput = requests / (double) durationSeconds;
+        long p99 = latency.valueAt(0.99);
+        System.out.printf("Requests: %d (%.1f/s), failed: %d, non-2xx/3xx: %d, connections opened: %d%n",
+                requests, throughput, failed.sum(), unexpectedStatus.sum(), connects.sum());
+        printDistribution(rate > 0 ? "Latency from the scheduled send time (ms)" : "Latency (ms)", latency);
+        if (rate > 0) {
+            printDistribution("Service time from the actual send (ms)", serviceTime);
+        }
+
+        if (saveBaseline != null) {
+            Properties p = new Properties();
+            p.setProperty("throughput", String.format(Locale.ROOT, "%.1f", throughput));
+            p.setProperty("p99Millis", String.format(Locale.ROOT, "%.3f", p99 / 1e6));
+            try (Writer w = Files.newBufferedWriter(saveBaseline)) {
+                p.store(w, "LoadGenerator baseline: " + connections + " connections, mix " + mixSpec);
+            }
+            System.out.println("Baseline saved to " + saveBaseline);
+        }
+        if (baseline == null) {
+            return true;
+        }
+        return compare(throughput, p99);
+    }
+
+    private boolean compare(double throughput, long p99) throws IOException {
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(baseline)) {
+            p.load(r);
+        }
+        double baseThroughput = Double.parseDouble(p.getProperty("throughput"));
+        double baseP99 = Double.parseDouble(p.getProperty("p99Millis"));
+        boolean ok = true;
+        if (throughput < baseThroughput * (1 - tolerance / 100)) {
+            System.out.printf("REGRESSED throughput %.1f/s against baseline %.1f/s%n", throughput, baseThroughput);
+            ok = false;
+        }
+        if (p99 / 1e6 > baseP99 * (1 + tolerance / 100)) {
+            System.out.printf("REGRESSED p99 %.3f ms against baseline %.3f ms%n", p99 / 1e6, baseP99);
+            ok = false;
+        }
+        if (failed.sum() > 0 || unexpectedStatus.sum() > 0) {
+            System.out.println("FAILED requests during the run");
+            ok = false;
+        }
+        System.out.println(ok ? "Within " + tolerance + "% of the baseline" : "Regression against " + baseline);
+        return ok;
+    }
+
+    private String describeMix() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < paths.size(); i++) {
+            int weight = cumulativeWeights[i] - (i > 0 ? cumulativeWeights[i - 1] : 0);
+            sb.append(i > 0 ? ", " : "").append(paths.get(i)).append(" x").append(weight);
+        }
+        return sb.toString();
+    }
+
+    private static void printDistribution(String title, LatencyHistogram h) {
+        System.out.println(title + ":");
+        System.out.printf("  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f  mean %.3f%n",
+                h.valueAt(0.5) / 1e6, h.valueAt(0.9) / 1e6, h.valueAt(0.99) / 1e6, h.valueAt(0.999) / 1e6,
+                h.getMax() / 1e6, h.getCount() == 0 ? 0 : h.getSum() / 1e6 / h.getCount());
+    }
+
+    /**
+     * Send requests from one connection until the run ends. In open loop, connection
+     * {@code index} sends every {@code connections / rate} seconds, offset so that the
+     * connections together send evenly.
+     */
+    private void drive(long start, int index) {
+        long interval = rate > 0 ? (long) (1e9 * connections / rate) : 0;
+        long next = start + interval * index / connections;
+        Connection c = null;
+        while (true) {
+            long scheduled;
+            if (interval > 0) {
+                scheduled = next;
+                next += interval;
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                scheduled = System.nanoTime();
+            }
+            if (scheduled >= end) {
+                break;
+            }
+            byte[] request = requests.get(pick());
+            long sent = System.nanoTime();
+            int status;
+            try {
+                if (c == null) {
+                    c = new Connection(host, port);
+                    connects.increment();
+                }
+                status = c.exchange(request);
+                if (!keepAlive || c.closed) {
+                    c.close();
+                    c = null;
+                }
+            } catch (IOException e) {
+                status = -1;
+                if (c != null) {
+                    c.close();
+                    c = null;
+                }
+            }
+            long done = System.nanoTime();
+            if (done >= measureStart && done < end) {
+                latency.record(done - scheduled);
+                serviceTime.record(done - sent);
+                if (status < 0) {
+                    failed.increment();
+                } else {
+                    completed.increment();
+                    if (status < 200 || status >= 400) {
+                        unexpectedStatus.increment();
+                    }
+                }
+            }
+        }
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    private int pick() {
+        if (cumulativeWeights.length == 1) {
+            return 0;
+        }
+        int r = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (r >= cumulativeWeights[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /** A client connection that reads whole responses, framed by length, chunks or close. */
+    private static final class Connection {
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final StringBuilder line = new StringBuilder(128);
+        boolean closed;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            socket.setSoTimeout(30_000);
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        /**
+         * Send {@code request} and read the response.
+         *
+         * @return the response status
+         */
+        int exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+            String statusLine = readLine();
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long length = -1;
+            boolean chunked = false;
+            String header;
+            while (!(header = readLine()).isEmpty()) {
+                int colon = header.indexOf(':');
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("content-length")) {
+                    length = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("transfer-encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("connection")) {
+                    closed = value.equalsIgnoreCase("close");
+                }
+            }
+            if (status == 304 || status == 204) {
+                return status;
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine().trim(), 16)) > 0) {
+                    in.skipNBytes(size);
+                    readLine();
+                }
+                while (!readLine().isEmpty()) {
+                    // trailers
+                }
+            } else if (length >= 0) {
+                in.skipNBytes(length);
+            } else {
+                in.transferTo(OutputStream.nullOutputStream());
+                closed = true;
+            }
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed by the server");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.example.demo.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request head parsing and {@link HttpRequest#getValue} on a typical browser request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBenchmark {
+
+    static final byte[] HEAD = ("GET /app/greeting?name=Ana+Maria&lang=es&page=2 HTTP/1.1\r\n"
+            + "Host: localhost:35000\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: es-CO,es;q=0.8,en-US;q=0.5,en;q=0.3\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private ByteBuffer buf;
+    private HttpRequestParser parser;
+    private HttpRequest parsed;
+
+    @Setup
+    public void setup() throws Exception {
+        buf = ByteBuffer.allocateDirect(HttpRequestParser.bufferSize());
+        buf.put(HEAD);
+        parser = HttpRequestParser.create();
+
+        // a request of its own, since a request reads the marks of the parser that produced it
+        HttpRequestParser own = HttpRequestParser.create();
+        own.reset(0);
+        own.parse(buf, HEAD.length);
+        parsed = own.request(buf);
+        parsed.getValue("name");
+    }
+
+    /** Parse the head into a request view. */
+    @Benchmark
+    public HttpRequest parse() throws Exception {
+        parser.reset(0);
+        parser.parse(buf, HEAD.length);
+        return parser.request(buf);
+    }
+
+    /** Parse the head and read a query parameter, as a controller call does. */
+    @Benchmark
+    public String parseAndGetValue() throws Exception {
+        parser.reset(0);
+        parser.parse(buf, HEAD.length);
+        return parser.request(buf).getValue("name");
+    }
+
+    /** Read a query parameter of a request whose query has already been decoded. */
+    @Benchmark
+    public String getValue() {
+        return parsed.getValue("name");
+    }
+
+}
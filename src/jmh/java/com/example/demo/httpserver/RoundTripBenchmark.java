@@ -0,0 +1,133 @@
+package com.example.demo.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full request and response over a loopback keep-alive connection to a running server, for
+ * each engine. Each fork starts its own server on {@link ServerConfig#port}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    private static final byte[] CONTROLLER = ("GET /app/greeting/bench HTTP/1.1\r\nHost: localhost\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATIC = ("GET /styles.css HTTP/1.1\r\nHost: localhost\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private final byte[] buf = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        ServerConfig.engine = engine;
+        // one connection for the whole run, so connection setup is not part of the measurement
+        ServerConfig.maxRequestsPerConnection = Integer.MAX_VALUE;
+        Thread server = new Thread(() -> {
+            try {
+                HttpServer.runServer(new String[]{"com.example.demo.examples.GreetingController"});
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "benchmark-server");
+        server.setDaemon(true);
+        server.start();
+        socket = connect();
+        socket.setTcpNoDelay(true);
+        in = socket.getInputStream();
+        out = socket.getOutputStream();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        socket.close();
+        HttpServer.stop();
+    }
+
+    @Benchmark
+    public int controller() throws IOException {
+        return exchange(CONTROLLER);
+    }
+
+    @Benchmark
+    public int staticFile() throws IOException {
+        return exchange(STATIC);
+    }
+
+    private static Socket connect() throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new Socket("127.0.0.1", ServerConfig.port);
+            } catch (ConnectException e) {
+                if (i == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Send one request and read its whole response.
+     *
+     * @return the response length
+     */
+    private int exchange(byte[] request) throws IOException {
+        out.write(request);
+        out.flush();
+        int filled = 0;
+        int headEnd = -1;
+        long length = 0;
+        while (headEnd < 0 || filled < headEnd + length) {
+            int n = in.read(buf, filled, buf.length - filled);
+            if (n < 0) {
+                throw new IOException("Connection closed by the server");
+            }
+            filled += n;
+            if (headEnd < 0) {
+                headEnd = indexOfHeadEnd(filled);
+                if (headEnd >= 0) {
+                    length = contentLength(headEnd);
+                }
+            }
+        }
+        return filled;
+    }
+
+    private int indexOfHeadEnd(int limit) {
+        for (int i = 3; i < limit; i++) {
+            if (buf[i] == '\n' && buf[i - 1] == '\r' && buf[i - 2] == '\n' && buf[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private long contentLength(int headEnd) {
+        String head = new String(buf, 0, headEnd, StandardCharsets.ISO_8859_1).toLowerCase();
+        int i = head.indexOf("content-length:");
+        if (i < 0) {
+            throw new IllegalStateException("Response without Content-Length");
+        }
+        int end = head.indexOf('\r', i);
+        return Long.parseLong(head.substring(i + "content-length:".length(), end).trim());
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.example.demo.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route lookup: the {@code services} map kept for compatibility against the {@link Router}
+ * tree used to dispatch requests, for a literal route, a path variable route and a miss.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+
+    @Setup
+    public void setup() {
+        HttpServer.loadServices(new String[]{
+                "com.example.demo.examples.GreetingController",
+                "com.example.demo.examples.NumbersController"});
+    }
+
+    @Benchmark
+    public Method servicesLookup() {
+        return HttpServer.services.get("/greeting");
+    }
+
+    @Benchmark
+    public Router.Match<RouteInvoker> routeLiteral() {
+        return HttpServer.router.match("GET", "/greeting");
+    }
+
+    @Benchmark
+    public Router.Match<RouteInvoker> routeVariable() {
+        return HttpServer.router.match("GET", "/greeting/Ana");
+    }
+
+    @Benchmark
+    public Router.Match<RouteInvoker> routeMiss() {
+        return HttpServer.router.match("GET", "/missing/route");
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Time to first request: starts the server in a new JVM, sends {@code GET /app/greeting} until it
+ * is answered with 200, and reports the time from launch over a number of runs, for each startup
+ * mode: reflective registration, generated routes, generated routes with a class data sharing
+ * archive, and the archive with C1 only.
+ * <pre>
+ * mvn -Pbenchmark,cds package -DskipTests
+ * java -cp target/benchmarks.jar com.example.demo.httpserver.StartupBenchmark --jar target/demo-0.0.1-SNAPSHOT.jar
+ * </pre>
+ * Without an archive at {@code --archive}, one is recorded first with a training run.
+ */
+public final class StartupBenchmark {
+
+    private static final byte[] REQUEST =
+            "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    private Path jar = Path.of("target/demo-0.0.1-SNAPSHOT.jar");
+    private Path archive = Path.of("target/app.jsa");
+    private int runs = 10;
+    private int port = 35900;
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        StartupBenchmark bench = new StartupBenchmark();
+        try {
+            bench.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("""
+                    Usage: StartupBenchmark [options]
+                      --jar FILE       application jar (target/demo-0.0.1-SNAPSHOT.jar)
+                      --archive FILE   class data sharing archive, recorded if missing (target/app.jsa)
+                      --runs N         server starts per mode (10)
+                      --port PORT      port the servers listen on (35900)""");
+            System.exit(2);
+        }
+        bench.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--jar" -> jar = Path.of(value);
+                case "--archive" -> archive = Path.of(value);
+                case "--runs" -> runs = Integer.parseInt(value);
+                case "--port" -> port = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (runs < 1 || !Files.isRegularFile(jar)) {
+            throw new IllegalArgumentException("Invalid runs, or no jar at " + jar);
+        }
+    }
+
+    private void run() throws Exception {
+        if (!Files.isRegularFile(archive)) {
+            System.out.println("Recording " + archive + " with a training run");
+            Process training = launch(List.of("-XX:ArchiveClassesAtExit=" + archive, "-Dserver.training=true"), null);
+            if (training.waitFor() != 0 || !Files.isRegularFile(archive)) {
+                throw new IOException("Training run failed; no archive at " + archive);
+            }
+        }
+        String cds = "-XX:SharedArchiveFile=" + archive;
+        System.out.printf(Locale.ROOT, "%-22s %8s %8s %8s   (ms from launch to the first 200, %d runs)%n",
+                "mode", "median", "min", "p90", runs);
+        measure("reflective", List.of("-Dserver.registration=reflective"));
+        measure("generated", List.of("-Dserver.registration=generated"));
+        measure("generated+cds", List.of(cds));
+        measure("generated+cds+c1", List.of(cds, "-XX:TieredStopAtLevel=1"));
+    }
+
+    private void measure(String mode, List<String> options) throws Exception {
+        double[] millis = new double[runs];
+        String startup = "";
+        Path log = Files.createTempFile("startup", ".log");
+        try {
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                Process server = launch(options, log);
+                try {
+                    awaitFirstResponse(server);
+                    millis[i] = (System.nanoTime() - start) / 1e6;
+                } finally {
+                    server.destroy();
+                    server.waitFor();
+                }
+                for (String line : Files.readAllLines(log)) {
+                    if (line.startsWith("Startup (ms)")) {
+                        startup = line;
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(log);
+        }
+        Arrays.sort(millis);
+        System.out.printf(Locale.ROOT, "%-22s %8.0f %8.0f %8.0f   %s%n", mode, millis[(runs - 1) / 2], millis[0],
+                millis[(int) Math.ceil(runs * 0.9) - 1], startup);
+    }
+
+    private Process launch(List<String> options, Path log) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(options);
+        command.add("-Dserver.port=" + port);
+        command.add("-jar");
+        command.add(jar.toString());
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        builder.redirectOutput(log != null ? ProcessBuilder.Redirect.to(log.toFile()) : ProcessBuilder.Redirect.DISCARD);
+        return builder.start();
+    }
+
+    /** Poll until the server answers 200; connections are refused until it listens. */
+    private void awaitFirstResponse(Process server) throws Exception {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        byte[] expected = "HTTP/1.1 200".getBytes(StandardCharsets.US_ASCII);
+        while (System.nanoTime() < deadline) {
+            if (!server.isAlive()) {
+                throw new IOException("Server exited with " + server.exitValue());
+            }
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                OutputStream out = socket.getOutputStream();
+                out.write(REQUEST);
+                out.flush();
+                InputStream in = socket.getInputStream();
+                byte[] status = in.readNBytes(expected.length);
+                if (Arrays.equals(status, expected)) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(1);
+        }
+        throw new IOException("No response within 30 s");
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.example.demo.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static resource responses from the classpath webroot, written to a stream that discards
+ * them: a full response, a gzip-encoded one and a 304 to a conditional request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StaticBenchmark {
+
+    private static final OutputStream DISCARD = OutputStream.nullOutputStream();
+
+    private HttpRequest plain;
+    private HttpRequest gzip;
+    private HttpRequest conditional;
+
+    @Setup
+    public void setup() throws Exception {
+        plain = request("GET /styles.css HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        gzip = request("GET /styles.css HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n");
+        HttpServer.handleRequest(plain, DISCARD, true);
+        String etag = HttpServer.getStaticCache().get("webroot/styles.css").select(plain).etag;
+        conditional = request("GET /styles.css HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + etag + "\r\n\r\n");
+    }
+
+    static HttpRequest request(String head) throws Exception {
+        byte[] bytes = head.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+        buf.put(bytes);
+        HttpRequestParser parser = HttpRequestParser.create();
+        parser.reset(0);
+        parser.parse(buf, bytes.length);
+        return parser.request(buf);
+    }
+
+    @Benchmark
+    public boolean full() throws Exception {
+        return HttpServer.handleRequest(plain, DISCARD, true);
+    }
+
+    @Benchmark
+    public boolean gzip() throws Exception {
+        return HttpServer.handleRequest(gzip, DISCARD, true);
+    }
+
+    @Benchmark
+    public boolean notModified() throws Exception {
+        return HttpServer.handleRequest(conditional, DISCARD, true);
+    }
+
+}
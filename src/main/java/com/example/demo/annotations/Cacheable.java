@@ -0,0 +1,26 @@
+package com.example.demo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Cache the responses of a {@code GetMapping} method, keyed by the values of its
+ * {@code RequestParam} and {@code PathVariable} parameters. Only for methods whose result depends
+ * on nothing else.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+
+    /** Seconds a cached response is served before the method is called again. */
+    public long ttlSeconds() default 60;
+
+    /** Most responses kept for the route; the least recently used are evicted. */
+    public int maxEntries() default 1000;
+
+    /** Most bytes of responses kept for the route. */
+    public long maxBytes() default 1024 * 1024;
+
+}
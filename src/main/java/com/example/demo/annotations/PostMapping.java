@@ -0,0 +1,16 @@
+package com.example.demo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps POST requests for a path to the method, like {@link GetMapping} does for GET. The request
+ * body is read before the method is called and can be taken with a {@link RequestBody} parameter.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PostMapping {
+    public String value();
+}
@@ -0,0 +1,22 @@
+package com.example.demo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limit the rate of requests to a {@code GetMapping} method, across all clients. Requests over
+ * the rate are answered with 429 Too Many Requests without calling the method.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RateLimit {
+
+    /** Sustained requests per second. */
+    public double perSecond();
+
+    /** Requests allowed at once after a quiet period. */
+    public int burst() default 10;
+
+}
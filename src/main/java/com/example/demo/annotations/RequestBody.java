@@ -0,0 +1,16 @@
+package com.example.demo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the request body to the parameter, which is a {@code String} (decoded as UTF-8), a
+ * {@code byte[]}, an {@code InputStream} or a {@code ReadableByteChannel}. Streams and channels
+ * read a large body from its temporary file rather than from memory.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface RequestBody {
+}
@@ -0,0 +1,19 @@
+package com.example.demo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * How long the server waits for the {@code CompletionStage} returned by a {@code GetMapping}
+ * method before answering 504 Gateway Timeout. Without it, {@code server.async.timeoutMs} applies.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Timeout {
+
+    /** Milliseconds from the call of the method to the completion of its result. */
+    public long millis();
+
+}
@@ -0,0 +1,48 @@
+package com.example.demo.examples;
+
+import com.example.demo.annotations.*;
+import com.example.demo.httpserver.EventStream;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+public class EventsController {
+
+	public record Message(long id, String text) {
+	}
+
+	private static final EventStream messages = new EventStream();
+	private static final EventStream clock = new EventStream(1);
+
+	static {
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "clock-events");
+			t.setDaemon(true);
+			return t;
+		});
+		ticker.scheduleAtFixedRate(() -> clock.publish("tick", LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss"))),
+				1, 1, TimeUnit.SECONDS);
+	}
+
+	/** Every message posted to {@code /events}; a reconnecting client gets those it missed. */
+	@GetMapping("/events")
+	public EventStream events() {
+		return messages;
+	}
+
+	/** The server time, once a second. */
+	@GetMapping("/events/clock")
+	public EventStream clock() {
+		return clock;
+	}
+
+	/** Sends the body to every client of {@code /events}, as one event. */
+	@PostMapping("/events")
+	public Message publish(@RequestBody String text) {
+		long id = messages.publish(text);
+		return new Message(id, text);
+	}
+}
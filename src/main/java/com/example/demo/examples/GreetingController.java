@@ -1,6 +1,8 @@
 package com.example.demo.examples;
 
 import com.example.demo.annotations.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 @RestController
@@ -10,7 +12,34 @@ public class GreetingController {
 	private final AtomicLong counter = new AtomicLong();
 
 	@GetMapping("/greeting")
+	@Cacheable(ttlSeconds = 60)
 	public String greeting(@RequestParam(value = "name", defaultValue = "World") String name) {
 		return "Hola " + name;
 	}
+
+	@GetMapping("/greeting/{name}")
+	public String greetingByPath(@PathVariable("name") String name) {
+		return "Hola " + name;
+	}
+
+	public record Greeting(long id, String content) {
+	}
+
+	/** Sent as {"id":1,"content":"Hello, World!"} with content type application/json. */
+	@GetMapping("/json/greeting")
+	public Greeting jsonGreeting(@RequestParam(value = "name", defaultValue = "World") String name) {
+		return new Greeting(counter.incrementAndGet(), String.format(template, name));
+	}
+
+	/**
+	 * Completes after delayMs without holding a server thread meanwhile; a delay past the
+	 * one second timeout is answered with 504.
+	 */
+	@GetMapping("/async/greeting")
+	@Timeout(millis = 1000)
+	public CompletableFuture<Greeting> asyncGreeting(@RequestParam(value = "name", defaultValue = "World") String name,
+			@RequestParam(value = "delayMs", defaultValue = "100") long delayMs) {
+		return CompletableFuture.supplyAsync(() -> new Greeting(counter.incrementAndGet(), String.format(template, name)),
+				CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS));
+	}
 }
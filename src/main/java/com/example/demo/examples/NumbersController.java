@@ -0,0 +1,24 @@
+package com.example.demo.examples;
+
+import com.example.demo.annotations.*;
+import com.example.demo.httpserver.HttpResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+@RestController
+public class NumbersController {
+
+	/**
+	 * Streams a CSV of {@code count} rows; it is sent in chunks as it is written, so the size of
+	 * the response does not matter.
+	 */
+	@GetMapping("/numbers")
+	public void numbers(@RequestParam(value = "count", defaultValue = "10") long count, HttpResponse res) throws IOException {
+		res.contentType("text/csv; charset=UTF-8");
+		Writer w = res.getWriter();
+		w.write("n,square\n");
+		for (long i = 1; i <= count; i++) {
+			w.write(i + "," + (i * i) + "\n");
+		}
+	}
+}
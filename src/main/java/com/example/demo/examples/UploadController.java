@@ -0,0 +1,41 @@
+package com.example.demo.examples;
+
+import com.example.demo.annotations.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+@RestController
+public class UploadController {
+
+	public record Upload(long bytes, String crc32) {
+	}
+
+	/**
+	 * Reads the body as a stream and answers its size and checksum; a body too large for memory
+	 * is read from its temporary file, so any size up to {@code server.http.maxBodyBytes} works.
+	 */
+	@PostMapping("/upload")
+	public Upload upload(@RequestBody InputStream body) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[8192];
+		long bytes = 0;
+		for (int n; (n = body.read(buf)) > 0; ) {
+			crc.update(buf, 0, n);
+			bytes += n;
+		}
+		return new Upload(bytes, Long.toHexString(crc.getValue()));
+	}
+
+	/** Sends the body back, decoded as UTF-8 text. */
+	@PostMapping("/echo")
+	public String echo(@RequestBody String text) {
+		return text;
+	}
+
+	/** Takes its name from an {@code application/x-www-form-urlencoded} body or the query. */
+	@PostMapping("/greeting")
+	public String greeting(@RequestParam(value = "name", defaultValue = "World") String name) {
+		return "Hola " + name;
+	}
+}
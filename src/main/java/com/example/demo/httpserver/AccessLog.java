@@ -0,0 +1,64 @@
+package com.example.demo.httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional per-request console log ({@code server.accessLog=true}). Request threads only offer
+ * the line to a bounded queue; a background thread prints queued lines in batches, so a slow
+ * console never holds up a request. Lines are dropped, and counted, when the queue is full.
+ */
+final class AccessLog {
+
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(8192);
+    private static final LongAdder dropped = new LongAdder();
+    /** Whether the writer thread runs; it is started by the first line, whenever logging is turned on. */
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private AccessLog() {
+    }
+
+    /** Whether lines are logged; check it before building a line. */
+    static boolean enabled() {
+        return ServerConfig.accessLog;
+    }
+
+    static void log(String line) {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread writer = new Thread(AccessLog::drain, "access-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        if (!queue.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    static long getDropped() {
+        return dropped.sum();
+    }
+
+    private static void drain() {
+        List<String> batch = new ArrayList<>(256);
+        StringBuilder sb = new StringBuilder(8192);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, 255);
+                for (String line : batch) {
+                    sb.append(line).append(System.lineSeparator());
+                }
+                System.out.print(sb);
+                batch.clear();
+                sb.setLength(0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
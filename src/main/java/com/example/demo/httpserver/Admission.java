@@ -0,0 +1,136 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control, applied before a request reaches a worker or a controller:
+ * <ul>
+ * <li>a token bucket per client address ({@code server.rateLimit.perClient}), checked for each
+ * request as soon as its head is parsed, and when a connection is accepted so a client over its
+ * rate cannot take a worker by opening connections; answered with 429</li>
+ * <li>a token bucket per route ({@code @RateLimit}); answered with 429</li>
+ * <li>a cap on controller calls in progress ({@code server.concurrency.limit}), optionally
+ * adaptive; answered with 503</li>
+ * </ul>
+ * Rejections are pre-encoded responses that close the connection. Each check that is not
+ * configured costs one null test.
+ */
+final class Admission {
+
+    /** Per-client buckets, or null when clients are not limited. */
+    static volatile RateLimiter clients = newClients();
+
+    /** Controller calls in progress, or null when they are not limited. */
+    static volatile ConcurrencyLimiter concurrency = newConcurrency();
+
+    static final LongAdder clientRejections = new LongAdder();
+    static final LongAdder routeRejections = new LongAdder();
+    static final LongAdder concurrencyRejections = new LongAdder();
+
+    private static final byte[] TOO_MANY_REQUESTS = encode(429, "Too Many Requests");
+    private static final byte[] OVERLOADED = encode(503, "Service Unavailable");
+
+    private Admission() {
+    }
+
+    /**
+     * Rebuild the limiters from the current {@link ServerConfig}, which may have changed since
+     * this class was loaded; called when a server starts.
+     */
+    static void configure() {
+        clients = newClients();
+        concurrency = newConcurrency();
+    }
+
+    private static RateLimiter newClients() {
+        return ServerConfig.rateLimitPerClient > 0
+                ? new RateLimiter(ServerConfig.rateLimitPerClient, Math.max(1, ServerConfig.rateLimitClientBurst), ServerConfig.rateLimitClientSlots)
+                : null;
+    }
+
+    private static ConcurrencyLimiter newConcurrency() {
+        return ServerConfig.concurrencyLimit > 0
+                ? new ConcurrencyLimiter(ServerConfig.concurrencyLimit, ServerConfig.concurrencyMinLimit,
+                        ServerConfig.concurrencyAdaptive, ServerConfig.concurrencyTolerance)
+                : null;
+    }
+
+    /**
+     * @return the bucket key of a client, from its address without the port
+     */
+    static int clientKey(SocketAddress address) {
+        if (address instanceof InetSocketAddress isa && isa.getAddress() != null) {
+            return clientKey(isa.getAddress());
+        }
+        return 0;
+    }
+
+    static int clientKey(InetAddress address) {
+        return address != null ? address.hashCode() : 0;
+    }
+
+    /**
+     * @return whether a new connection from the client can be served; it takes no token
+     */
+    static boolean admitConnection(int clientKey) {
+        RateLimiter limiter = clients;
+        if (limiter == null || limiter.hasToken(clientKey)) {
+            return true;
+        }
+        clientRejections.increment();
+        return false;
+    }
+
+    /**
+     * @param nanoTime the current {@link System#nanoTime()}
+     * @return whether a request from the client is within its rate
+     */
+    static boolean admitRequest(int clientKey, long nanoTime) {
+        RateLimiter limiter = clients;
+        if (limiter == null || limiter.tryAcquire(clientKey, nanoTime)) {
+            return true;
+        }
+        clientRejections.increment();
+        return false;
+    }
+
+    /**
+     * Send 429 Too Many Requests and ask the client to close.
+     */
+    static void writeTooManyRequests(OutputStream out) throws IOException {
+        out.write(TOO_MANY_REQUESTS);
+        Metrics.status(429);
+    }
+
+    /**
+     * Send 503 Service Unavailable and ask the client to close.
+     */
+    static void writeOverloaded(OutputStream out) throws IOException {
+        out.write(OVERLOADED);
+        Metrics.status(503);
+    }
+
+    /** The 429 response, for writing to a channel. */
+    static ByteBuffer tooManyRequests() {
+        Metrics.status(429);
+        return ByteBuffer.wrap(TOO_MANY_REQUESTS).asReadOnlyBuffer();
+    }
+
+    private static byte[] encode(int status, String reason) {
+        return ("HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Retry-After: 1\r\n"
+                + "Content-Length: " + reason.length() + "\r\n"
+                + "Connection: close\r\n"
+                + "\r\n"
+                + reason).getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
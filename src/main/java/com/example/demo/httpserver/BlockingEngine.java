@@ -0,0 +1,435 @@
+package com.example.demo.httpserver;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Classic engine: acceptor threads ({@code server.acceptors} per listener) accept connections
+ * and each connection is served by a pool thread with blocking socket streams for as long as it stays open. Sockets are blocking
+ * channels underneath, so file bodies can be sent with {@link FileChannel#transferTo}.
+ * While a controller's {@code CompletionStage} result is pending the connection gives its
+ * thread back to the pool, and is picked up again by a pool thread once the response is written.
+ * <p>
+ * With {@code platform} workers every open connection holds one of {@code server.workerThreads},
+ * so a connection idle between requests is closed as soon as another connection waits for a
+ * worker, rather than at the end of its keep-alive timeout.
+ */
+class BlockingEngine implements ServerEngine {
+
+    /** How often a connection idle on a fixed pool thread checks for connections waiting for one. */
+    private static final int IDLE_CHECK_MS = 100;
+
+    private final WorkerPool threadPool;
+    private volatile boolean running = true;
+    private final List<ServerSocketChannel> channels = new CopyOnWriteArrayList<>();
+
+    BlockingEngine(WorkerPool threadPool) {
+        this.threadPool = threadPool;
+    }
+
+    /**
+     * Several acceptors on one listener either share its socket, taking turns in {@code accept},
+     * or with {@code server.reusePort} each bind their own and the kernel spreads connections.
+     */
+    @Override
+    public void serve(List<InetSocketAddress> addresses) throws IOException {
+        boolean reusePort = Listeners.reusePort();
+        int acceptors = Math.max(1, ServerConfig.acceptors);
+        List<Thread> threads = new ArrayList<>();
+        try {
+            for (InetSocketAddress address : addresses) {
+                ServerSocketChannel channel = null;
+                for (int i = 0; i < acceptors; i++) {
+                    if (channel == null || reusePort) {
+                        channel = Listeners.open(address, reusePort);
+                        channels.add(channel);
+                    }
+                    ServerSocketChannel listener = channel;
+                    threads.add(new Thread(() -> acceptLoop(listener), "acceptor-" + threads.size()));
+                }
+            }
+            StringBuilder bound = new StringBuilder();
+            for (ServerSocketChannel channel : channels) {
+                String name = Listeners.describe(channel);
+                if (bound.indexOf(name) < 0) {
+                    bound.append(bound.length() > 0 ? ", " : "").append(name);
+                }
+            }
+            System.out.println("Concurrent server started on " + bound + " (blocking engine, " + threads.size()
+                    + " acceptors" + (reusePort ? ", SO_REUSEPORT" : "") + ")");
+
+            for (Thread t : threads) {
+                t.start();
+            }
+            Startup.ready();
+            for (Thread t : threads) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            stop();
+            threadPool.shutdown();
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel channel) {
+        while (running) {
+            try {
+                Socket clientSocket = channel.accept().socket();
+                try {
+                    Listeners.configure(clientSocket);
+                } catch (IOException e) {
+                    clientSocket.close();
+                    continue;
+                }
+                int clientKey = Admission.clientKey(clientSocket.getInetAddress());
+                if (!Admission.admitConnection(clientKey)) {
+                    reject(clientSocket, 429);
+                } else if (!threadPool.execute(new Connection(clientSocket, clientKey))) {
+                    reject(clientSocket, 503);
+                }
+            } catch (IOException e) {
+                if (!running || !channel.isOpen()) {
+                    break;
+                }
+                System.err.println("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Answer 429 (client over its rate) or 503 (pool saturated) on the accept thread; the
+     * response is small enough to fit in the socket send buffer, so this does not block accepting.
+     */
+    private static void reject(Socket clientSocket, int status) {
+        try (Socket socket = clientSocket;
+             OutputStream out = socket.getOutputStream()) {
+            if (status == 429) {
+                Admission.writeTooManyRequests(out);
+            } else {
+                Admission.writeOverloaded(out);
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing server socket: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serves every request of a client connection on a pool thread. The connection is kept open
+     * for further (possibly pipelined) requests until the client asks to close it, it stays idle
+     * longer than the keep-alive timeout or it reaches the per-connection request cap.
+     */
+    private final class Connection implements Runnable {
+
+        private final Socket socket;
+        private final int clientKey;
+        private InputStream in;
+        private SocketOutput out;
+        private final byte[] bytes = new byte[HttpRequestParser.bufferSize()];
+        private final ByteBuffer buf = ByteBuffer.wrap(bytes);
+        private final HttpRequestParser parser = HttpRequestParser.create();
+        private int filled;
+        private int consumed;
+        private int served;
+        /** Outcome of the asynchronous response the connection was suspended for, or null. */
+        private Boolean resumed;
+        /** Body of the current request, kept until its response has been written. */
+        private SpooledBody body;
+
+        Connection(Socket socket, int clientKey) {
+            this.socket = socket;
+            this.clientKey = clientKey;
+        }
+
+        @Override
+        public void run() {
+            boolean suspended = false;
+            try {
+                if (in == null) {
+                    socket.setSoTimeout(ServerConfig.keepAliveTimeoutMs);
+                    out = new SocketOutput(socket.getOutputStream(), socket.getChannel());
+                    in = socket.getInputStream();
+                    Metrics.connectionOpened();
+                }
+                suspended = serve();
+            } catch (Exception e) {
+                System.err.println("Error handling client request: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                if (!suspended) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * @return true if the connection waits for an asynchronous response and stays open
+         */
+        private boolean serve() throws IOException {
+            if (resumed != null) {
+                boolean keepAlive = resumed;
+                resumed = null;
+                if (!afterResponse(keepAlive)) {
+                    return false;
+                }
+            }
+            while (running) {
+                HttpRequest req;
+                long parsed;
+                parser.reset(0);
+                try {
+                    // parse time excludes waiting for the client to send the rest of the head
+                    long parseNanos = 0;
+                    long parseStart = System.nanoTime();
+                    while (!parser.parse(buf, filled)) {
+                        if (filled == bytes.length) {
+                            throw new HttpRequestParser.ParseException(431, "Request head too large");
+                        }
+                        parseNanos += System.nanoTime() - parseStart;
+                        int n = filled == 0 && threadPool.hasFixedThreads() ? readIdle() : in.read(bytes, filled, bytes.length - filled);
+                        if (n < 0) {
+                            return false;
+                        }
+                        filled += n;
+                        parseStart = System.nanoTime();
+                    }
+                    req = parser.request(buf);
+                    parsed = System.nanoTime();
+                    Metrics.PARSE.record(parseNanos + parsed - parseStart);
+                } catch (SocketTimeoutException e) {
+                    return false;
+                } catch (HttpRequestParser.ParseException e) {
+                    HttpServer.writeResponse(out, e.status, "text/plain", e.getMessage(), false);
+                    return false;
+                } catch (IllegalArgumentException e) {
+                    HttpServer.writeResponse(out, 400, "text/plain", "Bad Request", false);
+                    return false;
+                }
+                if (!Admission.admitRequest(clientKey, parsed)) {
+                    Admission.writeTooManyRequests(out);
+                    return false;
+                }
+                consumed = parser.headEnd();
+                served++;
+                boolean keepAlive = running && req.isKeepAlive() && served < ServerConfig.maxRequestsPerConnection;
+
+                try {
+                    body = SpooledBody.forRequest(req);
+                } catch (HttpRequestParser.ParseException e) {
+                    HttpServer.writeResponse(out, e.status, "text/plain", e.getMessage(), false);
+                    return false;
+                }
+                if (body != null) {
+                    req.body = body;
+                    if (!readBody(req)) {
+                        return false;
+                    }
+                }
+
+                CompletableFuture<Boolean> outcome = HttpServer.handleRequestAsync(req, out, keepAlive);
+                if (out.handoff != null) {
+                    handOff();
+                    return true;
+                }
+                if (!outcome.isDone()) {
+                    // earlier pipelined responses should not wait for this one
+                    out.flush();
+                    outcome.whenComplete(this::resume);
+                    return true;
+                }
+                if (!afterResponse(outcome.join())) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Wait for the first bytes of a request for up to the keep-alive timeout, in slices of
+         * {@link #IDLE_CHECK_MS}, giving the thread up once another connection is queued for one.
+         *
+         * @return the number of bytes read, or -1 to close the connection
+         */
+        private int readIdle() throws IOException {
+            int timeout = ServerConfig.keepAliveTimeoutMs;
+            long deadline = System.nanoTime() + timeout * 1_000_000L;
+            socket.setSoTimeout(timeout > 0 ? Math.min(IDLE_CHECK_MS, timeout) : IDLE_CHECK_MS);
+            try {
+                while (true) {
+                    try {
+                        return in.read(bytes, 0, bytes.length);
+                    } catch (SocketTimeoutException e) {
+                        if (threadPool.getQueuedCount() > 0 || (timeout > 0 && System.nanoTime() - deadline >= 0)) {
+                            return -1;
+                        }
+                    }
+                }
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        }
+
+        /**
+         * Read the body of {@code req}, starting with the bytes buffered behind its head. A client
+         * that sent {@code Expect: 100-continue} is told to go ahead first.
+         *
+         * @return false if the connection ended, or the body was refused and the response written
+         */
+        private boolean readBody(HttpRequest req) throws IOException {
+            if (consumed == filled && req.expectsContinue()) {
+                out.write(SpooledBody.CONTINUE);
+                out.flush();
+            }
+            try {
+                consumed += body.feed(buf, consumed, filled);
+                if (!body.isComplete()) {
+                    // the head is a view over the buffer, which now takes the rest of the body
+                    req.detach();
+                    while (!body.isComplete()) {
+                        int n = in.read(bytes, 0, bytes.length);
+                        if (n < 0) {
+                            return false;
+                        }
+                        filled = n;
+                        consumed = body.feed(buf, 0, n);
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (HttpRequestParser.ParseException e) {
+                HttpServer.writeResponse(out, e.status, "text/plain", e.getMessage(), false);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Flush unless more pipelined requests are already here, and move their bytes to the
+         * start of the buffer.
+         *
+         * @return whether to serve another request
+         */
+        private boolean afterResponse(boolean keepAlive) throws IOException {
+            releaseBody();
+            if (!keepAlive || (consumed == filled && in.available() == 0)) {
+                out.flush();
+            }
+            if (!keepAlive) {
+                return false;
+            }
+            System.arraycopy(bytes, consumed, bytes, 0, filled - consumed);
+            filled -= consumed;
+            return true;
+        }
+
+        /**
+         * Give the socket to the handler of the response, for good; the thread goes back to the
+         * pool without waiting on it.
+         */
+        private void handOff() throws IOException {
+            releaseBody();
+            out.flush();
+            SocketChannel channel = socket.getChannel();
+            channel.configureBlocking(false);
+            out.handoff.accept(channel);
+        }
+
+        /** Continue on a pool thread once the asynchronous response has been written. */
+        private void resume(Boolean keepAlive, Throwable error) {
+            if (error != null) {
+                System.err.println("Error handling client request: " + error.getMessage());
+                close();
+                return;
+            }
+            resumed = keepAlive;
+            if (!threadPool.execute(this)) {
+                close();
+            }
+        }
+
+        private void releaseBody() {
+            if (body != null) {
+                body.release();
+                body = null;
+            }
+        }
+
+        /** Flush what is left and close the socket. */
+        private void close() {
+            releaseBody();
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+            if (in != null) {
+                Metrics.connectionClosed();
+            }
+        }
+    }
+
+    /**
+     * Buffered socket output that sends file regions from the file channel to the socket channel,
+     * and can give the socket away after a response.
+     */
+    private static final class SocketOutput extends BufferedOutputStream implements FileSender, StreamHandoff {
+
+        private final SocketChannel channel;
+        private Consumer<SocketChannel> handoff;
+
+        SocketOutput(OutputStream out, SocketChannel channel) {
+            super(out, 8192);
+            this.channel = channel;
+        }
+
+        @Override
+        public void handOff(Consumer<SocketChannel> target) {
+            this.handoff = target;
+        }
+
+        @Override
+        public void sendFile(FileChannel file, long position, long count) throws IOException {
+            try (file) {
+                flush();
+                while (count > 0) {
+                    long n = file.transferTo(position, count, channel);
+                    if (n <= 0) {
+                        throw new EOFException("File truncated");
+                    }
+                    position += n;
+                    count -= n;
+                }
+            }
+        }
+    }
+
+}
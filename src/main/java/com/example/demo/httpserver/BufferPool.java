@@ -0,0 +1,93 @@
+package com.example.demo.httpserver;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free pool of equally sized byte arrays, so writing a response reuses a buffer instead of
+ * allocating one per request or per chunk. Buffers that do not fit in the pool are left to GC.
+ * <p>
+ * A body starts in a small plain array and only moves to a pooled buffer once that fills up
+ * ({@link #grow}): a small JSON document or page costs one short allocation, which is cheaper
+ * than the atomic operations of taking a buffer from the pool and putting it back.
+ * <p>
+ * A thread first tries a slot picked by its id, which takes a single compare-and-set and allocates
+ * nothing; the shared queue behind the slots only comes into play when threads collide on a slot
+ * or hold more than one buffer at a time.
+ */
+final class BufferPool {
+
+    /** Buffers that response bodies are written through before they go to the connection. */
+    static final BufferPool RESPONSE = new BufferPool(16 * 1024, 256);
+
+    /** Size of the plain array a body starts in. */
+    static final int FIRST_SIZE = 512;
+
+    private static final int SLOTS = 16;
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final AtomicReferenceArray<byte[]> slots = new AtomicReferenceArray<>(SLOTS);
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    byte[] acquire() {
+        int slot = slot();
+        byte[] b = slots.get(slot);
+        if (b != null && slots.compareAndSet(slot, b, null)) {
+            return b;
+        }
+        b = free.poll();
+        if (b == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return b;
+    }
+
+    /**
+     * @return whether {@code b} is smaller than the pooled buffers, such as a first buffer
+     */
+    boolean isSmall(byte[] b) {
+        return b.length < bufferSize;
+    }
+
+    /**
+     * @return a pooled buffer that starts with the first {@code len} bytes of the small buffer {@code b}
+     */
+    byte[] grow(byte[] b, int len) {
+        byte[] pooledBuf = acquire();
+        System.arraycopy(b, 0, pooledBuf, 0, len);
+        return pooledBuf;
+    }
+
+    /** Put a buffer back; one of another size, such as a first buffer, is left to GC. */
+    void release(byte[] b) {
+        if (b.length != bufferSize) {
+            return;
+        }
+        if (slots.compareAndSet(slot(), null, b)) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(b);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    private static int slot() {
+        return (int) Thread.currentThread().threadId() & (SLOTS - 1);
+    }
+
+}
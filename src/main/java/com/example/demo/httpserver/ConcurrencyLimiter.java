@@ -0,0 +1,108 @@
+package com.example.demo.httpserver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of controller calls in progress at once. Entering is one atomic increment and
+ * a comparison with the current limit.
+ * <p>
+ * An adaptive limiter moves its limit between the minimum and the configured maximum from the
+ * latency it observes, additive increase and multiplicative decrease as in TCP congestion
+ * control: after every window of calls, if their average latency is more than
+ * {@code tolerance} times the lowest window average seen recently, work is queuing somewhere
+ * and the limit drops by a tenth; otherwise it grows by one. The lowest average is forgotten
+ * every 100 windows, so the limit can follow a lasting change in the work itself.
+ */
+final class ConcurrencyLimiter {
+
+    private static final int WINDOW = 256;
+    private static final int COUNT_BITS = 10;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int BASELINE_WINDOWS = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    /** Calls in the current window in the low {@link #COUNT_BITS} bits, their latency sum in microseconds above. */
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private long baseline = Long.MAX_VALUE;
+    private int windows;
+
+    /**
+     * @param maxLimit largest number of calls in progress, and the starting limit
+     * @param minLimit lowest limit an adaptive limiter goes down to
+     * @param adaptive whether to lower the limit while latency is up
+     * @param tolerance latency increase over the baseline that counts as queuing
+     */
+    ConcurrencyLimiter(int maxLimit, int minLimit, boolean adaptive, double tolerance) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.adaptive = adaptive;
+        this.tolerance = tolerance;
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * @return false if the limit is reached; otherwise the call must be followed by {@link #release}
+     */
+    boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param latencyNanos time from {@link #tryAcquire} until the response was written
+     */
+    void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        if (!adaptive) {
+            return;
+        }
+        long w = window.addAndGet(((latencyNanos / 1000) << COUNT_BITS) + 1);
+        if ((w & COUNT_MASK) >= WINDOW && updating.compareAndSet(false, true)) {
+            try {
+                w = window.getAndSet(0);
+                long count = w & COUNT_MASK;
+                if (count > 0) {
+                    adjust((w >>> COUNT_BITS) / count);
+                }
+            } finally {
+                updating.set(false);
+            }
+        }
+    }
+
+    /** Called by one thread at a time, with the window's average latency in microseconds. */
+    private void adjust(long average) {
+        if (++windows >= BASELINE_WINDOWS) {
+            windows = 0;
+            baseline = Long.MAX_VALUE;
+        }
+        baseline = Math.min(baseline, average);
+        int current = limit;
+        if (average > baseline * tolerance) {
+            limit = Math.max(minLimit, (int) (current * 0.9));
+        } else if (current < maxLimit) {
+            limit = current + 1;
+        }
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+}
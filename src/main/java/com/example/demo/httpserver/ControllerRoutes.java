@@ -0,0 +1,142 @@
+package com.example.demo.httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The routes of one {@code @RestController}, generated at compile time by
+ * {@code ControllerIndexProcessor} as {@code <Controller>_Routes} and listed for
+ * {@link java.util.ServiceLoader}. The generated class creates the controller with its constructor
+ * and calls its methods directly, and describes each route's parameters and annotations as data,
+ * so registering and calling routes needs no reflection, annotation proxies or method handles:
+ * startup does less work, and the server can be compiled to a native image.
+ */
+public interface ControllerRoutes {
+
+    /**
+     * @return the controller class these routes call
+     */
+    Class<?> controller();
+
+    /**
+     * @return every route of the controller, in the order of its methods
+     */
+    List<Route> routes();
+
+    /**
+     * Call the method of the route at {@code index} in {@link #routes()}.
+     *
+     * @param args bound arguments, boxed where the method takes primitives
+     * @return the method's result, null if it is void
+     */
+    Object invoke(int index, Object[] args) throws Throwable;
+
+    /**
+     * One controller method and how to bind its parameters; built by generated code.
+     */
+    final class Route {
+
+        static final int REQUEST = 0;
+        static final int RESPONSE = 1;
+        static final int PARAM = 2;
+        static final int PATH = 3;
+        static final int BODY = 4;
+        static final int UNBOUND = 5;
+
+        final String httpMethod;
+        final String path;
+        final String name;
+        final Class<?> resultType;
+        /** Value type of a {@code CompletionStage} result, or null if the result is not one. */
+        Class<?> asyncType;
+        final List<Param> params = new ArrayList<>();
+        long timeoutMillis = -1;
+        double ratePerSecond;
+        int rateBurst;
+        long cacheTtlSeconds = -1;
+        int cacheMaxEntries;
+        long cacheMaxBytes;
+
+        /**
+         * @param name method name for log messages, e.g. {@code GreetingController.greeting}
+         */
+        public Route(String httpMethod, String path, String name, Class<?> resultType) {
+            this.httpMethod = httpMethod;
+            this.path = path;
+            this.name = name;
+            this.resultType = resultType;
+        }
+
+        /** The method returns a {@code CompletionStage} of {@code valueType}. */
+        public Route async(Class<?> valueType) {
+            this.asyncType = valueType;
+            return this;
+        }
+
+        /** The next parameter takes the {@link HttpRequest}. */
+        public Route request() {
+            params.add(new Param(REQUEST, null, HttpRequest.class, null, null));
+            return this;
+        }
+
+        /** The next parameter takes the {@link HttpResponse}. */
+        public Route response() {
+            params.add(new Param(RESPONSE, null, HttpResponse.class, null, null));
+            return this;
+        }
+
+        /**
+         * The next parameter is a {@code @RequestParam}.
+         *
+         * @param elementType element type of a {@code List} parameter, else null
+         */
+        public Route param(String name, Class<?> type, Class<?> elementType, String defaultValue) {
+            params.add(new Param(PARAM, name, type, elementType, defaultValue));
+            return this;
+        }
+
+        /** The next parameter is a {@code @PathVariable}. */
+        public Route pathVariable(String name, Class<?> type) {
+            params.add(new Param(PATH, name, type, null, null));
+            return this;
+        }
+
+        /** The next parameter is the {@code @RequestBody}. */
+        public Route body(Class<?> type) {
+            params.add(new Param(BODY, null, type, null, null));
+            return this;
+        }
+
+        /** The next parameter is not bound and gets null. */
+        public Route unbound(Class<?> type) {
+            params.add(new Param(UNBOUND, null, type, null, null));
+            return this;
+        }
+
+        /** From {@code @Timeout}. */
+        public Route timeout(long millis) {
+            this.timeoutMillis = millis;
+            return this;
+        }
+
+        /** From {@code @RateLimit}. */
+        public Route rateLimit(double perSecond, int burst) {
+            this.ratePerSecond = perSecond;
+            this.rateBurst = burst;
+            return this;
+        }
+
+        /** From {@code @Cacheable}. */
+        public Route cacheable(long ttlSeconds, int maxEntries, long maxBytes) {
+            this.cacheTtlSeconds = ttlSeconds;
+            this.cacheMaxEntries = maxEntries;
+            this.cacheMaxBytes = maxBytes;
+            return this;
+        }
+    }
+
+    /** How one parameter is bound. */
+    record Param(int kind, String name, Class<?> type, Class<?> elementType, String defaultValue) {
+    }
+
+}
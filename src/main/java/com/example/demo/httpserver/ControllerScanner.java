@@ -0,0 +1,178 @@
+package com.example.demo.httpserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Finds {@code @RestController} classes, preferably from the index written at compile time by
+ * {@code ControllerIndexProcessor}. Without an index the class path is scanned instead: only
+ * classes in {@code server.scan.packages} (all packages when it is empty) are read, and their
+ * class files are checked for the annotation before anything is loaded, so no other class is
+ * loaded or initialized.
+ */
+final class ControllerScanner {
+
+    /** Same path as {@code ControllerIndexProcessor.INDEX}. */
+    static final String INDEX = "META-INF/microspring/controllers";
+
+    private static final byte[] REST_CONTROLLER_DESCRIPTOR =
+            "Lcom/example/demo/annotations/RestController;".getBytes(StandardCharsets.US_ASCII);
+
+    private ControllerScanner() {
+    }
+
+    /**
+     * @return the controller class names listed by every index on the class path; empty if
+     * there is none
+     */
+    static Set<String> readIndex(ClassLoader loader) throws IOException {
+        Set<String> names = new LinkedHashSet<>();
+        Enumeration<URL> indexes = loader.getResources(INDEX);
+        while (indexes.hasMoreElements()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(indexes.nextElement().openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        names.add(line);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Scan the directories and jars of {@code classPath} for classes annotated with
+     * {@code @RestController}, looking only at class file bytes.
+     *
+     * @param packages package names to scan, with their subpackages; empty for all
+     * @return binary names of the controller classes found
+     */
+    static List<String> scan(String classPath, List<String> packages) throws IOException {
+        List<String> prefixes = new ArrayList<>();
+        for (String p : packages) {
+            prefixes.add(p.replace('.', '/') + "/");
+        }
+        List<String> found = new ArrayList<>();
+        for (String cpEntry : classPath.split(System.getProperty("path.separator"))) {
+            if (cpEntry.isEmpty()) {
+                continue;
+            }
+            Path p = Paths.get(cpEntry);
+            if (Files.isDirectory(p)) {
+                String separator = FileSystems.getDefault().getSeparator();
+                try (Stream<Path> files = Files.walk(p)) {
+                    for (Path fp : (Iterable<Path>) files::iterator) {
+                        String rel = p.relativize(fp).toString().replace(separator, "/");
+                        if (rel.endsWith(".class") && inPackages(rel, prefixes) && isController(Files.readAllBytes(fp))) {
+                            found.add(className(rel));
+                        }
+                    }
+                }
+            } else if (cpEntry.endsWith(".jar") && Files.isRegularFile(p)) {
+                try (JarFile jf = new JarFile(cpEntry)) {
+                    Enumeration<JarEntry> en = jf.entries();
+                    while (en.hasMoreElements()) {
+                        JarEntry je = en.nextElement();
+                        String name = je.getName();
+                        if (name.startsWith("BOOT-INF/classes/")) {
+                            name = name.substring("BOOT-INF/classes/".length());
+                        }
+                        if (name.endsWith(".class") && inPackages(name, prefixes)) {
+                            try (InputStream in = jf.getInputStream(je)) {
+                                if (isController(in.readAllBytes())) {
+                                    found.add(className(name));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean inPackages(String path, List<String> prefixes) {
+        if (prefixes.isEmpty()) {
+            return !path.startsWith("META-INF/") && !path.endsWith("module-info.class");
+        }
+        for (String prefix : prefixes) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String className(String path) {
+        return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * Whether the constant pool of a class file holds the {@code @RestController} type
+     * descriptor, which only appears there when the annotation is used. The annotation only
+     * targets types, so this is the class itself.
+     */
+    static boolean isController(byte[] classFile) {
+        ByteBuffer b = ByteBuffer.wrap(classFile);
+        try {
+            if (b.getInt() != 0xCAFEBABE) {
+                return false;
+            }
+            b.position(8);
+            int count = b.getShort() & 0xffff;
+            for (int i = 1; i < count; i++) {
+                int tag = b.get();
+                switch (tag) {
+                    case 1: { // Utf8
+                        int len = b.getShort() & 0xffff;
+                        if (len == REST_CONTROLLER_DESCRIPTOR.length
+                                && b.slice(b.position(), len).equals(ByteBuffer.wrap(REST_CONTROLLER_DESCRIPTOR))) {
+                            return true;
+                        }
+                        b.position(b.position() + len);
+                        break;
+                    }
+                    case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+                        b.position(b.position() + 2);
+                        break;
+                    case 15: // MethodHandle
+                        b.position(b.position() + 3);
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        b.position(b.position() + 4);
+                        break;
+                    case 5: case 6: // Long, Double take two slots
+                        b.position(b.position() + 8);
+                        i++;
+                        break;
+                    default:
+                        return false;
+                }
+            }
+        } catch (RuntimeException e) {
+            // truncated or malformed class file
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,294 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the connections of every {@link EventStream} subscriber on one selector thread, started
+ * with the first subscriber, whichever engine accepted them. Publishing threads only queue the
+ * encoded event to each subscriber and wake the thread once; the thread writes whatever each
+ * socket takes and waits for writability on the rest, so idle and slow clients cost no thread.
+ * Queued events are shared with every other subscriber, so a queue costs a reference per event.
+ * <p>
+ * A subscriber is dropped when its socket takes no more while over
+ * {@code server.sse.maxQueuedBytes} wait for it, or when it has accepted none of them for
+ * {@code server.sse.stallTimeoutMs}. A stream that has been quiet for {@code server.sse.heartbeatMs}
+ * gets a comment line, which keeps proxies from closing it and finds clients that have gone away.
+ */
+final class EventHub implements Runnable {
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    /** Subscribers dropped for falling behind, for {@link Metrics}. */
+    static final LongAdder dropped = new LongAdder();
+    private static final AtomicLong open = new AtomicLong();
+    private static EventHub instance;
+
+    private final Selector selector;
+    /** Subscribers with events to write, or new ones to register; added by any thread. */
+    private final Queue<Subscriber> ready = new ConcurrentLinkedQueue<>();
+    private final Set<Subscriber> subscribers = new HashSet<>();
+    private final ByteBuffer discard = ByteBuffer.allocate(512);
+    private volatile boolean running = true;
+
+    private EventHub() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * @return the hub, started on first use
+     */
+    static synchronized EventHub get() {
+        if (instance == null) {
+            try {
+                instance = new EventHub();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open a selector for event streams", e);
+            }
+            Thread thread = new Thread(instance, "event-streams");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    /** Close every subscriber connection, if the hub was started. */
+    static synchronized void shutdown() {
+        if (instance != null) {
+            instance.running = false;
+            instance.selector.wakeup();
+            instance = null;
+        }
+    }
+
+    /**
+     * @return the number of open subscriber connections
+     */
+    static long subscriberCount() {
+        return open.get();
+    }
+
+    /**
+     * The status line, headers and reconnection delay that start every event stream. The body is
+     * not chunked but ends with the connection, so each event is sent as it was encoded.
+     */
+    static byte[] head() {
+        return ("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/event-stream; charset=utf-8\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "X-Accel-Buffering: no\r\n"
+                + "Connection: close\r\n"
+                + "\r\n"
+                + "retry: " + ServerConfig.sseRetryMs + "\n\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Take over {@code channel} as a subscriber of {@code stream}: send the stream head and the
+     * events after {@code lastEventId}, then every new event until the client goes away.
+     */
+    static void attach(SocketChannel channel, EventStream stream, String lastEventId) {
+        EventHub hub = get();
+        Subscriber subscriber = new Subscriber(hub, channel, stream);
+        open.incrementAndGet();
+        Metrics.status(200);
+        subscriber.send(head());
+        stream.subscribe(subscriber, lastEventId);
+        hub.wakeup();
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(1000);
+                Subscriber subscriber;
+                while ((subscriber = ready.poll()) != null) {
+                    subscriber.flush();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Subscriber s = (Subscriber) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        s.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        s.flush();
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= 1000) {
+                    lastSweep = now;
+                    sweep(now);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Event stream loop failed: " + e.getMessage());
+        } finally {
+            // subscribers still in ready may not be registered yet, so they are not in subscribers
+            Subscriber waiting;
+            while ((waiting = ready.poll()) != null) {
+                waiting.close();
+            }
+            for (Subscriber s : subscribers.toArray(new Subscriber[0])) {
+                s.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /** Drop stalled subscribers and send heartbeats on quiet streams. */
+    private void sweep(long now) {
+        for (Subscriber s : subscribers.toArray(new Subscriber[0])) {
+            if (s.blockedSince != 0 && now - s.blockedSince > ServerConfig.sseStallTimeoutMs) {
+                dropped.increment();
+                s.close();
+            } else if (s.queued.get() == 0 && now - s.lastWrite >= ServerConfig.sseHeartbeatMs) {
+                s.send(HEARTBEAT);
+                s.flush();
+            }
+        }
+    }
+
+    /**
+     * One client connection of an {@link EventStream}. Events are queued by publishing threads and
+     * written by the hub thread, which also owns the channel.
+     */
+    static final class Subscriber {
+
+        private final EventHub hub;
+        private final SocketChannel channel;
+        private final EventStream stream;
+        private final Queue<byte[]> events = new ConcurrentLinkedQueue<>();
+        /** Bytes queued and not yet written. */
+        private final AtomicLong queued = new AtomicLong();
+        /** Whether the subscriber is in {@link EventHub#ready}. */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+        private SelectionKey key;
+        private ByteBuffer writing;
+        private long lastWrite = System.currentTimeMillis();
+        /** When a write last left bytes the socket would not take, 0 while it keeps up. */
+        private long blockedSince;
+
+        Subscriber(EventHub hub, SocketChannel channel, EventStream stream) {
+            this.hub = hub;
+            this.channel = channel;
+            this.stream = stream;
+        }
+
+        /**
+         * Queue an encoded event; the caller wakes the hub. A backlog here may only mean that the
+         * hub has not got to this subscriber yet, so whether it is too slow is decided by
+         * {@link #flush()}, once its socket stops taking bytes.
+         */
+        void send(byte[] event) {
+            if (closed) {
+                return;
+            }
+            queued.addAndGet(event.length);
+            events.add(event);
+            if (scheduled.compareAndSet(false, true)) {
+                hub.ready.add(this);
+            }
+        }
+
+        /** Write queued events until the socket would block. */
+        private void flush() {
+            scheduled.set(false);
+            if (closed) {
+                return;
+            }
+            try {
+                if (key == null) {
+                    key = channel.register(hub.selector, SelectionKey.OP_READ, this);
+                    hub.subscribers.add(this);
+                }
+                while (true) {
+                    if (writing == null) {
+                        byte[] next = events.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        writing = ByteBuffer.wrap(next);
+                    }
+                    channel.write(writing);
+                    if (writing.hasRemaining()) {
+                        if (queued.get() > ServerConfig.sseMaxQueuedBytes) {
+                            dropped.increment();
+                            close();
+                            return;
+                        }
+                        if (blockedSince == 0) {
+                            blockedSince = System.currentTimeMillis();
+                        }
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    queued.addAndGet(-writing.capacity());
+                    writing = null;
+                    lastWrite = System.currentTimeMillis();
+                    blockedSince = 0;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /** Anything the client sends is ignored; the end of its input ends the stream. */
+        private void onReadable() {
+            try {
+                int n;
+                do {
+                    hub.discard.clear();
+                    n = channel.read(hub.discard);
+                } while (n > 0);
+                if (n < 0) {
+                    close();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stream.unsubscribe(this);
+            events.clear();
+            hub.subscribers.remove(this);
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            open.decrementAndGet();
+            Metrics.connectionClosed();
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A stream of Server-Sent Events that any number of clients subscribe to. A {@code GetMapping}
+ * method returns it, and the server answers with {@code text/event-stream} and gives the
+ * connection to {@link EventHub}, which holds it without a thread of its own:
+ * <pre>
+ * private static final EventStream prices = new EventStream();
+ *
+ * &#64;GetMapping("/prices")
+ * public EventStream prices() {
+ *     return prices;
+ * }
+ * ...
+ * prices.publish("price", quote);
+ * </pre>
+ * {@link #publish} encodes an event once, and the same bytes are queued to every subscriber; a
+ * subscriber that falls too far behind is dropped rather than buffered without limit. Each event
+ * gets an id, and the most recent events are kept so that a client reconnecting with
+ * {@code Last-Event-ID} first gets the ones it missed.
+ */
+public final class EventStream {
+
+    private final Set<EventHub.Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    /** Encoded recent events; event {@code id} is at {@code id % recent.length}. */
+    private final byte[][] recent;
+    private long lastId;
+
+    /**
+     * A stream keeping {@code server.sse.replayEvents} events for reconnecting clients.
+     */
+    public EventStream() {
+        this(ServerConfig.sseReplayEvents);
+    }
+
+    /**
+     * @param replayEvents recent events kept for reconnecting clients; 0 keeps none
+     */
+    public EventStream(int replayEvents) {
+        if (replayEvents < 0) {
+            throw new IllegalArgumentException("replayEvents must not be negative");
+        }
+        this.recent = new byte[replayEvents][];
+    }
+
+    /**
+     * Send an unnamed event (type {@code message}) to every subscriber.
+     *
+     * @see #publish(String, Object)
+     */
+    public long publish(Object data) {
+        return publish(null, data);
+    }
+
+    /**
+     * Send an event to every subscriber.
+     *
+     * @param event event type, or null for the default type {@code message}
+     * @param data sent as JSON if {@link Json} says so, else as text, one {@code data} line per line
+     * @return the id of the event
+     * @throws IllegalArgumentException if {@code event} contains a line break
+     */
+    public long publish(String event, Object data) {
+        if (event != null && (event.indexOf('\r') >= 0 || event.indexOf('\n') >= 0)) {
+            throw new IllegalArgumentException("Event type contains a line break");
+        }
+        String text = data == null ? "" : Json.isJson(data) ? Json.toJson(data) : data.toString();
+        long id;
+        synchronized (this) {
+            id = ++lastId;
+            byte[] encoded = encode(id, event, text);
+            if (recent.length > 0) {
+                recent[(int) (id % recent.length)] = encoded;
+            }
+            for (EventHub.Subscriber subscriber : subscribers) {
+                subscriber.send(encoded);
+            }
+        }
+        if (!subscribers.isEmpty()) {
+            EventHub.get().wakeup();
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of clients connected to the stream
+     */
+    public int subscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * @return the id of the last event published, 0 before the first
+     */
+    public synchronized long lastEventId() {
+        return lastId;
+    }
+
+    /**
+     * Queue the events after {@code lastEventId} that are still kept to {@code subscriber}, then
+     * send it every new event; nothing is missed or sent twice in between.
+     */
+    synchronized void subscribe(EventHub.Subscriber subscriber, String lastEventId) {
+        for (long id = firstReplayed(lastEventId); id <= lastId; id++) {
+            subscriber.send(recent[(int) (id % recent.length)]);
+        }
+        subscribers.add(subscriber);
+    }
+
+    void unsubscribe(EventHub.Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Write the kept events after {@code lastEventId} to {@code out}, oldest first.
+     */
+    synchronized void replay(String lastEventId, OutputStream out) throws IOException {
+        for (long id = firstReplayed(lastEventId); id <= lastId; id++) {
+            out.write(recent[(int) (id % recent.length)]);
+        }
+    }
+
+    /**
+     * @return the id of the first kept event after {@code lastEventId}; past the last event if
+     * the id is missing, not a number or not one of this stream's
+     */
+    private long firstReplayed(String lastEventId) {
+        if (lastEventId == null || recent.length == 0) {
+            return lastId + 1;
+        }
+        long last;
+        try {
+            last = Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return lastId + 1;
+        }
+        if (last < 0 || last >= lastId) {
+            return lastId + 1;
+        }
+        return Math.max(last + 1, lastId - recent.length + 1);
+    }
+
+    private static byte[] encode(long id, String event, String data) {
+        StringBuilder sb = new StringBuilder(data.length() + 32);
+        sb.append("id: ").append(id).append('\n');
+        if (event != null) {
+            sb.append("event: ").append(event).append('\n');
+        }
+        // a line break of any kind ends a data line; each line is sent as its own field
+        int start = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '\r' || c == '\n') {
+                sb.append("data: ").append(data, start, i).append('\n');
+                if (c == '\r' && i + 1 < data.length() && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        sb.append("data: ").append(data, start, data.length()).append("\n\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A response output that can send a region of a file straight from its channel to the socket
+ * ({@link FileChannel#transferTo}, i.e. sendfile) instead of copying it through the heap.
+ */
+interface FileSender {
+
+    /**
+     * Send {@code count} bytes of {@code file} starting at {@code position}, after everything
+     * written to the output so far. The output takes ownership of the channel and closes it once
+     * the region has been sent or sending failed.
+     */
+    void sendFile(FileChannel file, long position, long count) throws IOException;
+
+}
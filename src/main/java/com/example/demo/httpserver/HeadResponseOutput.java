@@ -0,0 +1,50 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The output of a HEAD request: passes on the status line and headers of the response written to
+ * it, which are those of the same GET request, Content-Length included, and drops the body, so
+ * the next response on the connection starts where the client expects it.
+ */
+final class HeadResponseOutput extends OutputStream {
+
+    private final OutputStream out;
+    /** Bytes of the CRLF CRLF ending the head matched so far; 4 once it has been written. */
+    private int matched;
+
+    HeadResponseOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (matched < 4) {
+            out.write(b);
+            advance((byte) b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off;
+        while (end < off + len && matched < 4) {
+            advance(b[end++]);
+        }
+        if (end > off) {
+            out.write(b, off, end - off);
+        }
+    }
+
+    private void advance(byte b) {
+        byte expected = (byte) (matched % 2 == 0 ? '\r' : '\n');
+        matched = b == expected ? matched + 1 : b == '\r' ? 1 : 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+}
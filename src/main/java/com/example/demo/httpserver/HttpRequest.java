@@ -5,30 +5,382 @@ package com.example.demo.httpserver;
  */
 
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
+ * A request. Requests read from a connection are views over the connection buffer filled in by
+ * {@link HttpRequestParser}: the method, target, query and headers are only decoded into
+ * strings when they are first asked for.
  *
  * @author luisdanielbenavidesnavarro
  */
 public class HttpRequest {
-    
+
+    // layout of the offsets recorded by HttpRequestParser
+    static final int METHOD_START = 0;
+    static final int METHOD_END = 1;
+    static final int TARGET_START = 2;
+    static final int TARGET_END = 3;
+    static final int VERSION_START = 4;
+    static final int VERSION_END = 5;
+    static final int HEADERS = 6;
+
     URI requri = null;
+    long contentLength = -1;
+    Router.Match<?> route;
+    SpooledBody body;
+
+    private ByteBuffer buf;
+    private int[] marks;
+    private int headerCount;
+
+    private String method;
+    private String rawPath;
+    private String rawQuery;
+    private String path;
+    private String query;
+    private QueryParameters queryParameters;
+    private QueryParameters formParameters;
 
     HttpRequest(URI requri) {
+        this("GET", requri);
+    }
+
+    HttpRequest(String method, URI requri) {
         this.requri = requri;
+        this.method = method;
     }
 
+    /**
+     * View over a head parsed from {@code buf}.
+     *
+     * @throws IllegalArgumentException if a Content-Length value is invalid, or the values of
+     * repeated or comma-separated Content-Length fields differ
+     */
+    HttpRequest(ByteBuffer buf, int[] marks, int headerCount) {
+        this.buf = buf;
+        this.marks = marks;
+        this.headerCount = headerCount;
+        for (int i = 0; i < headerCount; i++) {
+            int h = HEADERS + 4 * i;
+            if (regionEqualsIgnoreCase(marks[h], marks[h + 1], "content-length")) {
+                readContentLength(marks[h + 2], marks[h + 3]);
+            }
+        }
+    }
+
+    /**
+     * @return the first decoded value of a query parameter, or of a form body parameter if the
+     * query does not have it; null if neither has it
+     */
     public String getValue(String paramName) {
-        if (requri.getQuery() == null) return null;
-        String[] pairs = requri.getQuery().split("&");
-        for (String p : pairs) {
-            String[] kv = p.split("=", 2);
-            if (kv.length == 2 && kv[0].equals(paramName)) {
-                return kv[1];
+        String v = getQueryParameters().get(paramName);
+        return v != null ? v : getFormParameters().get(paramName);
+    }
+
+    /**
+     * @return every decoded value of a query parameter followed by those of the form body
+     */
+    public List<String> getValues(String paramName) {
+        List<String> query = getQueryParameters().getAll(paramName);
+        List<String> form = getFormParameters().getAll(paramName);
+        if (form.isEmpty()) return query;
+        if (query.isEmpty()) return form;
+        List<String> all = new ArrayList<>(query);
+        all.addAll(form);
+        return all;
+    }
+
+    /** Parameters of the query string, indexed on first use. */
+    public QueryParameters getQueryParameters() {
+        if (queryParameters == null) {
+            queryParameters = QueryParameters.parse(getRawQuery());
+        }
+        return queryParameters;
+    }
+
+    /** Parameters of an {@code application/x-www-form-urlencoded} body, indexed on first use. */
+    public QueryParameters getFormParameters() {
+        if (formParameters == null) {
+            try {
+                formParameters = body == null || !hasFormBody() ? QueryParameters.EMPTY
+                        : QueryParameters.parse(body.text(StandardCharsets.ISO_8859_1));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return formParameters;
+    }
+
+    /**
+     * The request body, read in full by the server before the controller is called: from memory,
+     * or from a temporary file for a large body. It can be read until the response has been written.
+     *
+     * @return a new stream over the body; empty if the request has none
+     */
+    public InputStream getBody() {
+        return body != null ? body.stream() : InputStream.nullInputStream();
+    }
+
+    /**
+     * @return a new channel over the body, as {@link #getBody()}; a large body is read from its
+     * temporary file
+     */
+    public ReadableByteChannel getBodyChannel() {
+        return body != null ? body.channel() : Channels.newChannel(InputStream.nullInputStream());
+    }
+
+    /**
+     * @return the length of the body, also for a chunked one; 0 if the request has none
+     */
+    public long getBodyLength() {
+        return body != null ? body.length() : 0;
+    }
+
+    public String getMethod() {
+        if (method == null) {
+            int start = marks[METHOD_START];
+            int end = marks[METHOD_END];
+            if (regionEquals(start, end, "GET")) method = "GET";
+            else if (regionEquals(start, end, "POST")) method = "POST";
+            else if (regionEquals(start, end, "HEAD")) method = "HEAD";
+            else if (regionEquals(start, end, "PUT")) method = "PUT";
+            else if (regionEquals(start, end, "DELETE")) method = "DELETE";
+            else method = ascii(start, end);
+        }
+        return method;
+    }
+
+    /** Decoded path of the request target. */
+    public String getPath() {
+        if (requri != null) return requri.getPath();
+        if (path == null) {
+            String raw = getRawPath();
+            path = raw.indexOf('%') < 0 ? raw : percentDecode(raw, false);
+        }
+        return path;
+    }
+
+    /** Path of the request target as sent, still percent-encoded. */
+    String getRawPath() {
+        if (requri != null) return requri.getRawPath();
+        if (rawPath == null) splitTarget();
+        return rawPath;
+    }
+
+    /** Decoded query string, or null if the target has none. */
+    public String getQuery() {
+        if (requri != null) return requri.getQuery();
+        if (query == null) {
+            String raw = getRawQuery();
+            query = raw == null || raw.indexOf('%') < 0 ? raw : percentDecode(raw, false);
+        }
+        return query;
+    }
+
+    /** Query string as sent, still percent-encoded, or null. */
+    public String getRawQuery() {
+        if (requri != null) return requri.getRawQuery();
+        if (rawPath == null) splitTarget();
+        return rawQuery;
+    }
+
+    /**
+     * @return the value of the first header called {@code name} (case-insensitive), or null
+     */
+    public String getHeader(String name) {
+        if (buf == null) return null;
+        int h = findHeader(name);
+        return h < 0 ? null : ascii(marks[h + 2], marks[h + 3]);
+    }
+
+    /**
+     * @return the value of the {@code {name}} variable of the matched route, decoded, or null
+     */
+    public String getPathVariable(String name) {
+        return route != null ? route.variable(name) : null;
+    }
+
+    /**
+     * Whether the body is a form, read for {@link #getFormParameters()}.
+     */
+    boolean hasFormBody() {
+        String type = getHeader("content-type");
+        return type != null && type.regionMatches(true, 0, "application/x-www-form-urlencoded", 0, 33);
+    }
+
+    /** Whether the client waits for {@code 100 Continue} before sending the body. */
+    boolean expectsContinue() {
+        String expect = getHeader("expect");
+        return expect != null && expect.equalsIgnoreCase("100-continue") && isHttp11();
+    }
+
+    /**
+     * @return the declared body length, or -1 when the request has no Content-Length
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Whether the client asked to reuse the connection: HTTP/1.1 is persistent unless it sends
+     * {@code Connection: close}, HTTP/1.0 only when it sends {@code Connection: keep-alive}.
+     */
+    public boolean isKeepAlive() {
+        if (buf == null) return true;
+        int h = findHeader("connection");
+        if (isHttp11()) {
+            return h < 0 || !regionEqualsIgnoreCase(marks[h + 2], marks[h + 3], "close");
+        }
+        return h >= 0 && regionEqualsIgnoreCase(marks[h + 2], marks[h + 3], "keep-alive");
+    }
+
+    /** Whether the request line says HTTP/1.1 rather than HTTP/1.0. */
+    boolean isHttp11() {
+        return buf == null || buf.get(marks[VERSION_START] + 7) == '1';
+    }
+
+    /**
+     * Copy the head out of the connection buffer and its offsets out of the parser, so both can be
+     * reused while this request is still pending.
+     */
+    void detach() {
+        if (buf == null) return;
+        int start = marks[METHOD_START];
+        int end = headerCount > 0 ? marks[HEADERS + 4 * (headerCount - 1) + 3] : marks[VERSION_END];
+        byte[] copy = new byte[end - start];
+        buf.get(start, copy);
+        int[] rebased = new int[HEADERS + 4 * headerCount];
+        for (int i = 0; i < rebased.length; i++) {
+            rebased[i] = marks[i] - start;
+        }
+        buf = ByteBuffer.wrap(copy);
+        marks = rebased;
+    }
+
+    private void splitTarget() {
+        int start = marks[TARGET_START];
+        int end = marks[TARGET_END];
+        // absolute-form (proxy style) targets: skip "scheme://authority"
+        if (buf.get(start) != '/' && buf.get(start) != '*') {
+            int i = start;
+            while (i + 2 < end && !(buf.get(i) == ':' && buf.get(i + 1) == '/' && buf.get(i + 2) == '/')) i++;
+            i += 3;
+            while (i < end && buf.get(i) != '/') i++;
+            start = Math.min(i, end);
+        }
+        int q = start;
+        while (q < end && buf.get(q) != '?') q++;
+        rawPath = start < q ? ascii(start, q) : "/";
+        rawQuery = q < end ? ascii(q + 1, end) : null;
+    }
+
+    private int findHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            int h = HEADERS + 4 * i;
+            if (regionEqualsIgnoreCase(marks[h], marks[h + 1], name)) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Take the length from a Content-Length value, which may be a list such as {@code 5, 5}. Two
+     * different lengths would let a proxy and this server frame the body differently.
+     */
+    private void readContentLength(int start, int end) {
+        int from = start;
+        while (true) {
+            int comma = from;
+            while (comma < end && buf.get(comma) != ',') comma++;
+            int s = from;
+            int e = comma;
+            while (s < e && (buf.get(s) == ' ' || buf.get(s) == '\t')) s++;
+            while (e > s && (buf.get(e - 1) == ' ' || buf.get(e - 1) == '\t')) e--;
+            long value = parseLength(s, e);
+            if (contentLength >= 0 && value != contentLength) {
+                throw new IllegalArgumentException("Conflicting Content-Length");
+            }
+            contentLength = value;
+            if (comma == end) {
+                return;
+            }
+            from = comma + 1;
+        }
+    }
+
+    private long parseLength(int start, int end) {
+        if (start == end || end - start > 18) {
+            throw new IllegalArgumentException("Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("Invalid Content-Length");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private boolean regionEquals(int start, int end, String s) {
+        if (end - start != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buf.get(start + i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String s) {
+        if (end - start != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int b = buf.get(start + i);
+            int c = s.charAt(i);
+            if (b != c && Character.toLowerCase(b) != Character.toLowerCase(c)) return false;
+        }
+        return true;
+    }
+
+    private String ascii(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decode %XX escapes (UTF-8) and, if asked, '+' as space. Malformed escapes are kept as is.
+     */
+    static String percentDecode(String s, boolean plusAsSpace) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int hi = i + 2 < s.length() ? Character.digit(s.charAt(i + 1), 16) : -1;
+            int lo = hi >= 0 ? Character.digit(s.charAt(i + 2), 16) : -1;
+            if (c == '%' && lo >= 0) {
+                out.write(hi << 4 | lo);
+                i += 2;
+            } else if (c == '+' && plusAsSpace) {
+                out.write(' ');
+            } else if (c < 0x80) {
+                out.write(c);
+            } else {
+                byte[] b = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                out.write(b, 0, b.length);
             }
         }
-        return null;
+        return out.toString(StandardCharsets.UTF_8);
     }
 
 }
@@ -0,0 +1,249 @@
+package com.example.demo.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Incremental byte-level parser for an HTTP/1.1 request line and headers.
+ * <p>
+ * The parser reads straight from the connection buffer and only records offsets into it, so no
+ * line strings, split arrays or URIs are created. A head split across several reads is handled
+ * by calling {@link #parse} again once more bytes have arrived; scanning resumes where it
+ * stopped. One parser is reused for every request on a connection.
+ */
+final class HttpRequestParser {
+
+    /** Malformed or oversized request head; {@link #status} is the response to send. */
+    static final class ParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ParseException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static final int REQUEST_LINE_START = 0;
+    private static final int METHOD = 1;
+    private static final int TARGET = 2;
+    private static final int VERSION = 3;
+    private static final int REQUEST_LINE_LF = 4;
+    private static final int HEADER_START = 5;
+    private static final int HEADER_NAME = 6;
+    private static final int HEADER_VALUE_START = 7;
+    private static final int HEADER_VALUE = 8;
+    private static final int HEADER_LF = 9;
+    private static final int HEAD_LF = 10;
+    private static final int DONE = 11;
+
+    private final int maxHeadBytes;
+    private final int maxHeaders;
+
+    private int state;
+    private int pos;
+    private int headStart;
+    private int valueEnd;
+    private int[] marks;
+    private int headerCount;
+
+    HttpRequestParser(int maxHeadBytes, int maxHeaders) {
+        this.maxHeadBytes = maxHeadBytes;
+        this.maxHeaders = maxHeaders;
+    }
+
+    /**
+     * @return a parser with the limits from {@code server.http.maxHeaderBytes} and {@code server.http.maxHeaders}
+     */
+    static HttpRequestParser create() {
+        return new HttpRequestParser(ServerConfig.maxHeaderBytes, ServerConfig.maxHeaders);
+    }
+
+    /**
+     * @return size of a connection read buffer; always larger than the longest accepted head
+     */
+    static int bufferSize() {
+        return Math.max(16 * 1024, ServerConfig.maxHeaderBytes + 1024);
+    }
+
+    /**
+     * Start a new request head at index {@code start} of the buffer. The offsets of the previous
+     * head are overwritten, so a request still needed meanwhile must have been
+     * {@link HttpRequest#detach() detached}.
+     */
+    void reset(int start) {
+        state = REQUEST_LINE_START;
+        pos = start;
+        headStart = start;
+        if (marks == null) {
+            marks = new int[HttpRequest.HEADERS + 4 * 8];
+        }
+        headerCount = 0;
+    }
+
+    /**
+     * Continue scanning {@code buf} up to (excluding) absolute index {@code limit}.
+     *
+     * @return true once the blank line ending the head has been read
+     * @throws ParseException if the head is malformed or exceeds the configured limits
+     */
+    boolean parse(ByteBuffer buf, int limit) throws ParseException {
+        int[] m = marks;
+        int p = pos;
+        int s = state;
+        while (p < limit && s != DONE) {
+            byte b = buf.get(p);
+            switch (s) {
+                case REQUEST_LINE_START:
+                    // tolerate empty lines between pipelined requests
+                    if (b == '\r' || b == '\n') {
+                        headStart = p + 1;
+                        break;
+                    }
+                    if (!isToken(b)) throw new ParseException(400, "Invalid method");
+                    m[HttpRequest.METHOD_START] = p;
+                    s = METHOD;
+                    break;
+                case METHOD:
+                    if (b == ' ') {
+                        m[HttpRequest.METHOD_END] = p;
+                        m[HttpRequest.TARGET_START] = p + 1;
+                        s = TARGET;
+                    } else if (!isToken(b)) {
+                        throw new ParseException(400, "Invalid method");
+                    }
+                    break;
+                case TARGET:
+                    if (b == ' ') {
+                        if (p == m[HttpRequest.TARGET_START]) throw new ParseException(400, "Empty request target");
+                        if (buf.get(p - 1) == '%') throw new ParseException(400, "Invalid percent-encoding");
+                        m[HttpRequest.TARGET_END] = p;
+                        m[HttpRequest.VERSION_START] = p + 1;
+                        s = VERSION;
+                    } else if (b <= ' ' || b == 127) {
+                        // also rejects non-ASCII bytes, which are negative
+                        throw new ParseException(400, "Invalid request target");
+                    }
+                    if (p - 2 >= m[HttpRequest.TARGET_START] && buf.get(p - 2) == '%'
+                            && (!isHex(buf.get(p - 1)) || !isHex(b))) {
+                        throw new ParseException(400, "Invalid percent-encoding");
+                    }
+                    if (p - headStart >= maxHeadBytes) throw new ParseException(414, "Request target too long");
+                    break;
+                case VERSION:
+                    if (b == '\r' || b == '\n') {
+                        m[HttpRequest.VERSION_END] = p;
+                        if (!isHttpVersion(buf, m[HttpRequest.VERSION_START], p)) {
+                            throw new ParseException(400, "Invalid HTTP version");
+                        }
+                        s = b == '\r' ? REQUEST_LINE_LF : HEADER_START;
+                    } else if (p - m[HttpRequest.VERSION_START] >= 8) {
+                        throw new ParseException(400, "Invalid HTTP version");
+                    }
+                    break;
+                case REQUEST_LINE_LF:
+                case HEADER_LF:
+                    if (b != '\n') throw new ParseException(400, "Expected LF");
+                    s = HEADER_START;
+                    break;
+                case HEADER_START:
+                    if (b == '\r') {
+                        s = HEAD_LF;
+                    } else if (b == '\n') {
+                        s = DONE;
+                    } else if (isToken(b)) {
+                        if (headerCount == maxHeaders) throw new ParseException(431, "Too many headers");
+                        int slot = HttpRequest.HEADERS + 4 * headerCount;
+                        if (slot + 4 > m.length) {
+                            m = Arrays.copyOf(m, m.length * 2);
+                            marks = m;
+                        }
+                        m[slot] = p;
+                        s = HEADER_NAME;
+                    } else {
+                        throw new ParseException(400, "Invalid header name");
+                    }
+                    break;
+                case HEADER_NAME:
+                    if (b == ':') {
+                        m[HttpRequest.HEADERS + 4 * headerCount + 1] = p;
+                        s = HEADER_VALUE_START;
+                    } else if (!isToken(b)) {
+                        throw new ParseException(400, "Invalid header name");
+                    }
+                    break;
+                case HEADER_VALUE_START:
+                    if (b == ' ' || b == '\t') {
+                        break;
+                    }
+                    m[HttpRequest.HEADERS + 4 * headerCount + 2] = p;
+                    valueEnd = p;
+                    s = HEADER_VALUE;
+                    // fall through to handle an empty value ending right here
+                case HEADER_VALUE:
+                    if (b == '\r' || b == '\n') {
+                        m[HttpRequest.HEADERS + 4 * headerCount + 3] = valueEnd;
+                        headerCount++;
+                        s = b == '\r' ? HEADER_LF : HEADER_START;
+                    } else if (b != ' ' && b != '\t') {
+                        if ((b & 0xff) < ' ' || b == 127) throw new ParseException(400, "Invalid header value");
+                        valueEnd = p + 1;
+                    }
+                    break;
+                case HEAD_LF:
+                    if (b != '\n') throw new ParseException(400, "Expected LF");
+                    s = DONE;
+                    break;
+                default:
+                    break;
+            }
+            p++;
+            if (s != DONE && p - headStart > maxHeadBytes) {
+                throw new ParseException(431, "Request head too large");
+            }
+        }
+        pos = p;
+        state = s;
+        return s == DONE;
+    }
+
+    /**
+     * @return index of the first byte after the head (the start of the body or of the next request)
+     */
+    int headEnd() {
+        return pos;
+    }
+
+    /**
+     * @return a view of the parsed head; it reads from {@code buf} and this parser's offsets, so
+     * neither the buffer region nor the parser may be reused until the request has been answered
+     */
+    HttpRequest request(ByteBuffer buf) {
+        return new HttpRequest(buf, marks, headerCount);
+    }
+
+    private static boolean isToken(byte b) {
+        if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9') {
+            return true;
+        }
+        switch (b) {
+            case '!': case '#': case '$': case '%': case '&': case '\'': case '*': case '+':
+            case '-': case '.': case '^': case '_': case '`': case '|': case '~':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isHex(byte b) {
+        return b >= '0' && b <= '9' || b >= 'a' && b <= 'f' || b >= 'A' && b <= 'F';
+    }
+
+    private static boolean isHttpVersion(ByteBuffer buf, int start, int end) {
+        return end - start == 8 && buf.get(start) == 'H' && buf.get(start + 1) == 'T' && buf.get(start + 2) == 'T'
+                && buf.get(start + 3) == 'P' && buf.get(start + 4) == '/' && buf.get(start + 5) == '1'
+                && buf.get(start + 6) == '.' && (buf.get(start + 7) == '0' || buf.get(start + 7) == '1');
+    }
+
+}
@@ -5,10 +5,398 @@ package com.example.demo.httpserver;
  */
 
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
+ * The response to a controller call. A controller gets it by declaring a parameter of this type
+ * and can set the status and headers, then either return the body as before or write it through
+ * {@link #getOutputStream()}, {@link #getChannel()} or {@link #getWriter()}.
+ * <p>
+ * Written bytes go through one buffer, a small one at first and a pooled one once that fills up
+ * (see {@link BufferPool}). A body that fits in it is sent with a Content-Length; once the
+ * pooled buffer fills up, or the body is flushed, the headers are sent and
+ * the body is streamed in chunks ({@code Transfer-Encoding: chunked}, or until the connection
+ * closes for HTTP/1.0 clients), so a large response takes constant memory. A value returned by
+ * the controller is written after anything written to the body: as JSON if {@link Json} says so
+ * (with an {@code application/json} content type unless the controller set one), else as text.
  *
  * @author luisdanielbenavidesnavarro
  */
 public class HttpResponse {
-    
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final OutputStream out;
+    private final boolean http11;
+    private boolean keepAlive;
+    private int status = 200;
+    private String contentType = "text/html";
+    private boolean contentTypeSet;
+    private final List<String> headers = new ArrayList<>(4);
+
+    private BodyStream body;
+    private Writer writer;
+    private boolean committed;
+    private boolean chunked;
+    private boolean finishing;
+
+    /**
+     * @param out connection output the response is written to
+     * @param keepAlive whether the connection may be reused after this response
+     */
+    HttpResponse(HttpRequest request, OutputStream out, boolean keepAlive) {
+        this.out = out;
+        this.http11 = request.isHttp11();
+        this.keepAlive = keepAlive;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @throws IllegalStateException if the headers have already been sent
+     */
+    public HttpResponse status(int status) {
+        checkNotCommitted();
+        this.status = status;
+        return this;
+    }
+
+    public HttpResponse contentType(String contentType) {
+        return header("Content-Type", contentType);
+    }
+
+    /**
+     * Set a header, replacing any earlier value. Framing headers (Content-Length,
+     * Transfer-Encoding, Connection) are managed by the server.
+     *
+     * @throws IllegalArgumentException for a framing header or a name or value with CR or LF
+     * @throws IllegalStateException if the headers have already been sent
+     */
+    public HttpResponse header(String name, String value) {
+        checkNotCommitted();
+        if (name.equalsIgnoreCase("content-length") || name.equalsIgnoreCase("transfer-encoding")
+                || name.equalsIgnoreCase("connection")) {
+            throw new IllegalArgumentException(name + " is set by the server");
+        }
+        if (hasLineBreak(name) || hasLineBreak(value)) {
+            throw new IllegalArgumentException("Line break in header " + name);
+        }
+        if (name.equalsIgnoreCase("content-type")) {
+            contentType = value;
+            contentTypeSet = true;
+            return this;
+        }
+        for (int i = 0; i < headers.size(); i += 2) {
+            if (headers.get(i).equalsIgnoreCase(name)) {
+                headers.set(i + 1, value);
+                return this;
+            }
+        }
+        headers.add(name);
+        headers.add(value);
+        return this;
+    }
+
+    /**
+     * @return the value set for header {@code name} (case-insensitive), or null
+     */
+    public String getHeader(String name) {
+        if (name.equalsIgnoreCase("content-type")) {
+            return contentType;
+        }
+        for (int i = 0; i < headers.size(); i += 2) {
+            if (headers.get(i).equalsIgnoreCase(name)) {
+                return headers.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    /** The body as a stream; {@code flush()} sends what has been written so far. */
+    public OutputStream getOutputStream() {
+        return body();
+    }
+
+    /** The body as a channel, for writing {@link ByteBuffer}s. */
+    public WritableByteChannel getChannel() {
+        return body();
+    }
+
+    /** The body as UTF-8 text. */
+    public Writer getWriter() {
+        if (writer == null) {
+            writer = new OutputStreamWriter(body(), StandardCharsets.UTF_8);
+        }
+        return writer;
+    }
+
+    /** Whether the status line and headers have been sent. */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Complete the response: write {@code result} (if not null) after the body, then send
+     * whatever is still buffered and end the body.
+     */
+    void finish(Object result) throws IOException {
+        finishing = true;
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+            byte[] tail = null;
+            if (Json.isJson(result)) {
+                if (!committed && !contentTypeSet) {
+                    contentType = Json.CONTENT_TYPE;
+                }
+                // serialized straight into the body buffer; a large document is streamed in chunks
+                BodyStream stream = body();
+                stream.closed = false;
+                stream.writeJson(result);
+            } else if (result != null) {
+                tail = result.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            if (!committed) {
+                int buffered = body != null ? body.count : 0;
+                commit(buffered + (tail != null ? tail.length : 0));
+                if (!isBodyless()) {
+                    if (buffered > 0) {
+                        out.write(body.buf, 0, buffered);
+                    }
+                    if (tail != null) {
+                        out.write(tail);
+                    }
+                }
+            } else {
+                if (tail != null) {
+                    body.closed = false;
+                    body.write(tail);
+                }
+                body.drain(false);
+                if (chunked) {
+                    out.write(LAST_CHUNK);
+                }
+            }
+        } finally {
+            if (body != null) {
+                body.release();
+            }
+        }
+    }
+
+    /** Whether the connection can be reused once the response is complete. */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    private BodyStream body() {
+        if (body == null) {
+            body = new BodyStream();
+        }
+        return body;
+    }
+
+    private boolean isBodyless() {
+        return status < 200 || status == 204 || status == 304;
+    }
+
+    /**
+     * Send the status line and headers.
+     *
+     * @param contentLength body length, or -1 to stream a body of unknown length
+     */
+    private void commit(long contentLength) throws IOException {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("HTTP/1.1 ").append(status).append(' ').append(HttpServer.reasonPhrase(status)).append("\r\n");
+        if (!isBodyless()) {
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        for (int i = 0; i < headers.size(); i += 2) {
+            sb.append(headers.get(i)).append(": ").append(headers.get(i + 1)).append("\r\n");
+        }
+        if (isBodyless()) {
+            // no body and no framing
+        } else if (contentLength >= 0) {
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        } else if (http11) {
+            chunked = true;
+            sb.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            // HTTP/1.0 has no chunked coding: the end of the body is the end of the connection
+            keepAlive = false;
+        }
+        sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        committed = true;
+        Metrics.status(status);
+    }
+
+    private void checkNotCommitted() {
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+    }
+
+    private static boolean hasLineBreak(String s) {
+        return s.indexOf('\r') >= 0 || s.indexOf('\n') >= 0;
+    }
+
+    /**
+     * Body writer over a small buffer that moves to a pooled one when it fills up; a full pooled
+     * buffer is sent as one chunk.
+     */
+    private final class BodyStream extends OutputStream implements WritableByteChannel {
+
+        private byte[] buf = new byte[BufferPool.FIRST_SIZE];
+        private int count;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buf.length) {
+                full();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if (len >= BufferPool.RESPONSE.bufferSize()) {
+                // large writes go out as one chunk without being copied into the buffer
+                drain(false);
+                sendChunk(b, off, len);
+                out.flush();
+                return;
+            }
+            while (len > 0) {
+                if (count == buf.length) {
+                    full();
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ensureOpen();
+            int written = src.remaining();
+            while (src.hasRemaining()) {
+                if (count == buf.length) {
+                    full();
+                }
+                int n = Math.min(src.remaining(), buf.length - count);
+                src.get(buf, count, n);
+                count += n;
+            }
+            return written;
+        }
+
+        /** Serialize {@code value} into the buffer, sending each buffer that fills up as a chunk. */
+        void writeJson(Object value) throws IOException {
+            ensureOpen();
+            JsonWriter w = new JsonWriter((b, len) -> {
+                buf = b;
+                count = len;
+                drain(true);
+            }, buf, count);
+            Json.writeValue(w, value);
+            buf = w.buffer();
+            count = w.position();
+        }
+
+        /** Send everything written so far, committing the response as a streamed one. */
+        @Override
+        public void flush() throws IOException {
+            if (!finishing && !closed) {
+                drain(true);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        /** Further writes fail; the response itself is completed by the server. */
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        /** Make room in a full buffer: move out of the small first buffer, else send it. */
+        private void full() throws IOException {
+            if (BufferPool.RESPONSE.isSmall(buf)) {
+                buf = BufferPool.RESPONSE.grow(buf, count);
+            } else {
+                drain(true);
+            }
+        }
+
+        /**
+         * Send the buffered bytes as a chunk, committing first if needed.
+         *
+         * @param flush whether to push them to the connection right away
+         */
+        void drain(boolean flush) throws IOException {
+            if (!committed) {
+                commit(-1);
+            }
+            if (count > 0) {
+                sendChunk(buf, 0, count);
+                count = 0;
+            }
+            if (flush) {
+                out.flush();
+            }
+        }
+
+        private void sendChunk(byte[] b, int off, int len) throws IOException {
+            if (!committed) {
+                commit(-1);
+            }
+            if (isBodyless() || len == 0) {
+                return;
+            }
+            if (chunked) {
+                out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+                out.write(CRLF);
+                out.write(b, off, len);
+                out.write(CRLF);
+            } else {
+                out.write(b, off, len);
+            }
+        }
+
+        void release() {
+            if (buf != null) {
+                BufferPool.RESPONSE.release(buf);
+                buf = null;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed || buf == null) {
+                throw new IOException("Response body closed");
+            }
+        }
+    }
+
 }
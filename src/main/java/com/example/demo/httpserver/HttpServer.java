@@ -10,22 +10,40 @@ import java.util.logging.Logger;
 import com.example.demo.annotations.*;
 
 import java.lang.reflect.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.nio.file.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.Enumeration;
+import java.util.concurrent.TimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 public class HttpServer {
 
+    /** Controller methods by {@link #routeKey}; null for generated routes and {@code /shutdown}. */
     public static Map<String, Method> services = new HashMap<>();
     public static Map<Method, Object> instances = new HashMap<>();
-    
-    private static volatile boolean running = true;
-    private static ExecutorService threadPool;
-    private static ServerSocket serverSocket;
+    static final Router<RouteInvoker> router = new Router<>();
+    private static final Map<String, ResponseCache> responseCaches = new ConcurrentHashMap<>();
+    /** Registered routes as {@code "GET /path"}, in registration order; requested by a training run. */
+    private static final List<String> routes = new ArrayList<>();
+    /** Replaced with an empty one sized from {@link ServerConfig} each time the server starts. */
+    private static volatile StaticResourceCache staticCache = newStaticCache();
+
+    /** Outcomes of requests answered before {@link #handleRequestAsync} returns. */
+    private static final CompletableFuture<Boolean> KEEP_ALIVE = CompletableFuture.completedFuture(true);
+    private static final CompletableFuture<Boolean> CLOSE = CompletableFuture.completedFuture(false);
+
+    private static volatile ServerEngine engine;
+    private static volatile WorkerPool workerPool;
+    private static volatile StaticFileRoot fileRoot;
 
     public static void loadServices(String[] args) {
         try {
@@ -39,49 +57,72 @@ public class HttpServer {
                     }
                 }
             } else {
-                for (String cpEntry : System.getProperty("java.class.path").split(System.getProperty("path.separator"))) {
-                    Path p = Paths.get(cpEntry);
-                    if (Files.isDirectory(p)) {
-                        Files.walk(p)
-                                .filter(fp -> fp.toString().endsWith(".class"))
-                                .forEach(fp -> {
-                                    String rel = p.relativize(fp).toString();
-                                    String className = rel.replace(FileSystems.getDefault().getSeparator(), ".").replaceAll("\\.class$", "");
-                                    try {
-                                        Class<?> c = Class.forName(className);
-                                        registerControllerClass(c);
-                                    } catch (Throwable ex) {
-                                    }
-                                });
-                    } else if (cpEntry.endsWith(".jar")) {
-                        try (JarFile jf = new JarFile(cpEntry)) {
-                            Enumeration<JarEntry> en = jf.entries();
-                            while (en.hasMoreElements()) {
-                                JarEntry je = en.nextElement();
-                                String name = je.getName();
-                                if (name.endsWith(".class")) {
-                                    String className = name;
-                                    if (className.startsWith("BOOT-INF/classes/")) {
-                                        className = className.substring("BOOT-INF/classes/".length());
-                                    }
-                                    className = className.replace('/', '.').replaceAll("\\.class$", "");
-                                    try {
-                                        Class<?> c = Class.forName(className);
-                                        registerControllerClass(c);
-                                    } catch (Throwable ex) {
-                                    }
-                                }
-                            }
-                        } catch (IOException e) {
+                // controllers listed at compile time; scan the class path only if there is no index
+                ClassLoader loader = HttpServer.class.getClassLoader();
+                Collection<String> names = ControllerScanner.readIndex(loader);
+                if (names.isEmpty()) {
+                    List<String> packages = new ArrayList<>();
+                    for (String pkg : ServerConfig.scanPackages.split(",")) {
+                        if (!pkg.isBlank()) {
+                            packages.add(pkg.trim());
                         }
                     }
+                    names = ControllerScanner.scan(System.getProperty("java.class.path"), packages);
+                }
+                Map<String, ControllerRoutes> generated = "reflective".equalsIgnoreCase(ServerConfig.registration)
+                        ? Map.of() : generatedRoutes(loader);
+                Startup.mark("discovery");
+                for (String className : names) {
+                    try {
+                        ControllerRoutes routes = generated.get(className);
+                        if (routes != null) {
+                            registerRoutes(routes);
+                        } else {
+                            registerControllerClass(Class.forName(className, true, loader));
+                        }
+                    } catch (Throwable ex) {
+                        System.err.println("Could not load controller " + className + ": " + ex);
+                    }
                 }
             }
         } catch (Exception e) {
             Logger.getLogger(HttpServer.class.getName()).log(Level.SEVERE, null, e);
             e.printStackTrace();
         }
+        Startup.mark("registration");
+    }
 
+    /**
+     * The route classes generated for controllers at compile time, by controller class name; none
+     * if they cannot all be loaded, so that every controller is registered reflectively instead.
+     */
+    private static Map<String, ControllerRoutes> generatedRoutes(ClassLoader loader) {
+        Map<String, ControllerRoutes> generated = new HashMap<>();
+        try {
+            for (ControllerRoutes routes : ServiceLoader.load(ControllerRoutes.class, loader)) {
+                generated.put(routes.controller().getName(), routes);
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.println("Generated routes not used: " + e.getMessage());
+            return Map.of();
+        }
+        return generated;
+    }
+
+    /** Register the routes of a controller from the class generated for it. */
+    private static void registerRoutes(ControllerRoutes routes) {
+        List<ControllerRoutes.Route> list = routes.routes();
+        for (int i = 0; i < list.size(); i++) {
+            ControllerRoutes.Route route = list.get(i);
+            RouteInvoker invoker;
+            try {
+                invoker = RouteInvoker.compile(routes, i, route);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Not registered: " + route.path + ": " + e.getMessage());
+                continue;
+            }
+            addRoute(route.httpMethod, route.path, invoker, route.name, null, null);
+        }
     }
 
     private static void registerControllerClass(Class<?> c) {
@@ -91,11 +132,25 @@ public class HttpServer {
                 Object instance = c.getDeclaredConstructor().newInstance();
                 Method[] methods = c.getDeclaredMethods();
                 for (Method m : methods) {
-                    if (m.isAnnotationPresent(GetMapping.class)) {
-                        String mapping = m.getAnnotation(GetMapping.class).value();
-                        services.put(mapping, m);
-                        instances.put(m, instance);
-                        System.out.println("Registered: " + mapping + " -> " + c.getName() + "." + m.getName());
+                    GetMapping get = m.getAnnotation(GetMapping.class);
+                    PostMapping post = m.getAnnotation(PostMapping.class);
+                    if (get == null && post == null) {
+                        continue;
+                    }
+                    String mapping = get != null ? get.value() : post.value();
+                    RouteInvoker invoker;
+                    try {
+                        invoker = RouteInvoker.compile(m, instance);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Not registered: " + mapping + ": " + e.getMessage());
+                        continue;
+                    }
+                    String target = c.getName() + "." + m.getName();
+                    if (get != null) {
+                        addRoute("GET", get.value(), invoker, target, m, instance);
+                    }
+                    if (post != null) {
+                        addRoute("POST", post.value(), invoker, target, m, instance);
                     }
                 }
             } catch (Throwable t) {
@@ -103,155 +158,355 @@ public class HttpServer {
         }
     }
 
+    /**
+     * @param m the controller method, or null for generated routes, which do not use reflection
+     */
+    private static void addRoute(String httpMethod, String mapping, RouteInvoker invoker, String target, Method m, Object instance) {
+        String key = routeKey(httpMethod, mapping);
+        services.put(key, m);
+        if (m != null) {
+            instances.put(m, instance);
+        }
+        Metrics.Route metrics = Metrics.route(httpMethod, mapping);
+        metrics.cache = invoker.getCache();
+        invoker.setMetrics(metrics);
+        router.add(httpMethod, mapping, invoker);
+        routes.add(httpMethod + " " + mapping);
+        System.out.println("Registered: " + key + " -> " + target);
+        if (invoker.getCache() != null) {
+            responseCaches.put(key, invoker.getCache());
+        } else {
+            responseCaches.remove(key);
+        }
+    }
+
+    /**
+     * @return the key of a route in {@link #services} and {@link #getResponseCaches()}: the pattern
+     * for GET, as mappings have always been listed, else the method and the pattern, e.g.
+     * {@code POST /greeting}
+     */
+    static String routeKey(String httpMethod, String mapping) {
+        return httpMethod.equals("GET") ? mapping : httpMethod + " " + mapping;
+    }
+
     public static void runServer(String[] args) throws IOException, URISyntaxException, IllegalAccessException, InvocationTargetException {
+        Startup.begin();
+        staticCache = newStaticCache();
+        Admission.configure();
         loadServices(args);
+        services.put("/shutdown", null);
+        if (ServerConfig.staticDir != null) {
+            staticfiles(ServerConfig.staticDir);
+        }
 
-        threadPool = Executors.newFixedThreadPool(10); 
-        
+        List<InetSocketAddress> addresses;
+        try {
+            addresses = Listeners.addresses();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        engine = createEngine();
+        if (ServerConfig.training) {
+            InetSocketAddress address = addresses.get(0);
+            Startup.whenReady().thenRunAsync(() -> train(address), command -> new Thread(command, "training").start());
+        }
         try {
-            serverSocket = new ServerSocket(35000);
-            System.out.println("Concurrent server started on port 35000");
             System.out.println("Ready to receive connections...");
-            System.out.println("http://localhost:35000/");
-            
-            services.put("/shutdown", null);
-            
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    threadPool.submit(() -> handleClientRequest(clientSocket));
-                } catch (IOException e) {
-                    if (!running) {
-                        break;
-                    }
-                    System.err.println("Accept failed: " + e.getMessage());
-                }
-            }
+            System.out.println("http://localhost:" + addresses.get(0).getPort() + "/");
+            engine.serve(addresses);
         } catch (IOException e) {
-            System.err.println("Could not listen on port: 35000.");
+            System.err.println("Could not listen on " + addresses + ": " + e.getMessage());
             System.exit(1);
         } finally {
-            shutdown();
+            System.out.println("Server shutdown complete.");
         }
     }
 
     /**
-     * Handle a single client request in its own thread
+     * Send one request to {@code /}, {@code /metrics} and each registered route whose path has no
+     * variables, as a client would, then stop the server. Run with
+     * {@code -XX:ArchiveClassesAtExit}, this records what startup and the first requests load.
      */
-    private static void handleClientRequest(Socket clientSocket) {
-        try (Socket socket = clientSocket;
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-            
-            String inputLine, outputLine = null;
-            boolean firstline = true;
-            URI requri = null;
-
-            while ((inputLine = in.readLine()) != null) {
-                if (firstline) {
-                    requri = new URI(inputLine.split(" ")[1]);
-                    System.out.println("Thread-" + Thread.currentThread().getId() + " Path: " + requri.getPath());
-                    firstline = false;
-                }
-                if (!in.ready()) {
-                    break;
+    private static void train(InetSocketAddress address) {
+        InetAddress host = address.getAddress() == null || address.getAddress().isAnyLocalAddress()
+                ? InetAddress.getLoopbackAddress() : address.getAddress();
+        List<String> requests = new ArrayList<>(List.of("GET /", "GET /metrics"));
+        for (String route : routes) {
+            if (route.indexOf('{') < 0 && !requests.contains(route)) {
+                requests.add(route);
+            }
+        }
+        int ok = 0;
+        for (String request : requests) {
+            String method = request.substring(0, request.indexOf(' '));
+            String path = request.substring(method.length() + 1);
+            byte[] body = method.equals("POST") ? "training".getBytes() : new byte[0];
+            try (Socket socket = new Socket(host, address.getPort())) {
+                // an event stream does not end; what it sent in the meantime is enough
+                socket.setSoTimeout(1000);
+                OutputStream out = socket.getOutputStream();
+                out.write((method + " " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                        + (body.length > 0 ? "Content-Type: text/plain\r\nContent-Length: " + body.length + "\r\n" : "")
+                        + "\r\n").getBytes());
+                out.write(body);
+                out.flush();
+                try {
+                    socket.getInputStream().readAllBytes();
+                } catch (SocketTimeoutException e) {
+                    // still open
                 }
+                ok++;
+            } catch (IOException e) {
+                System.err.println("Training request failed: " + request + ": " + e.getMessage());
             }
+        }
+        System.out.println("Training run sent " + ok + " of " + requests.size() + " requests; stopping");
+        stop();
+    }
 
-            if (requri == null) {
-                outputLine = "HTTP/1.1 400 Bad Request\r\nContent-Type: text/plain\r\n\r\nBad Request";
-                out.println(outputLine);
-                return;
-            }
+    /**
+     * Build the engine selected with {@code server.engine}: {@code nio} (default) multiplexes
+     * connections on selector event loops, {@code blocking} serves each connection on a pool thread.
+     */
+    private static ServerEngine createEngine() {
+        workerPool = WorkerPool.create();
+        System.out.println("Execution mode: " + workerPool.getMode());
+        if ("blocking".equalsIgnoreCase(ServerConfig.engine)) {
+            return new BlockingEngine(workerPool);
+        }
+        return new NioEngine(ServerConfig.eventLoops, workerPool);
+    }
 
-            String reqPath = requri.getPath();
-            boolean alreadySent = false;
-            
-            if (reqPath.equals("/shutdown")) {
-                outputLine = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nServer shutting down...";
-                out.println(outputLine);
-                new Thread(() -> {
-                    try {
-                        Thread.sleep(1000);
-                        stop();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }).start();
-                return;
-            }
-            
-            if (reqPath.startsWith("/app/")) {
-                outputLine = invokeService(requri);
-            } else if (services.containsKey(reqPath)) {
-                String q = requri.getQuery();
-                String fake = "/app" + reqPath + (q != null ? "?" + q : "");
-                outputLine = invokeService(new URI(fake));
-            } else if (reqPath.equals("/hello") || reqPath.equals("/hellopost")) {
-                outputLine = helloService(requri);
-            } else {
+    /**
+     * @return the pool running connections and controllers, or null before the server starts
+     */
+    public static WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * Answer one request, waiting for an asynchronous controller result.
+     *
+     * @return whether the connection can stay open for another request
+     */
+    static boolean handleRequest(HttpRequest req, OutputStream out, boolean keepAlive) throws IOException {
+        try {
+            return handleRequestAsync(req, out, keepAlive).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Answer one request. When a controller returns a {@link CompletionStage}, this returns as
+     * soon as the controller does, and the response is written by a worker once the stage
+     * completes or times out; until then the calling thread is free and nothing else may be
+     * written to {@code out}. A HEAD request gets the head of the GET response and no body.
+     *
+     * @return whether the connection can stay open for another request, completed once the
+     * response has been written; completed exceptionally if writing it failed
+     */
+    static CompletableFuture<Boolean> handleRequestAsync(HttpRequest req, OutputStream out, boolean keepAlive) throws IOException {
+        Startup.requestReceived();
+        if (req.getMethod().equals("HEAD")) {
+            out = new HeadResponseOutput(out);
+        }
+        String reqPath = req.getPath();
+        if (AccessLog.enabled()) {
+            AccessLog.log("Thread-" + Thread.currentThread().threadId() + " " + req.getMethod() + " Path: " + reqPath);
+        }
+
+        if (reqPath == null) {
+            writeResponse(out, 400, "text/plain", "Bad Request", false);
+            return CLOSE;
+        }
+
+        if (reqPath.equals("/shutdown")) {
+            writeResponse(out, 200, "text/plain", "Server shutting down...", false);
+            new Thread(() -> {
                 try {
-                    writeStaticResponse(requri, socket.getOutputStream());
-                    alreadySent = true;
-                } catch (IOException e) {
-                    outputLine = "HTTP/1.1 500 Internal Server Error\r\nContent-Type: text/plain\r\n\r\n" + e.getMessage();
+                    Thread.sleep(1000);
+                    stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
+            }).start();
+            return CLOSE;
+        }
+
+        if (reqPath.equals("/metrics")) {
+            writeResponse(out, 200, "text/plain; version=0.0.4; charset=utf-8", Metrics.render(), keepAlive);
+            return done(keepAlive);
+        }
+
+        String rawPath = req.getRawPath();
+        boolean appPath = rawPath.startsWith("/app/");
+        long routeStart = System.nanoTime();
+        Router.Match<RouteInvoker> route = router.match(req.getMethod(), appPath ? rawPath.substring(4) : rawPath);
+        long routed = System.nanoTime();
+        Metrics.ROUTE.record(routed - routeStart);
+
+        try {
+            if (route != null) {
+                if (route.target() == null) {
+                    writeResponse(out, 405, "text/plain", "Allow: " + String.join(", ", route.allowedMethods()) + "\r\n",
+                            "Method Not Allowed".getBytes(java.nio.charset.StandardCharsets.UTF_8), keepAlive);
+                } else {
+                    req.route = route;
+                    return admitRoute(req, route.target(), out, keepAlive, routed);
+                }
+            } else if (appPath) {
+                writeResponse(out, 404, "text/html", "Not Found", keepAlive);
+            } else if (reqPath.equals("/hello") || reqPath.equals("/hellopost")) {
+                writeResponse(out, 200, "application/json", helloService(req), keepAlive);
+            } else {
+                writeStaticResponse(req, reqPath, out, keepAlive);
             }
- 
-            if (!alreadySent) {
-                out.println(outputLine);
-            }
-            
-        } catch (Exception e) {
-            System.err.println("Error handling client request: " + e.getMessage());
-            e.printStackTrace();
+        } catch (ParamBinder.BindException e) {
+            writeResponse(out, 400, "text/plain", e.getMessage(), keepAlive);
+        } catch (InvocationTargetException e) {
+            return done(writeError(out, e.getCause(), keepAlive));
+        }
+        return done(keepAlive);
+    }
+
+    private static CompletableFuture<Boolean> done(boolean keepAlive) {
+        return keepAlive ? KEEP_ALIVE : CLOSE;
+    }
+
+    /**
+     * Answer a failed controller call: 504 if its result timed out, else 500.
+     *
+     * @return whether the connection can stay open
+     */
+    private static boolean writeError(OutputStream out, Throwable cause, boolean keepAlive) throws IOException {
+        if (cause instanceof TimeoutException) {
+            writeResponse(out, 504, "text/plain", "Gateway Timeout", keepAlive);
+            return keepAlive;
         }
+        writeResponse(out, 500, "text/plain", "Internal Server Error", false);
+        return false;
     }
 
-    private static String helloService(URI requesturi) {
-        String response = "HTTP/1.1 200 OK\n\r"
-                + "content-type: application/json\n\r"
-                + "\n\r";
-        String name = requesturi.getQuery().split("=")[1];
+    private static String helloService(HttpRequest req) {
+        String name = req.getValue("name");
+        return Json.toJson(Map.of("mensaje", "Hola " + name));
+    }
+
+    /**
+     * Write a complete response framed with Content-Length so the connection can be reused.
+     */
+    static void writeResponse(OutputStream os, int status, String contentType, String body, boolean keepAlive) throws IOException {
+        writeResponse(os, status, contentType, body.getBytes(java.nio.charset.StandardCharsets.UTF_8), keepAlive);
+    }
 
-        response = response + "{\"mensaje\": \"Hola " + name + "\"}";
-        return response;
+    static void writeResponse(OutputStream os, int status, String contentType, byte[] body, boolean keepAlive) throws IOException {
+        writeResponse(os, status, contentType, "", body, keepAlive);
     }
 
     /**
-     * Write a static resource response (header + body) directly to the provided OutputStream.
-     * Serves files from classpath "webroot/...". Binary files are written raw.
+     * @param extraHeaders additional header lines, each terminated by CRLF
      */
-    private static void writeStaticResponse(URI requri, OutputStream os) throws IOException {
-        String path = requri.getPath();
+    static void writeResponse(OutputStream os, int status, String contentType, String extraHeaders, byte[] body, boolean keepAlive) throws IOException {
+        String header = "HTTP/1.1 " + status + " " + reasonPhrase(status) + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + extraHeaders
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                + "\r\n";
+        os.write(header.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        os.write(body);
+        Metrics.status(status);
+    }
+
+    static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 303: return "See Other";
+            case 304: return "Not Modified";
+            case 307: return "Temporary Redirect";
+            case 308: return "Permanent Redirect";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 413: return "Payload Too Large";
+            case 414: return "URI Too Long";
+            case 416: return "Range Not Satisfiable";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "";
+        }
+    }
+
+    /**
+     * Write a static resource response from the {@link #staticfiles} directory, if one is set and
+     * has the file, or else from classpath "webroot/...". Classpath files come from
+     * {@link #staticCache} with their headers already encoded, and a request whose If-None-Match
+     * or If-Modified-Since matches the cached version gets a bodyless 304. Compressible files are
+     * sent gzip-encoded to clients that accept it.
+     */
+    private static void writeStaticResponse(HttpRequest req, String path, OutputStream os, boolean keepAlive) throws IOException {
         if (path.equals("/")) {
             path = "/index.html";
         }
         if (!path.startsWith("/")) {
             path = "/" + path;
         }
+        if (path.contains("/../") || path.endsWith("/..")) {
+            writeResponse(os, 404, "text/plain", "Not Found", keepAlive);
+            return;
+        }
+        StaticFileRoot root = fileRoot;
+        if (root != null && root.serve(req, path, os, keepAlive)) {
+            return;
+        }
         String resourcePath = "webroot" + path;
-        System.out.println("Requesting static resource: " + resourcePath);
 
-        try (InputStream is = HttpServer.class.getClassLoader().getResourceAsStream(resourcePath)) {
-            if (is == null) {
-                String notFound = "HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n\r\nNot Found";
-                os.write(notFound.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                os.flush();
-                return;
-            }
-            byte[] bytes = is.readAllBytes();
-            String contentType = guessContentType(resourcePath);
-            String header = "HTTP/1.1 200 OK\r\n" + "Content-Type: " + contentType + "\r\n" + "\r\n";
+        StaticResourceCache.Entry entry = staticCache.get(resourcePath);
+        if (entry == null) {
+            writeResponse(os, 404, "text/plain", "Not Found", keepAlive);
+            return;
+        }
+        long start = System.nanoTime();
+        StaticResourceCache.Variant variant = entry.select(req);
+        if (entry.notModified(req, variant)) {
+            os.write(variant.notModifiedHeader(keepAlive));
+            Metrics.status(304);
+        } else {
+            os.write(variant.header(keepAlive));
+            os.write(variant.body);
+            Metrics.status(200);
+        }
+        Metrics.WRITE.record(System.nanoTime() - start);
+    }
 
-            os.write(header.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    /**
+     * @return the static resource cache, for its hit, miss and eviction counters
+     */
+    public static StaticResourceCache getStaticCache() {
+        return staticCache;
+    }
 
-            os.write(bytes);
-            os.flush();
-        }
+    private static StaticResourceCache newStaticCache() {
+        return new StaticResourceCache(ServerConfig.staticCacheBytes, ServerConfig.staticCacheMaxEntryBytes, ServerConfig.staticGzipMinBytes);
     }
 
-    private static String guessContentType(String resourcePath) {
+    static String guessContentType(String resourcePath) {
         if (resourcePath.endsWith(".html")) return "text/html; charset=UTF-8";
         if (resourcePath.endsWith(".js")) return "application/javascript; charset=UTF-8";
         if (resourcePath.endsWith(".css")) return "text/css; charset=UTF-8";
@@ -260,46 +515,270 @@ public class HttpServer {
     if (resourcePath.endsWith(".ico")) return "image/x-icon";
     if (resourcePath.endsWith(".gif")) return "image/gif";
     if (resourcePath.endsWith(".svg")) return "image/svg+xml";
+    if (resourcePath.endsWith(".json")) return "application/json";
+    if (resourcePath.endsWith(".txt")) return "text/plain; charset=UTF-8";
         return "application/octet-stream";
     }
 
 
-    public static String invokeService(URI requri) throws IllegalAccessException, InvocationTargetException {
-    HttpRequest req = new HttpRequest(requri);
-        String service = requri.getPath().substring(4);
-        Method s = services.get(service);
-
-        String header = "HTTP/1.1 200 OK\n\r"
-                + "content-type: text/html\n\r"
-                + "\n\r";
-
-        if (s == null) {
-            return header + "Not Found";
-        }
-
-        Parameter[] params = s.getParameters();
-        Object[] args = new Object[params.length];
-        for (int i = 0; i < params.length; i++) {
-            Parameter p = params[i];
-            if (p.isAnnotationPresent(RequestParam.class)) {
-                RequestParam rp = p.getAnnotation(RequestParam.class);
-                String name = rp.value();
-                String defaultVal = rp.defaultValue();
-                String val = req.getValue(name);
-                if (val == null) val = defaultVal;
-                args[i] = val;
+    /**
+     * Invoke a route unless its {@code @RateLimit} (429) or the concurrency limit (503) turns the
+     * request away. A call counts against the concurrency limit until its response is written.
+     *
+     * @param start {@link System#nanoTime()} when the route was found
+     */
+    private static CompletableFuture<Boolean> admitRoute(HttpRequest req, RouteInvoker invoker, OutputStream out, boolean keepAlive,
+                                                         long start) throws IOException, InvocationTargetException, ParamBinder.BindException {
+        RateLimiter rate = invoker.getRateLimit();
+        if (rate != null && !rate.tryAcquire(0, start)) {
+            Admission.routeRejections.increment();
+            Admission.writeTooManyRequests(out);
+            return CLOSE;
+        }
+        ConcurrencyLimiter limiter = Admission.concurrency;
+        if (limiter == null) {
+            return invokeRoute(req, invoker, out, keepAlive);
+        }
+        if (!limiter.tryAcquire()) {
+            Admission.concurrencyRejections.increment();
+            Admission.writeOverloaded(out);
+            return CLOSE;
+        }
+        CompletableFuture<Boolean> outcome = null;
+        try {
+            outcome = invokeRoute(req, invoker, out, keepAlive);
+        } finally {
+            if (outcome == null || outcome.isDone()) {
+                limiter.release(System.nanoTime() - start);
+            } else {
+                outcome.whenComplete((reuse, error) -> limiter.release(System.nanoTime() - start));
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * Call the controller of a matched route and write its response, from the route's response
+     * cache when it is {@code @Cacheable}. A {@link CompletionStage} result is written when it
+     * completes, see {@link #handleRequestAsync}.
+     *
+     * @return whether the connection can stay open
+     */
+    private static CompletableFuture<Boolean> invokeRoute(HttpRequest req, RouteInvoker invoker, OutputStream out, boolean keepAlive)
+            throws IOException, InvocationTargetException, ParamBinder.BindException {
+        long start = System.nanoTime();
+        long invoked = start;
+        boolean failed = true;
+        boolean pending = false;
+        try {
+            ResponseCache cache = invoker.getCache();
+            if (cache != null) {
+                Object[] args = invoker.bind(req, null);
+                // only a miss waits for an asynchronous result, which is then cached like any other
+                ResponseCache.Response cached = cache.get(invoker.cacheKey(req),
+                        () -> await(invoker.call(args), invoker.getTimeoutMillis()));
+                invoked = System.nanoTime();
+                cached.write(out, keepAlive);
+                failed = false;
+                return done(keepAlive);
+            }
+            HttpResponse res = new HttpResponse(req, out, keepAlive);
+            Object result;
+            try {
+                result = invoker.invoke(req, res);
+            } catch (InvocationTargetException e) {
+                if (res.isCommitted()) {
+                    // part of the body is out; closing without the last chunk tells the client it failed
+                    return CLOSE;
+                }
+                throw e;
+            }
+            if (result instanceof CompletionStage<?> stage) {
+                pending = true;
+                return completeLater(res, stage, invoker, out, keepAlive, start);
+            }
+            if (result instanceof EventStream stream && !res.isCommitted()) {
+                failed = false;
+                return subscribe(req, stream, out);
+            }
+            invoked = System.nanoTime();
+            res.finish(result);
+            failed = false;
+            return done(res.isKeepAlive());
+        } catch (ParamBinder.BindException e) {
+            // the client's mistake, answered with 400; not a controller error
+            failed = false;
+            throw e;
+        } finally {
+            if (!pending) {
+                recordInvocation(invoker, start, invoked, failed);
+            }
+        }
+    }
+
+    /**
+     * Answer with an event stream. The engine gives the connection to {@link EventHub}, which
+     * sends the events after the client's {@code Last-Event-ID} and then every new one; an
+     * output without a connection gets those events and the end of the stream.
+     */
+    private static CompletableFuture<Boolean> subscribe(HttpRequest req, EventStream stream, OutputStream out) throws IOException {
+        String lastEventId = req.getHeader("last-event-id");
+        if (out instanceof StreamHandoff handoff) {
+            handoff.handOff(channel -> EventHub.attach(channel, stream, lastEventId));
+        } else {
+            out.write(EventHub.head());
+            stream.replay(lastEventId, out);
+            Metrics.status(200);
+        }
+        return CLOSE;
+    }
+
+    /**
+     * Write the response once {@code stage} completes, or a 504 once the route's timeout has
+     * passed. The response is written on a worker, not on the thread that completes the stage.
+     */
+    private static CompletableFuture<Boolean> completeLater(HttpResponse res, CompletionStage<?> stage, RouteInvoker invoker,
+                                                            OutputStream out, boolean keepAlive, long start) {
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        stage.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
             } else {
-                args[i] = null; //
+                result.complete(value);
             }
+        });
+        result.orTimeout(invoker.getTimeoutMillis(), TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            Runnable write = () -> {
+                long invoked = System.nanoTime();
+                boolean failed = true;
+                try {
+                    if (error == null) {
+                        res.finish(value);
+                        failed = false;
+                        written.complete(res.isKeepAlive());
+                    } else if (res.isCommitted()) {
+                        written.complete(false);
+                    } else {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        written.complete(writeError(out, cause, keepAlive));
+                    }
+                } catch (Throwable t) {
+                    written.completeExceptionally(t);
+                } finally {
+                    recordInvocation(invoker, start, invoked, failed);
+                }
+            };
+            WorkerPool pool = workerPool;
+            if (pool == null || !pool.execute(write)) {
+                // no server running, or the pool is saturated: write on the completing thread
+                write.run();
+            }
+        });
+        return written;
+    }
+
+    /**
+     * @return {@code result}, or the value it completes with if it is a {@link CompletionStage}
+     * @throws InvocationTargetException if the stage fails or does not complete in time
+     */
+    private static Object await(Object result, long timeoutMillis) throws InvocationTargetException {
+        if (!(result instanceof CompletionStage<?> stage)) {
+            return result;
         }
+        try {
+            return stage.toCompletableFuture().get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new InvocationTargetException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new InvocationTargetException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvocationTargetException(e);
+        }
+    }
 
-        Object instance = instances.get(s);
-        Object result = s.invoke(instance, args);
-        return header + (result != null ? result.toString() : "");
+    /**
+     * Record the latency of a controller call and of writing its response.
+     */
+    private static void recordInvocation(RouteInvoker invoker, long start, long invoked, boolean failed) {
+        long end = System.nanoTime();
+        if (invoked == start) {
+            invoked = end;
+        }
+        Metrics.INVOKE.record(invoked - start);
+        Metrics.WRITE.record(end - invoked);
+        Metrics.Route stats = invoker.getMetrics();
+        if (stats != null) {
+            stats.requests.increment();
+            stats.latency.record(end - start);
+            if (failed) {
+                stats.errors.increment();
+            }
+        }
+    }
 
+    /**
+     * Answer a GET for an {@code /app/...} URI without a connection.
+     *
+     * @return the complete HTTP response: 404 if no route matches the path, 405 with an
+     * {@code Allow} header if none matches the method
+     */
+    public static String invokeService(URI requri) throws IllegalAccessException, InvocationTargetException {
+        return invokeService("GET", requri, null);
     }
 
+    /**
+     * Answer a request for an {@code /app/...} URI with the given method and body (or null)
+     * without a connection.
+     */
+    public static String invokeService(String method, URI requri, byte[] body) throws IllegalAccessException, InvocationTargetException {
+        HttpRequest req = new HttpRequest(method, requri);
+        if (body != null) {
+            req.body = SpooledBody.of(body);
+        }
+        Router.Match<RouteInvoker> route = router.match(method, requri.getRawPath().substring(4));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            try {
+                if (route == null) {
+                    writeResponse(out, 404, "text/html", "Not Found", false);
+                } else if (route.target() == null) {
+                    writeResponse(out, 405, "text/plain", "Allow: " + String.join(", ", route.allowedMethods()) + "\r\n",
+                            "Method Not Allowed".getBytes(java.nio.charset.StandardCharsets.UTF_8), false);
+                } else {
+                    req.route = route;
+                    admitRoute(req, route.target(), out, false, System.nanoTime()).join();
+                }
+            } catch (ParamBinder.BindException e) {
+                writeResponse(out, 400, "text/plain", e.getMessage(), false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString(java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the response caches of the {@code @Cacheable} routes, by {@link #routeKey}
+     */
+    public static Map<String, ResponseCache> getResponseCaches() {
+        return responseCaches;
+    }
+
+    /**
+     * Serve static files from the directory {@code localFilesPath}. Its files take precedence over
+     * the bundled webroot and are sent without being loaded into memory.
+     *
+     * @throws IllegalArgumentException if the path is not an existing directory
+     */
     public static void staticfiles(String localFilesPath) {
+        try {
+            fileRoot = new StaticFileRoot(Paths.get(localFilesPath));
+        } catch (IOException | InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid static files directory: " + localFilesPath, e);
+        }
+        System.out.println("Serving static files from " + fileRoot.getRoot());
     }
 
     /**
@@ -307,36 +786,30 @@ public class HttpServer {
      */
     public static void stop() {
         System.out.println("Stopping server...");
-        running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
+        EventHub.shutdown();
+        ServerEngine e = engine;
+        if (e != null) {
+            e.stop();
         }
     }
 
     /**
-     * Shutdown thread pool and cleanup resources
+     * Shutdown a worker pool, waiting for in-flight requests to finish
      */
-    private static void shutdown() {
+    static void shutdownPool(ExecutorService threadPool) {
         System.out.println("Shutting down thread pool...");
-        if (threadPool != null) {
-            threadPool.shutdown();
-            try {
-                if (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
-                    threadPool.shutdownNow();
-                    if (!threadPool.awaitTermination(60, TimeUnit.SECONDS)) {
-                        System.err.println("Thread pool did not terminate");
-                    }
-                }
-            } catch (InterruptedException e) {
+        threadPool.shutdown();
+        try {
+            if (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) {
                 threadPool.shutdownNow();
-                Thread.currentThread().interrupt();
+                if (!threadPool.awaitTermination(60, TimeUnit.SECONDS)) {
+                    System.err.println("Thread pool did not terminate");
+                }
             }
+        } catch (InterruptedException e) {
+            threadPool.shutdownNow();
+            Thread.currentThread().interrupt();
         }
-        System.out.println("Server shutdown complete.");
     }
 
     public static void start(String[] args) throws IOException, URISyntaxException, IllegalAccessException, InvocationTargetException {
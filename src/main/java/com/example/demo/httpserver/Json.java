@@ -0,0 +1,493 @@
+package com.example.demo.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * JSON serialization of controller results. A controller that returns a record, a bean (public
+ * fields and getters), a {@link Map}, an {@link Iterable}, an array or an {@link Optional}
+ * gets it sent as {@code application/json}; strings, numbers and other values are still sent
+ * as text.
+ * <p>
+ * Each class gets a serializer built once from method handles of its accessors, with the
+ * property names already encoded, and cached; the serializers for a route's declared return
+ * type are built when the route is registered. Serializers write UTF-8 straight into a pooled
+ * buffer (see {@link JsonWriter}).
+ */
+public final class Json {
+
+    public static final String CONTENT_TYPE = "application/json";
+
+    /** Writes one value of a given class. */
+    interface Serializer {
+        void write(JsonWriter w, Object value) throws IOException;
+    }
+
+    private static final ClassValue<Serializer> SERIALIZERS = new ClassValue<>() {
+        @Override
+        protected Serializer computeValue(Class<?> type) {
+            return create(type);
+        }
+    };
+
+    private static final ClassValue<Boolean> JSON_TYPES = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return isJsonType(type);
+        }
+    };
+
+    private static final Serializer STRING = (w, v) -> w.writeString((CharSequence) v);
+    private static final Serializer INTEGER = (w, v) -> w.writeLong(((Number) v).longValue());
+    private static final Serializer DOUBLE = (w, v) -> w.writeDouble((Double) v);
+    private static final Serializer FLOAT = (w, v) -> w.writeFloat((Float) v);
+    private static final Serializer BOOLEAN = (w, v) -> w.writeBoolean((Boolean) v);
+    private static final Serializer NUMBER = (w, v) -> w.writeAscii(v.toString());
+    private static final Serializer TEXT = (w, v) -> w.writeString(v.toString());
+    private static final Serializer ENUM = (w, v) -> w.writeString(((Enum<?>) v).name());
+
+    private Json() {
+    }
+
+    /**
+     * @return {@code value} as JSON
+     * @throws IllegalStateException if a getter fails or values nest too deeply
+     */
+    public static String toJson(Object value) {
+        return new String(toBytes(value), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write {@code value} as JSON to {@code out}.
+     */
+    public static void write(Object value, OutputStream out) throws IOException {
+        JsonWriter w = new JsonWriter(out);
+        try {
+            writeValue(w, value);
+            w.flush();
+        } finally {
+            w.release();
+        }
+    }
+
+    static byte[] toBytes(Object value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            write(value, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return whether a controller result is sent as JSON rather than as its {@code toString()}
+     */
+    static boolean isJson(Object result) {
+        return result != null && JSON_TYPES.get(result.getClass());
+    }
+
+    /**
+     * @return whether values of {@code type} are sent as JSON
+     */
+    static boolean isJsonType(Class<?> type) {
+        if (type.isArray() || type.isRecord() || Map.class.isAssignableFrom(type)
+                || Iterable.class.isAssignableFrom(type) || type == Optional.class) {
+            return true;
+        }
+        return !type.isPrimitive() && type != Object.class && !isPlatform(type) && !type.isEnum()
+                && !(type.getSuperclass() != null && type.getSuperclass().isEnum())
+                && !CharSequence.class.isAssignableFrom(type) && !Number.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Build and cache the serializers for {@code type} and the types it contains, as far as they
+     * are declared, so the first request does not pay for it.
+     */
+    static void prepare(Type type) {
+        prepare(type, new HashSet<>());
+    }
+
+    private static void prepare(Type type, Set<Type> seen) {
+        if (!seen.add(type)) {
+            return;
+        }
+        if (type instanceof ParameterizedType pt) {
+            prepare(pt.getRawType(), seen);
+            for (Type arg : pt.getActualTypeArguments()) {
+                prepare(arg, seen);
+            }
+        } else if (type instanceof Class<?> c && c != void.class && c != Object.class) {
+            if (c.isArray()) {
+                prepare(c.getComponentType(), seen);
+            }
+            if (SERIALIZERS.get(c) instanceof ObjectSerializer os) {
+                for (Property p : os.properties) {
+                    prepare(p.genericType, seen);
+                }
+            }
+        }
+    }
+
+    static void writeValue(JsonWriter w, Object value) throws IOException {
+        if (value == null) {
+            w.writeNull();
+        } else {
+            SERIALIZERS.get(value.getClass()).write(w, value);
+        }
+    }
+
+    private static boolean isPlatform(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.") || name.startsWith("sun.");
+    }
+
+    private static Serializer create(Class<?> type) {
+        if (CharSequence.class.isAssignableFrom(type) || type == Character.class || type == char.class) {
+            return type == Character.class || type == char.class ? TEXT : STRING;
+        }
+        if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class
+                || type == int.class || type == long.class || type == short.class || type == byte.class) {
+            return INTEGER;
+        }
+        if (type == Double.class || type == double.class) {
+            return DOUBLE;
+        }
+        if (type == Float.class || type == float.class) {
+            return FLOAT;
+        }
+        if (type == Boolean.class || type == boolean.class) {
+            return BOOLEAN;
+        }
+        if (Number.class.isAssignableFrom(type)) {
+            return NUMBER;
+        }
+        if (type.isEnum() || (type.getSuperclass() != null && type.getSuperclass().isEnum())) {
+            return ENUM;
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            return Json::writeMap;
+        }
+        if (Iterable.class.isAssignableFrom(type)) {
+            return Json::writeIterable;
+        }
+        if (type == Optional.class) {
+            return (w, v) -> writeValue(w, ((Optional<?>) v).orElse(null));
+        }
+        if (type.isArray()) {
+            return arraySerializer(type.getComponentType());
+        }
+        if (isPlatform(type) || type == Object.class) {
+            // dates, UUIDs, URIs and the like
+            return TEXT;
+        }
+        return new ObjectSerializer(type);
+    }
+
+    private static void writeMap(JsonWriter w, Object value) throws IOException {
+        w.enter();
+        w.writeByte('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+            if (!first) {
+                w.writeByte(',');
+            }
+            first = false;
+            w.writeString(String.valueOf(e.getKey()));
+            w.writeByte(':');
+            writeValue(w, e.getValue());
+        }
+        w.writeByte('}');
+        w.exit();
+    }
+
+    private static void writeIterable(JsonWriter w, Object value) throws IOException {
+        w.enter();
+        w.writeByte('[');
+        boolean first = true;
+        // elements are usually all of one class, so look its serializer up once
+        Class<?> type = null;
+        Serializer serializer = null;
+        for (Object element : (Iterable<?>) value) {
+            if (!first) {
+                w.writeByte(',');
+            }
+            first = false;
+            if (element == null) {
+                w.writeNull();
+                continue;
+            }
+            if (element.getClass() != type) {
+                type = element.getClass();
+                serializer = SERIALIZERS.get(type);
+            }
+            serializer.write(w, element);
+        }
+        w.writeByte(']');
+        w.exit();
+    }
+
+    private static Serializer arraySerializer(Class<?> component) {
+        if (component == int.class) {
+            return (w, v) -> {
+                int[] a = (int[]) v;
+                w.writeByte('[');
+                for (int i = 0; i < a.length; i++) {
+                    if (i > 0) {
+                        w.writeByte(',');
+                    }
+                    w.writeLong(a[i]);
+                }
+                w.writeByte(']');
+            };
+        }
+        if (component == long.class) {
+            return (w, v) -> {
+                long[] a = (long[]) v;
+                w.writeByte('[');
+                for (int i = 0; i < a.length; i++) {
+                    if (i > 0) {
+                        w.writeByte(',');
+                    }
+                    w.writeLong(a[i]);
+                }
+                w.writeByte(']');
+            };
+        }
+        if (component == double.class) {
+            return (w, v) -> {
+                double[] a = (double[]) v;
+                w.writeByte('[');
+                for (int i = 0; i < a.length; i++) {
+                    if (i > 0) {
+                        w.writeByte(',');
+                    }
+                    w.writeDouble(a[i]);
+                }
+                w.writeByte(']');
+            };
+        }
+        return (w, v) -> {
+            w.enter();
+            w.writeByte('[');
+            int length = Array.getLength(v);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    w.writeByte(',');
+                }
+                writeValue(w, Array.get(v, i));
+            }
+            w.writeByte(']');
+            w.exit();
+        };
+    }
+
+    /** One JSON member: its encoded {@code "name":} prefix and a getter. */
+    private static final class Property {
+
+        final byte[] prefix;
+        final Type genericType;
+        /** One of these is set, depending on the property type. */
+        final ToLongFunction<Object> longGetter;
+        final ToDoubleFunction<Object> doubleGetter;
+        final Predicate<Object> booleanGetter;
+        final Function<Object, Object> objectGetter;
+        final boolean isFloat;
+        /** Serializer of a type that cannot have subclasses, resolved on first use; else null. */
+        final Class<?> fixedType;
+        Serializer fixed;
+
+        @SuppressWarnings("unchecked")
+        Property(String name, Class<?> type, Type genericType, MethodHandle getter, boolean first) {
+            this.prefix = ((first ? "" : ",") + "\"" + escape(name) + "\":").getBytes(StandardCharsets.UTF_8);
+            this.genericType = genericType;
+            this.isFloat = type == float.class;
+            ToLongFunction<Object> l = null;
+            ToDoubleFunction<Object> d = null;
+            Predicate<Object> z = null;
+            Function<Object, Object> o = null;
+            if (type == int.class || type == long.class || type == short.class || type == byte.class) {
+                l = (ToLongFunction<Object>) accessor(ToLongFunction.class, "applyAsLong", long.class, getter);
+            } else if (type == double.class || type == float.class) {
+                d = (ToDoubleFunction<Object>) accessor(ToDoubleFunction.class, "applyAsDouble", double.class, getter);
+            } else if (type == boolean.class) {
+                z = (Predicate<Object>) accessor(Predicate.class, "test", boolean.class, getter);
+            } else {
+                // char is boxed and written as a string
+                o = (Function<Object, Object>) accessor(Function.class, "apply", Object.class, getter);
+            }
+            this.longGetter = l;
+            this.doubleGetter = d;
+            this.booleanGetter = z;
+            this.objectGetter = o;
+            boolean isFinal = type.isPrimitive() || type.isRecord() || type.isArray() || Modifier.isFinal(type.getModifiers());
+            this.fixedType = isFinal ? type : null;
+        }
+
+        /**
+         * Spin a class implementing {@code iface} that calls the getter directly, which the JIT
+         * inlines like any other call; a getter the spun class cannot see is called through a proxy.
+         */
+        private static Object accessor(Class<?> iface, String method, Class<?> returnType, MethodHandle getter) {
+            MethodType erased = MethodType.methodType(returnType, Object.class);
+            try {
+                return LambdaMetafactory.metafactory(MethodHandles.lookup(), method, MethodType.methodType(iface),
+                        erased, getter, getter.type()).getTarget().invoke();
+            } catch (Throwable e) {
+                return MethodHandleProxies.asInterfaceInstance(iface, getter.asType(erased));
+            }
+        }
+
+        void write(JsonWriter w, Object target) throws IOException {
+            w.writeRaw(prefix);
+            if (longGetter != null) {
+                w.writeLong(longGetter.applyAsLong(target));
+            } else if (doubleGetter != null) {
+                double d = doubleGetter.applyAsDouble(target);
+                if (isFloat) {
+                    w.writeFloat((float) d);
+                } else {
+                    w.writeDouble(d);
+                }
+            } else if (booleanGetter != null) {
+                w.writeBoolean(booleanGetter.test(target));
+            } else {
+                Object value = objectGetter.apply(target);
+                if (value == null) {
+                    w.writeNull();
+                } else if (fixedType != null) {
+                    Serializer s = fixed;
+                    if (s == null) {
+                        s = fixed = SERIALIZERS.get(fixedType);
+                    }
+                    s.write(w, value);
+                } else {
+                    writeValue(w, value);
+                }
+            }
+        }
+
+        private static String escape(String name) {
+            return name.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+    }
+
+    /**
+     * A record, written with its components in declaration order, or a bean, written with its
+     * public fields and getters ({@code getX()}, {@code isX()} for booleans), superclass first.
+     */
+    private static final class ObjectSerializer implements Serializer {
+
+        final Class<?> type;
+        final Property[] properties;
+
+        ObjectSerializer(Class<?> type) {
+            this.type = type;
+            MethodHandles.Lookup lookup;
+            try {
+                lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot serialize " + type.getName() + ": " + e.getMessage(), e);
+            }
+            List<Property> list = new ArrayList<>();
+            try {
+                if (type.isRecord()) {
+                    for (RecordComponent rc : type.getRecordComponents()) {
+                        list.add(new Property(rc.getName(), rc.getType(), rc.getGenericType(),
+                                lookup.unreflect(rc.getAccessor()), list.isEmpty()));
+                    }
+                } else {
+                    Map<String, Object> members = new LinkedHashMap<>();
+                    collectMembers(type, members);
+                    for (Map.Entry<String, Object> e : members.entrySet()) {
+                        if (e.getValue() instanceof Field f) {
+                            list.add(new Property(e.getKey(), f.getType(), f.getGenericType(), lookup.unreflectGetter(f), list.isEmpty()));
+                        } else {
+                            Method m = (Method) e.getValue();
+                            list.add(new Property(e.getKey(), m.getReturnType(), m.getGenericReturnType(), lookup.unreflect(m), list.isEmpty()));
+                        }
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot serialize " + type.getName() + ": " + e.getMessage(), e);
+            }
+            this.properties = list.toArray(new Property[0]);
+        }
+
+        private static void collectMembers(Class<?> type, Map<String, Object> members) {
+            if (type == null || type == Object.class) {
+                return;
+            }
+            collectMembers(type.getSuperclass(), members);
+            for (Field f : type.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (Modifier.isPublic(mod) && !Modifier.isStatic(mod)) {
+                    members.putIfAbsent(f.getName(), f);
+                }
+            }
+            for (Method m : type.getDeclaredMethods()) {
+                int mod = m.getModifiers();
+                if (!Modifier.isPublic(mod) || Modifier.isStatic(mod) || m.getParameterCount() > 0 || m.isSynthetic()
+                        || m.getReturnType() == void.class) {
+                    continue;
+                }
+                String name = m.getName();
+                String property = null;
+                if (name.startsWith("get") && name.length() > 3 && Character.isUpperCase(name.charAt(3))) {
+                    property = name.substring(3);
+                } else if (name.startsWith("is") && name.length() > 2 && Character.isUpperCase(name.charAt(2))
+                        && (m.getReturnType() == boolean.class || m.getReturnType() == Boolean.class)) {
+                    property = name.substring(2);
+                }
+                if (property != null) {
+                    members.putIfAbsent(decapitalize(property), m);
+                }
+            }
+        }
+
+        private static String decapitalize(String s) {
+            if (s.length() > 1 && Character.isUpperCase(s.charAt(1))) {
+                // URL stays URL, as in java.beans.Introspector
+                return s;
+            }
+            return Character.toLowerCase(s.charAt(0)) + s.substring(1);
+        }
+
+        @Override
+        public void write(JsonWriter w, Object value) throws IOException {
+            w.enter();
+            w.writeByte('{');
+            for (Property p : properties) {
+                p.write(w, value);
+            }
+            w.writeByte('}');
+            w.exit();
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes JSON tokens as UTF-8 straight into a byte buffer, which is passed on whenever it fills
+ * up and on {@link #flush()}: either a buffer of its own written to a stream, or a buffer owned by
+ * the caller, such as the body buffer of a response. A small first buffer is not passed on when it
+ * fills up but moved to a pooled one ({@link BufferPool#grow}), so a small document is written
+ * without touching the pool. Strings and integers are encoded byte by byte, without building
+ * intermediate {@code String}s.
+ */
+final class JsonWriter {
+
+    /**
+     * Takes the bytes of a full buffer, after which the buffer is written from the start again.
+     * The buffer may be a different one than the writer started with.
+     */
+    @FunctionalInterface
+    interface Sink {
+        void drain(byte[] buf, int len) throws IOException;
+    }
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    private final Sink sink;
+    private final boolean ownsBuffer;
+    private byte[] buf;
+    private int pos;
+    private int depth;
+
+    /** Write through a buffer of its own to {@code out}. */
+    JsonWriter(OutputStream out) {
+        this((b, len) -> out.write(b, 0, len), new byte[BufferPool.FIRST_SIZE], 0, true);
+    }
+
+    /** Write into {@code buf} from {@code pos} on. */
+    JsonWriter(Sink sink, byte[] buf, int pos) {
+        this(sink, buf, pos, false);
+    }
+
+    private JsonWriter(Sink sink, byte[] buf, int pos, boolean ownsBuffer) {
+        this.sink = sink;
+        this.buf = buf;
+        this.pos = pos;
+        this.ownsBuffer = ownsBuffer;
+    }
+
+    /** The number of bytes in the buffer that have not been drained yet. */
+    int position() {
+        return pos;
+    }
+
+    /** The buffer written into, which is no longer the one passed in if that was a small one. */
+    byte[] buffer() {
+        return buf;
+    }
+
+    void writeByte(int b) throws IOException {
+        if (pos == buf.length) {
+            full();
+        }
+        buf[pos++] = (byte) b;
+    }
+
+    void writeRaw(byte[] b) throws IOException {
+        if (b.length <= buf.length - pos) {
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+        } else {
+            for (byte x : b) {
+                writeByte(x);
+            }
+        }
+    }
+
+    void writeNull() throws IOException {
+        writeRaw(NULL);
+    }
+
+    void writeBoolean(boolean b) throws IOException {
+        writeRaw(b ? TRUE : FALSE);
+    }
+
+    void writeLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            writeRaw(MIN_LONG);
+            return;
+        }
+        if (buf.length - pos < 20) {
+            full();
+        }
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        // count the digits by comparison, then write them from the end; int division is much
+        // cheaper than long division, so switch to it as soon as the rest fits
+        int digits = 1;
+        for (long t = 10; digits < 19 && v >= t; t *= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        int i = end;
+        while (v > Integer.MAX_VALUE) {
+            buf[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        for (int n = (int) v; i > pos; n /= 10) {
+            buf[--i] = (byte) ('0' + n % 10);
+        }
+        pos = end;
+    }
+
+    /** Non-finite values have no JSON form and are written as null. */
+    void writeDouble(double v) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            writeNull();
+        } else {
+            writeAscii(Double.toString(v));
+        }
+    }
+
+    void writeFloat(float v) throws IOException {
+        if (Float.isNaN(v) || Float.isInfinite(v)) {
+            writeNull();
+        } else {
+            writeAscii(Float.toString(v));
+        }
+    }
+
+    /** Write text known to need no escaping, such as a number. */
+    void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    /** Write {@code s} as a quoted, escaped JSON string. */
+    void writeString(CharSequence s) throws IOException {
+        writeByte('"');
+        int length = s.length();
+        int i = 0;
+        if (length < buf.length - pos) {
+            // the common case: a run of plain ASCII that fits the buffer, copied without checks
+            byte[] b = buf;
+            int p = pos;
+            for (char c; i < length && (c = s.charAt(i)) < 0x80 && c >= 0x20 && c != '"' && c != '\\'; i++) {
+                b[p++] = (byte) c;
+            }
+            pos = p;
+        }
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    if (pos == buf.length) {
+                        full();
+                    }
+                    buf[pos++] = (byte) c;
+                } else {
+                    writeEscape(c);
+                }
+            } else if (c < 0x800) {
+                writeByte(0xc0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                writeByte(0xf0 | (cp >> 18));
+                writeByte(0x80 | ((cp >> 12) & 0x3f));
+                writeByte(0x80 | ((cp >> 6) & 0x3f));
+                writeByte(0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate cannot be encoded in UTF-8
+                writeByte('?');
+            } else {
+                writeByte(0xe0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3f));
+                writeByte(0x80 | (c & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscape(char c) throws IOException {
+        writeByte('\\');
+        switch (c) {
+            case '"' -> writeByte('"');
+            case '\\' -> writeByte('\\');
+            case '\n' -> writeByte('n');
+            case '\r' -> writeByte('r');
+            case '\t' -> writeByte('t');
+            case '\b' -> writeByte('b');
+            case '\f' -> writeByte('f');
+            default -> {
+                writeByte('u');
+                writeByte('0');
+                writeByte('0');
+                writeByte(HEX[c >> 4]);
+                writeByte(HEX[c & 0xf]);
+            }
+        }
+    }
+
+    /**
+     * Enter a nested object or array.
+     *
+     * @throws IOException if values nest too deeply, which usually means a reference cycle
+     */
+    void enter() throws IOException {
+        if (++depth > 64) {
+            throw new IOException("JSON nesting deeper than 64 levels; is there a reference cycle?");
+        }
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    /** Pass everything written so far to the target stream. */
+    void flush() throws IOException {
+        drain();
+    }
+
+    /** Return a pooled buffer of its own to the pool; the writer cannot be used afterwards. */
+    void release() {
+        if (ownsBuffer && buf != null) {
+            BufferPool.RESPONSE.release(buf);
+        }
+        buf = null;
+    }
+
+    /** Make room in a full buffer: move out of a small first buffer, else pass the bytes on. */
+    private void full() throws IOException {
+        if (BufferPool.RESPONSE.isSmall(buf)) {
+            buf = BufferPool.RESPONSE.grow(buf, pos);
+        } else {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (pos > 0) {
+            sink.drain(buf, pos);
+            pos = 0;
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listening sockets and the options of accepted connections, from the bind settings in
+ * {@link ServerConfig}: the addresses to listen on, the accept backlog, {@code SO_REUSEPORT},
+ * {@code TCP_NODELAY} and socket buffer sizes.
+ */
+final class Listeners {
+
+    private Listeners() {
+    }
+
+    /**
+     * @return the addresses in {@code server.listen}, or {@code server.host}:{@code server.port}
+     * when it is empty
+     * @throws IllegalArgumentException if an entry is not {@code [host:]port}
+     */
+    static List<InetSocketAddress> addresses() {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : ServerConfig.listen.split(",")) {
+            entry = entry.trim();
+            if (!entry.isEmpty()) {
+                addresses.add(parse(entry));
+            }
+        }
+        if (addresses.isEmpty()) {
+            addresses.add(address(ServerConfig.host, ServerConfig.port));
+        }
+        return addresses;
+    }
+
+    /**
+     * @param entry {@code port}, {@code host:port} or {@code [ipv6]:port}
+     */
+    static InetSocketAddress parse(String entry) {
+        int colon = entry.lastIndexOf(':');
+        String host = colon >= 0 ? entry.substring(0, colon) : "";
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        try {
+            return address(host, Integer.parseInt(entry.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid listen address " + entry + ": expected [host:]port");
+        }
+    }
+
+    private static InetSocketAddress address(String host, int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port " + port);
+        }
+        return host == null || host.isEmpty() || host.equals("*")
+                ? new InetSocketAddress(port)
+                : new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Whether listeners can share an address with {@code SO_REUSEPORT} here: requested with
+     * {@code server.reusePort} and supported by the platform.
+     */
+    static boolean reusePort() {
+        if (!ServerConfig.reusePort) {
+            return false;
+        }
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open a blocking channel listening on {@code address}.
+     *
+     * @param reusePort whether other channels (in this process or another) may bind the same address
+     */
+    static ServerSocketChannel open(InetSocketAddress address, boolean reusePort) throws IOException {
+        ServerSocketChannel ch = ServerSocketChannel.open();
+        try {
+            ch.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                ch.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (ServerConfig.receiveBufferBytes > 0) {
+                // set before bind so accepted sockets start with it, and large windows can be negotiated
+                ch.setOption(StandardSocketOptions.SO_RCVBUF, ServerConfig.receiveBufferBytes);
+            }
+            ch.bind(address, ServerConfig.backlog);
+            return ch;
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Apply the connection options to an accepted socket.
+     */
+    static void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(ServerConfig.tcpNoDelay);
+        if (ServerConfig.sendBufferBytes > 0) {
+            socket.setSendBufferSize(ServerConfig.sendBufferBytes);
+        }
+    }
+
+    /**
+     * @return the address a channel is bound to, for log messages
+     */
+    static String describe(ServerSocketChannel ch) {
+        try {
+            InetSocketAddress a = (InetSocketAddress) ch.getLocalAddress();
+            return (a.getAddress().isAnyLocalAddress() ? "*" : a.getHostString()) + ":" + a.getPort();
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+
+}
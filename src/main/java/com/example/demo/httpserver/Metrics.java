@@ -0,0 +1,208 @@
+package com.example.demo.httpserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server metrics, recorded without locks on the request path and rendered in the Prometheus text
+ * exposition format by the built-in {@code /metrics} endpoint.
+ * <ul>
+ * <li>latency of each request phase: parse (request head), route (lookup), invoke (controller,
+ * including a streamed body) and write (response serialization)</li>
+ * <li>requests, errors and invoke latency per route</li>
+ * <li>responses by status code, open connections and worker pool state</li>
+ * <li>requests rejected by {@link Admission} control, and the concurrency limit</li>
+ * <li>static file and {@code @Cacheable} cache counters</li>
+ * </ul>
+ */
+public final class Metrics {
+
+    static final LatencyHistogram PARSE = new LatencyHistogram();
+    static final LatencyHistogram ROUTE = new LatencyHistogram();
+    static final LatencyHistogram INVOKE = new LatencyHistogram();
+    static final LatencyHistogram WRITE = new LatencyHistogram();
+
+    private static final AtomicLongArray statuses = new AtomicLongArray(600);
+    private static final LongAdder connections = new LongAdder();
+    private static final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    /** Upper bounds of the exported latency buckets, in seconds, from 10 µs to 10 s. */
+    private static final String[] BUCKETS = {
+            "0.00001", "0.000025", "0.00005", "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005",
+            "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"};
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = Math.round(Double.parseDouble(BUCKETS[i]) * 1e9);
+        }
+    }
+
+    /** Counters of one route. */
+    static final class Route {
+        final String labels;
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+        /** The route's {@code @Cacheable} response cache, or null. */
+        volatile ResponseCache cache;
+
+        Route(String method, String pattern) {
+            labels = "method=\"" + method + "\",route=\"" + escape(pattern) + "\"";
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * @return the counters of {@code method} requests to route {@code pattern}, created on first use
+     */
+    static Route route(String method, String pattern) {
+        return routes.computeIfAbsent(method + " " + pattern, k -> new Route(method, pattern));
+    }
+
+    static void status(int status) {
+        if (status >= 100 && status < 600) {
+            statuses.incrementAndGet(status);
+        }
+    }
+
+    static void connectionOpened() {
+        connections.increment();
+    }
+
+    static void connectionClosed() {
+        connections.decrement();
+    }
+
+    /**
+     * @return every metric in Prometheus text format (version 0.0.4)
+     */
+    public static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "http_server_phase_seconds", "histogram", "Time spent in each phase of a request.");
+        histogram(sb, "http_server_phase_seconds", "phase=\"parse\"", PARSE);
+        histogram(sb, "http_server_phase_seconds", "phase=\"route\"", ROUTE);
+        histogram(sb, "http_server_phase_seconds", "phase=\"invoke\"", INVOKE);
+        histogram(sb, "http_server_phase_seconds", "phase=\"write\"", WRITE);
+
+        header(sb, "http_server_route_requests_total", "counter", "Requests dispatched to each route.");
+        routes.forEach((key, r) -> sample(sb, "http_server_route_requests_total", r.labels, r.requests.sum()));
+        header(sb, "http_server_route_errors_total", "counter", "Requests whose controller failed, by route.");
+        routes.forEach((key, r) -> sample(sb, "http_server_route_errors_total", r.labels, r.errors.sum()));
+        header(sb, "http_server_route_seconds", "histogram", "Controller time by route.");
+        routes.forEach((key, r) -> histogram(sb, "http_server_route_seconds", r.labels, r.latency));
+
+        header(sb, "http_server_responses_total", "counter", "Responses sent, by status code.");
+        for (int status = 100; status < 600; status++) {
+            long n = statuses.get(status);
+            if (n > 0) {
+                sample(sb, "http_server_responses_total", "status=\"" + status + "\"", n);
+            }
+        }
+
+        header(sb, "http_server_connections_active", "gauge", "Open client connections.");
+        sample(sb, "http_server_connections_active", null, connections.sum());
+        header(sb, "http_server_sse_subscribers", "gauge", "Open event stream connections, included in the active connections.");
+        sample(sb, "http_server_sse_subscribers", null, EventHub.subscriberCount());
+        header(sb, "http_server_sse_dropped_total", "counter", "Event stream subscribers dropped for falling behind.");
+        sample(sb, "http_server_sse_dropped_total", null, EventHub.dropped.sum());
+
+        WorkerPool pool = HttpServer.getWorkerPool();
+        if (pool != null) {
+            header(sb, "http_server_workers_active", "gauge", "Worker tasks running.");
+            sample(sb, "http_server_workers_active", null, pool.getActiveCount());
+            header(sb, "http_server_workers_queued", "gauge", "Worker tasks waiting for a thread.");
+            sample(sb, "http_server_workers_queued", null, pool.getQueuedCount());
+            header(sb, "http_server_workers_rejected_total", "counter", "Tasks rejected with 503 because the pool was saturated.");
+            sample(sb, "http_server_workers_rejected_total", null, pool.getRejectedCount());
+        }
+
+        header(sb, "http_server_admission_rejected_total", "counter", "Requests turned away by admission control, by reason.");
+        sample(sb, "http_server_admission_rejected_total", "reason=\"client_rate\"", Admission.clientRejections.sum());
+        sample(sb, "http_server_admission_rejected_total", "reason=\"route_rate\"", Admission.routeRejections.sum());
+        sample(sb, "http_server_admission_rejected_total", "reason=\"concurrency\"", Admission.concurrencyRejections.sum());
+        ConcurrencyLimiter limiter = Admission.concurrency;
+        if (limiter != null) {
+            header(sb, "http_server_concurrency_limit", "gauge", "Controller calls allowed in progress at once.");
+            sample(sb, "http_server_concurrency_limit", null, limiter.getLimit());
+            header(sb, "http_server_concurrency_in_flight", "gauge", "Controller calls in progress.");
+            sample(sb, "http_server_concurrency_in_flight", null, limiter.getInFlight());
+        }
+
+        StaticResourceCache statics = HttpServer.getStaticCache();
+        header(sb, "http_server_static_cache_hits_total", "counter", "Static files served from the cache.");
+        sample(sb, "http_server_static_cache_hits_total", null, statics.getHits());
+        header(sb, "http_server_static_cache_misses_total", "counter", "Static files loaded from the class path.");
+        sample(sb, "http_server_static_cache_misses_total", null, statics.getMisses());
+        header(sb, "http_server_static_cache_evictions_total", "counter", "Static files evicted from the cache.");
+        sample(sb, "http_server_static_cache_evictions_total", null, statics.getEvictions());
+        header(sb, "http_server_static_cache_bytes", "gauge", "Bytes held by the static file cache.");
+        sample(sb, "http_server_static_cache_bytes", null, statics.getBytes());
+
+        header(sb, "http_server_response_cache_hits_total", "counter", "Responses served from a route cache.");
+        routes.forEach((key, r) -> {
+            if (r.cache != null) {
+                sample(sb, "http_server_response_cache_hits_total", r.labels, r.cache.getHits());
+            }
+        });
+        header(sb, "http_server_response_cache_misses_total", "counter", "Route cache misses that called the controller.");
+        routes.forEach((key, r) -> {
+            if (r.cache != null) {
+                sample(sb, "http_server_response_cache_misses_total", r.labels, r.cache.getMisses());
+            }
+        });
+        header(sb, "http_server_response_cache_evictions_total", "counter", "Responses evicted from a route cache.");
+        routes.forEach((key, r) -> {
+            if (r.cache != null) {
+                sample(sb, "http_server_response_cache_evictions_total", r.labels, r.cache.getEvictions());
+            }
+        });
+
+        header(sb, "http_server_access_log_dropped_total", "counter", "Access log lines dropped because the log queue was full.");
+        sample(sb, "http_server_access_log_dropped_total", null, AccessLog.getDropped());
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Cumulative {@code _bucket} series, which Prometheus can aggregate across instances and turn
+     * into any quantile with {@code histogram_quantile}, then {@code _sum} and {@code _count}.
+     */
+    private static void histogram(StringBuilder sb, String name, String labels, LatencyHistogram h) {
+        long[] cumulative = h.cumulativeCounts(BUCKET_NANOS);
+        for (int i = 0; i < BUCKETS.length; i++) {
+            sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(BUCKETS[i]).append("\"} ")
+                    .append(cumulative[i]).append('\n');
+        }
+        long count = cumulative[BUCKETS.length];
+        sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+        sb.append(name).append("_sum{").append(labels).append("} ").append(seconds(h.getSum())).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,775 @@
+package com.example.demo.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking engine: a small set of event-loop threads multiplex every connection with one
+ * {@link Selector} each. Requests are parsed incrementally from a direct buffer per connection
+ * and complete requests are handed to the worker pool, so a slow controller never stalls a loop.
+ * A request body is read by the loop before the request is handed over. Once it outgrows
+ * {@code server.http.bodyMemoryBytes}, each buffer of it is written to its temporary file by a
+ * worker while the loop stops reading the connection, so file I/O never runs on a loop.
+ * A request whose controller returned a pending {@code CompletionStage} holds neither a loop nor a
+ * worker thread until its result is ready.
+ */
+class NioEngine implements ServerEngine {
+
+    private final WorkerPool workers;
+    private final EventLoop[] loops;
+    private volatile boolean running = true;
+    private final List<ServerSocketChannel> channels = new CopyOnWriteArrayList<>();
+    /** Whether every loop accepts, in which case each keeps the connections it accepts. */
+    private boolean acceptLocally;
+
+    NioEngine(int loopCount, WorkerPool workers) {
+        this.workers = workers;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+    }
+
+    /**
+     * The first {@code server.acceptors} loops accept on every listener, either sharing its socket
+     * or, with {@code server.reusePort}, each with its own socket that the kernel balances.
+     */
+    @Override
+    public void serve(List<InetSocketAddress> addresses) throws IOException {
+        boolean reusePort = Listeners.reusePort();
+        int acceptors = Math.min(loops.length, Math.max(1, ServerConfig.acceptors));
+        acceptLocally = acceptors == loops.length && loops.length > 1;
+        boolean started = false;
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+            }
+            StringBuilder bound = new StringBuilder();
+            for (InetSocketAddress address : addresses) {
+                ServerSocketChannel channel = null;
+                for (int i = 0; i < acceptors; i++) {
+                    if (channel == null || reusePort) {
+                        channel = Listeners.open(address, reusePort);
+                        channel.configureBlocking(false);
+                        channels.add(channel);
+                    }
+                    channel.register(loops[i].selector, SelectionKey.OP_ACCEPT);
+                }
+                bound.append(bound.length() > 0 ? ", " : "").append(Listeners.describe(channel));
+            }
+            System.out.println("Concurrent server started on " + bound + " (nio engine, " + loops.length + " event loops, "
+                    + acceptors + " accepting" + (reusePort ? ", SO_REUSEPORT" : "") + ")");
+
+            Thread[] threads = new Thread[loops.length];
+            for (int i = 0; i < loops.length; i++) {
+                threads[i] = new Thread(loops[i], "nio-loop-" + i);
+                threads[i].start();
+            }
+            started = true;
+            Startup.ready();
+            for (Thread t : threads) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            for (ServerSocketChannel channel : channels) {
+                channel.close();
+            }
+            if (!started) {
+                // a listener could not be bound; the loops never ran to close their selectors
+                for (EventLoop loop : loops) {
+                    if (loop != null) {
+                        loop.selector.close();
+                    }
+                }
+            }
+            workers.shutdown();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * One selector thread. An accepting loop deals the connections it accepts round-robin to all
+     * loops, unless every loop accepts.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<Connection> connections = new HashSet<>();
+        private int nextLoop;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Run a task on this loop's thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                            continue;
+                        }
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                c.onReadable();
+                            } else if (key.isWritable()) {
+                                c.onWritable();
+                            }
+                        } catch (IOException e) {
+                            c.close();
+                        }
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= 1000) {
+                        lastSweep = now;
+                        closeIdle(now);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Event loop failed: " + e.getMessage());
+            } finally {
+                for (Connection c : connections.toArray(new Connection[0])) {
+                    c.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        /**
+         * Accept up to {@code server.nio.acceptBatch} connections, so a burst of connects does not
+         * hold up the requests of connections this loop already serves; the rest are accepted on
+         * the next wake-up.
+         */
+        private void accept(ServerSocketChannel server) {
+            for (int i = 0; i < ServerConfig.acceptBatch; i++) {
+                SocketChannel ch;
+                try {
+                    ch = server.accept();
+                } catch (IOException e) {
+                    // e.g. out of file descriptors; the listener stays registered
+                    System.err.println("Accept failed: " + e.getMessage());
+                    return;
+                }
+                if (ch == null) {
+                    return;
+                }
+                EventLoop target = this;
+                if (!acceptLocally) {
+                    target = loops[nextLoop];
+                    nextLoop = (nextLoop + 1) % loops.length;
+                }
+                if (target == this) {
+                    register(ch);
+                } else {
+                    target.execute(() -> register(ch));
+                }
+            }
+        }
+
+        private void register(SocketChannel ch) {
+            try {
+                ch.configureBlocking(false);
+                Listeners.configure(ch.socket());
+                int clientKey = Admission.clientKey(ch.getRemoteAddress());
+                if (!Admission.admitConnection(clientKey)) {
+                    // small enough for the empty send buffer of a new connection
+                    ch.write(Admission.tooManyRequests());
+                    ch.close();
+                    return;
+                }
+                Connection c = new Connection(this, ch, clientKey);
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                connections.add(c);
+                Metrics.connectionOpened();
+            } catch (IOException e) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void closeIdle(long now) {
+            for (Connection c : connections.toArray(new Connection[0])) {
+                if (!c.inFlight && !c.storingBody && c.out == null && now - c.lastActive > ServerConfig.keepAliveTimeoutMs) {
+                    c.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-connection state. Only one request is in flight at a time; pipelined requests stay in
+     * the read buffer until the previous response has been written, which keeps them in order.
+     */
+    private final class Connection {
+
+        private final EventLoop loop;
+        private final SocketChannel ch;
+        private final int clientKey;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(HttpRequestParser.bufferSize());
+        private final HttpRequestParser parser = HttpRequestParser.create();
+        private int readIndex;
+        private boolean parsing;
+        /** Time spent parsing the current head so far, across reads. */
+        private long parseNanos;
+        private SelectionKey key;
+        private ByteBuffer out;
+        private FileChannel outFile;
+        private long outFilePosition;
+        private long outFileRemaining;
+        private CompletableFuture<Void> partWritten;
+        private boolean inFlight;
+        private boolean closeAfterWrite;
+        /** A request whose body is still arriving. */
+        private HttpRequest bodyRequest;
+        /** Body of the current request, kept until its response has been written. */
+        private SpooledBody body;
+        /** Whether a worker is writing buffered body bytes to the body's temporary file. */
+        private boolean storingBody;
+        private int served;
+        private long lastActive = System.currentTimeMillis();
+
+        Connection(EventLoop loop, SocketChannel ch, int clientKey) {
+            this.loop = loop;
+            this.ch = ch;
+            this.clientKey = clientKey;
+        }
+
+        void onReadable() throws IOException {
+            int n = ch.read(in);
+            if (n == -1) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            processInput();
+        }
+
+        void onWritable() throws IOException {
+            ch.write(out);
+            if (out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (outFile != null) {
+                long n;
+                while (outFileRemaining > 0 && (n = outFile.transferTo(outFilePosition, outFileRemaining, ch)) > 0) {
+                    outFilePosition += n;
+                    outFileRemaining -= n;
+                }
+                if (outFileRemaining > 0) {
+                    if (outFilePosition >= outFile.size()) {
+                        throw new EOFException("File truncated");
+                    }
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                outFile.close();
+                outFile = null;
+            }
+            out = null;
+            if (partWritten != null) {
+                // a streamed part is out; the worker writes the rest of the response
+                CompletableFuture<Void> written = partWritten;
+                partWritten = null;
+                key.interestOps(0);
+                written.complete(null);
+                return;
+            }
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            key.interestOps(SelectionKey.OP_READ);
+            processInput();
+        }
+
+        /**
+         * Consume as much buffered input as possible: read the body of the current request, then
+         * dispatch the next request once its head is complete. Parsing resumes where it stopped
+         * when a head arrives in several reads.
+         */
+        private void processInput() {
+            if (inFlight || storingBody || out != null) {
+                return;
+            }
+            int limit = in.position();
+            if (bodyRequest != null) {
+                if (!readBody(limit)) {
+                    if (bodyRequest != null && !storingBody) {
+                        compactInput();
+                    }
+                    return;
+                }
+                HttpRequest req = bodyRequest;
+                bodyRequest = null;
+                execute(req);
+                return;
+            }
+            if (!parsing) {
+                if (readIndex == limit) {
+                    in.clear();
+                    readIndex = 0;
+                    return;
+                }
+                parser.reset(readIndex);
+                parsing = true;
+                parseNanos = 0;
+            }
+
+            HttpRequest req;
+            long parsed;
+            long parseStart = System.nanoTime();
+            try {
+                if (!parser.parse(in, limit)) {
+                    parseNanos += System.nanoTime() - parseStart;
+                    if (limit == in.capacity()) {
+                        if (readIndex == 0) {
+                            throw new HttpRequestParser.ParseException(431, "Request head too large");
+                        }
+                        compactInput();
+                    }
+                    return;
+                }
+                req = parser.request(in);
+                parsed = System.nanoTime();
+                Metrics.PARSE.record(parseNanos + parsed - parseStart);
+            } catch (HttpRequestParser.ParseException e) {
+                parsing = false;
+                respondNow(e.status, e.getMessage());
+                return;
+            } catch (IllegalArgumentException e) {
+                parsing = false;
+                respondNow(400, "Bad Request");
+                return;
+            }
+            readIndex = parser.headEnd();
+            parsing = false;
+            dispatch(req, parsed);
+        }
+
+        /**
+         * Move the unconsumed bytes to the start of the buffer. A partly parsed head is scanned
+         * again from its start on the next call.
+         */
+        private void compactInput() {
+            int limit = in.position();
+            in.limit(limit).position(readIndex);
+            in.compact();
+            readIndex = 0;
+            parsing = false;
+        }
+
+        /**
+         * Run the request on a worker, unless its client is over its rate. The request is a view
+         * over {@link #in}, which is left untouched until the response has been written.
+         *
+         * @param parsed {@link System#nanoTime()} when the head was parsed
+         */
+        private void dispatch(HttpRequest req, long parsed) {
+            if (!Admission.admitRequest(clientKey, parsed)) {
+                inFlight = true;
+                loop.execute(() -> respond(Admission.tooManyRequests(), false));
+                return;
+            }
+            try {
+                body = SpooledBody.forRequest(req);
+            } catch (HttpRequestParser.ParseException e) {
+                respondNow(e.status, e.getMessage());
+                return;
+            }
+            if (body != null) {
+                req.body = body;
+                bodyRequest = req;
+                if (readIndex == in.position() && req.expectsContinue()) {
+                    try {
+                        // nothing is being written between requests, so this fits the send buffer
+                        ch.write(ByteBuffer.wrap(SpooledBody.CONTINUE));
+                    } catch (IOException e) {
+                        close();
+                        return;
+                    }
+                }
+                if (!readBody(in.position())) {
+                    if (bodyRequest != null) {
+                        // the read buffer is compacted while the rest of the body arrives
+                        req.detach();
+                        if (!storingBody) {
+                            compactInput();
+                        }
+                    }
+                    return;
+                }
+                bodyRequest = null;
+            }
+            execute(req);
+        }
+
+        /**
+         * Feed the buffered bytes to the body of {@link #bodyRequest}; a body that is refused or
+         * cannot be stored is answered and ends the connection. Bytes that would go to the
+         * temporary file are handed to a worker instead, see {@link #storeBody}.
+         *
+         * @return whether the body is complete
+         */
+        private boolean readBody(int limit) {
+            if (!body.fitsInMemory(limit - readIndex)) {
+                storeBody(limit);
+                return false;
+            }
+            try {
+                readIndex += body.feed(in, readIndex, limit);
+            } catch (HttpRequestParser.ParseException e) {
+                bodyRequest = null;
+                respondNow(e.status, e.getMessage());
+                return false;
+            } catch (IOException e) {
+                System.err.println("Could not store request body: " + e.getMessage());
+                bodyRequest = null;
+                respondNow(500, "Internal Server Error");
+                return false;
+            }
+            return body.isComplete();
+        }
+
+        /**
+         * Have a worker feed the buffered bytes up to {@code limit} to the body, which writes them
+         * to its temporary file. The loop neither reads nor touches {@link #in} until the worker
+         * is done, then continues in {@link #bodyStored}.
+         */
+        private void storeBody(int limit) {
+            SpooledBody spooled = body;
+            // the head may be detached from the buffer meanwhile, which moves its position
+            ByteBuffer buffered = in.duplicate();
+            int from = readIndex;
+            storingBody = true;
+            key.interestOps(0);
+            boolean accepted = workers.execute(() -> {
+                int taken = 0;
+                Exception failure = null;
+                try {
+                    taken = spooled.feed(buffered, from, limit);
+                } catch (HttpRequestParser.ParseException | IOException e) {
+                    failure = e;
+                }
+                if (!ch.isOpen()) {
+                    // closed meanwhile, perhaps with its loop stopped
+                    spooled.release();
+                    return;
+                }
+                int stored = taken;
+                Exception error = failure;
+                loop.execute(() -> bodyStored(stored, error));
+            });
+            if (!accepted) {
+                storingBody = false;
+                bodyRequest = null;
+                respondNow(503, "Service Unavailable");
+            }
+        }
+
+        /**
+         * Continue after a worker fed {@code taken} bytes to the body: run the request once the
+         * body is complete, otherwise read more of it.
+         */
+        private void bodyStored(int taken, Exception error) {
+            storingBody = false;
+            if (!key.isValid()) {
+                // closed meanwhile; the body was left for this call to release
+                releaseBody();
+                return;
+            }
+            if (error instanceof HttpRequestParser.ParseException e) {
+                bodyRequest = null;
+                respondNow(e.status, e.getMessage());
+                return;
+            }
+            if (error != null) {
+                System.err.println("Could not store request body: " + error.getMessage());
+                bodyRequest = null;
+                respondNow(500, "Internal Server Error");
+                return;
+            }
+            readIndex += taken;
+            if (body.isComplete()) {
+                HttpRequest req = bodyRequest;
+                bodyRequest = null;
+                execute(req);
+                return;
+            }
+            compactInput();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void execute(HttpRequest req) {
+            served++;
+            boolean keepAlive = running && req.isKeepAlive() && served < ServerConfig.maxRequestsPerConnection;
+
+            inFlight = true;
+            key.interestOps(0);
+            boolean requestKeepAlive = keepAlive;
+            boolean accepted = workers.execute(() -> {
+                ResponseBuffer response = new ResponseBuffer(this);
+                CompletableFuture<Boolean> outcome;
+                try {
+                    outcome = HttpServer.handleRequestAsync(req, response, requestKeepAlive);
+                } catch (Exception e) {
+                    outcome = CompletableFuture.failedFuture(e);
+                }
+                // a pending controller result frees the worker; the response follows when it completes
+                outcome.whenComplete((reuse, error) -> {
+                    if (error != null) {
+                        System.err.println("Error handling client request: " + error.getMessage());
+                        response.closeFile();
+                        loop.execute(this::close);
+                    } else {
+                        loop.execute(() -> respond(response, reuse));
+                    }
+                });
+            });
+            if (!accepted) {
+                respondNow(503, "Service Unavailable");
+            }
+        }
+
+        private void respondNow(int status, String message) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try {
+                HttpServer.writeResponse(response, status, "text/plain", message, false);
+            } catch (IOException e) {
+            }
+            inFlight = true;
+            loop.execute(() -> respond(ByteBuffer.wrap(response.toByteArray()), false));
+        }
+
+        /**
+         * Write part of a response that is still being produced, keeping the request in flight;
+         * {@code written} completes once the part is out.
+         */
+        private void sendPart(ByteBuffer part, CompletableFuture<Void> written) {
+            if (!key.isValid()) {
+                written.completeExceptionally(new IOException("Connection closed"));
+                return;
+            }
+            out = part;
+            partWritten = written;
+            try {
+                onWritable();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void respond(ResponseBuffer response, boolean keepAlive) {
+            if (response.handoff != null) {
+                handOff(response);
+                return;
+            }
+            outFile = response.file;
+            outFilePosition = response.filePosition;
+            outFileRemaining = response.fileCount;
+            respond(response.toBuffer(), keepAlive);
+        }
+
+        private void respond(ByteBuffer buf, boolean keepAlive) {
+            releaseBody();
+            inFlight = false;
+            out = buf;
+            closeAfterWrite = !keepAlive;
+            if (!key.isValid()) {
+                close();
+                return;
+            }
+            try {
+                onWritable();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Give the channel to the handler of the response, after anything the response buffered;
+         * the loop forgets the connection without closing it.
+         */
+        private void handOff(ResponseBuffer response) {
+            releaseBody();
+            inFlight = false;
+            loop.connections.remove(this);
+            key.cancel();
+            try {
+                ByteBuffer buffered = response.toBuffer();
+                while (buffered.hasRemaining()) {
+                    // an event stream writes nothing itself; this is never more than a send buffer
+                    if (ch.write(buffered) == 0) {
+                        throw new IOException("Send buffer full");
+                    }
+                }
+            } catch (IOException e) {
+                Metrics.connectionClosed();
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+            response.handoff.accept(ch);
+        }
+
+        private void releaseBody() {
+            if (body != null) {
+                body.release();
+                body = null;
+            }
+        }
+
+        void close() {
+            if (!storingBody) {
+                releaseBody();
+            }
+            if (loop.connections.remove(this)) {
+                Metrics.connectionClosed();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                ch.close();
+                if (outFile != null) {
+                    outFile.close();
+                    outFile = null;
+                }
+            } catch (IOException e) {
+            }
+            if (partWritten != null) {
+                partWritten.completeExceptionally(new IOException("Connection closed"));
+                partWritten = null;
+            }
+        }
+    }
+
+    /**
+     * Response written by a worker: the bytes, plus at most one file region the event loop sends
+     * after them with {@link FileChannel#transferTo}. A streamed response flushes its parts as it
+     * goes; each flush waits until the event loop has written the part, so a slow client holds
+     * back the worker rather than filling the heap. An event stream takes the connection over
+     * once the response is handled.
+     */
+    private static final class ResponseBuffer extends ByteArrayOutputStream implements FileSender, StreamHandoff {
+
+        private final Connection connection;
+        private Consumer<SocketChannel> handoff;
+        private FileChannel file;
+        private long filePosition;
+        private long fileCount;
+
+        ResponseBuffer(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            ByteBuffer part = ByteBuffer.wrap(buf, 0, count);
+            connection.loop.execute(() -> connection.sendPart(part, written));
+            try {
+                written.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing response");
+            } catch (ExecutionException e) {
+                throw new IOException("Could not write response", e.getCause());
+            }
+            // the part is written, so the array can be refilled
+            reset();
+        }
+
+        @Override
+        public void sendFile(FileChannel file, long position, long count) throws IOException {
+            if (this.file != null) {
+                file.close();
+                throw new IllegalStateException("Response already has a file body");
+            }
+            this.file = file;
+            this.filePosition = position;
+            this.fileCount = count;
+        }
+
+        @Override
+        public void handOff(Consumer<SocketChannel> target) {
+            this.handoff = target;
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        void closeFile() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,489 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Binds one controller parameter from the request, converting the decoded text of its query,
+ * form or path value to the parameter's type. The binder and its converter are chosen once per
+ * parameter when the route is registered, so a request only runs the conversion itself:
+ * <ul>
+ * <li>{@code String}, primitives and their boxes, and enums (by constant name, ignoring case)</li>
+ * <li>{@code List<T>} of those, from the repeated values of a parameter</li>
+ * <li>records, each component bound from the parameter with the component's name</li>
+ * </ul>
+ * The request body binds to a {@code String}, {@code byte[]}, {@code InputStream} or
+ * {@code ReadableByteChannel}.
+ * A value that does not convert, or a missing primitive without a default, fails with
+ * {@link BindException}, which the server answers with 400.
+ */
+abstract class ParamBinder {
+
+    /** The {@code defaultValue} of a {@code @RequestParam} that does not declare one. */
+    static final String NO_DEFAULT = "Default";
+
+    /** A request value that cannot be bound; the message is sent to the client. */
+    static final class BindException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BindException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /** Text to value conversion of a single, non-empty value. */
+    @FunctionalInterface
+    interface Converter {
+        Object convert(String value) throws IllegalArgumentException;
+    }
+
+    /**
+     * @return the argument for the parameter
+     * @throws BindException if the request value cannot be converted
+     */
+    abstract Object bind(HttpRequest req) throws BindException;
+
+    /**
+     * Append the request values this binder reads to {@code key}, length-prefixed so that values
+     * containing the separator cannot collide.
+     */
+    abstract void appendKey(HttpRequest req, StringBuilder key);
+
+    /**
+     * @param name request parameter name
+     * @param type declared type of the controller parameter
+     * @param genericType its generic type, for the element type of a list
+     * @param defaultValue text used when the request does not have the parameter, or
+     * {@link #NO_DEFAULT}
+     * @throws IllegalArgumentException if the type is not supported or the default does not convert
+     */
+    static ParamBinder forParam(String name, Class<?> type, Type genericType, String defaultValue) {
+        if (type.isRecord()) {
+            return new RecordBinder(type);
+        }
+        if (type == List.class || type == Collection.class || type == Iterable.class) {
+            Class<?> element = String.class;
+            if (genericType instanceof ParameterizedType pt && pt.getActualTypeArguments()[0] instanceof Class<?> c) {
+                element = c;
+            }
+            return forList(name, element, defaultValue);
+        }
+        if (type == int.class || type == Integer.class || type == long.class || type == Long.class) {
+            return new NumberBinder(name, type, converter(type), defaultValue);
+        }
+        return new ValueBinder(name, type, converter(type), defaultValue);
+    }
+
+    /**
+     * A list parameter with elements of type {@code element}.
+     *
+     * @throws IllegalArgumentException as {@link #forParam}
+     */
+    static ParamBinder forList(String name, Class<?> element, String defaultValue) {
+        return new ListBinder(name, element, converter(element), defaultValue);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    static ParamBinder forPathVariable(String name, Class<?> type) {
+        return new PathBinder(name, type, converter(type));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body cannot be bound to {@code type}
+     */
+    static ParamBinder forBody(Class<?> type) {
+        if (type != String.class && type != byte[].class && type != InputStream.class && type != ReadableByteChannel.class) {
+            throw new IllegalArgumentException("Unsupported body type " + type.getName()
+                    + ": expected String, byte[], InputStream or ReadableByteChannel");
+        }
+        return new BodyBinder(type);
+    }
+
+    /**
+     * @return the converter to {@code type}
+     * @throws IllegalArgumentException if {@code type} is not a supported value type
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Converter converter(Class<?> type) {
+        if (type.isAssignableFrom(String.class)) {
+            return s -> s;
+        }
+        if (type == int.class || type == Integer.class) {
+            return Integer::valueOf;
+        }
+        if (type == long.class || type == Long.class) {
+            return Long::valueOf;
+        }
+        if (type == double.class || type == Double.class) {
+            return Double::valueOf;
+        }
+        if (type == float.class || type == Float.class) {
+            return Float::valueOf;
+        }
+        if (type == short.class || type == Short.class) {
+            return Short::valueOf;
+        }
+        if (type == byte.class || type == Byte.class) {
+            return Byte::valueOf;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return ParamBinder::parseBoolean;
+        }
+        if (type == char.class || type == Character.class) {
+            return s -> {
+                if (s.length() != 1) {
+                    throw new IllegalArgumentException();
+                }
+                return s.charAt(0);
+            };
+        }
+        if (type.isEnum()) {
+            Map<String, Object> constants = new HashMap<>();
+            for (Object constant : type.getEnumConstants()) {
+                constants.put(((Enum) constant).name().toUpperCase(Locale.ROOT), constant);
+            }
+            return s -> {
+                Object constant = constants.get(s);
+                if (constant == null) {
+                    constant = constants.get(s.toUpperCase(Locale.ROOT));
+                }
+                if (constant == null) {
+                    throw new IllegalArgumentException();
+                }
+                return constant;
+            };
+        }
+        throw new IllegalArgumentException("Unsupported parameter type " + type.getName());
+    }
+
+    /** Same words as {@link QueryParameters#getBoolean}, but anything else is an error. */
+    private static Boolean parseBoolean(String s) {
+        if (s.equalsIgnoreCase("true") || s.equalsIgnoreCase("on") || s.equals("1") || s.equalsIgnoreCase("yes")) {
+            return Boolean.TRUE;
+        }
+        if (s.equalsIgnoreCase("false") || s.equalsIgnoreCase("off") || s.equals("0") || s.equalsIgnoreCase("no")) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException();
+    }
+
+    private static String typeName(Class<?> type) {
+        if (type.isEnum()) {
+            StringBuilder sb = new StringBuilder("one of ");
+            Object[] constants = type.getEnumConstants();
+            for (int i = 0; i < constants.length; i++) {
+                sb.append(i > 0 ? ", " : "").append(((Enum<?>) constants[i]).name());
+            }
+            return sb.toString();
+        }
+        return type == Integer.class ? "int" : type == Character.class ? "char" : type.getSimpleName().toLowerCase(Locale.ROOT);
+    }
+
+    private static Object convert(Converter converter, String value, Class<?> type, String what) throws BindException {
+        try {
+            return converter.convert(value);
+        } catch (IllegalArgumentException e) {
+            throw new BindException("Invalid " + what + ": expected " + typeName(type));
+        }
+    }
+
+    private static void appendValue(StringBuilder key, String value) {
+        if (value == null) {
+            key.append("-;");
+        } else {
+            key.append(value.length()).append(':').append(value).append(';');
+        }
+    }
+
+    /** A single value; an empty value counts as missing for everything but strings. */
+    private static final class ValueBinder extends ParamBinder {
+
+        private final String name;
+        private final Class<?> type;
+        private final Converter converter;
+        private final Object defaultValue;
+        private final boolean textual;
+
+        ValueBinder(String name, Class<?> type, Converter converter, String defaultText) {
+            this.name = name;
+            this.type = type;
+            this.converter = converter;
+            this.textual = type.isAssignableFrom(String.class);
+            if (textual) {
+                // strings have always received the annotation's default, declared or not
+                this.defaultValue = defaultText;
+            } else if (defaultText == null || defaultText.equals(NO_DEFAULT)) {
+                this.defaultValue = null;
+            } else {
+                try {
+                    this.defaultValue = converter.convert(defaultText);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("defaultValue \"" + defaultText + "\" of " + name
+                            + " is not a valid " + typeName(type));
+                }
+            }
+        }
+
+        @Override
+        Object bind(HttpRequest req) throws BindException {
+            String value = req.getValue(name);
+            if (value != null && value.isEmpty() && (type == boolean.class || type == Boolean.class)) {
+                // a bare flag, as in QueryParameters.getBoolean
+                return Boolean.TRUE;
+            }
+            if (value == null || (value.isEmpty() && !textual)) {
+                if (defaultValue == null && type.isPrimitive()) {
+                    throw new BindException("Missing parameter " + name);
+                }
+                return defaultValue;
+            }
+            return convert(converter, value, type, "parameter " + name);
+        }
+
+        @Override
+        void appendKey(HttpRequest req, StringBuilder key) {
+            appendValue(key, req.getValue(name));
+        }
+    }
+
+    /**
+     * An {@code int} or {@code long} value, parsed in place from the query string or form body by
+     * {@link QueryParameters#getInt} and {@link QueryParameters#getLong}, so a plain number is not
+     * copied into a String first. Missing and empty values behave as in {@link ValueBinder}.
+     */
+    private static final class NumberBinder extends ParamBinder {
+
+        private final String name;
+        private final Class<?> type;
+        private final boolean isLong;
+        private final Object defaultValue;
+
+        NumberBinder(String name, Class<?> type, Converter converter, String defaultText) {
+            this.name = name;
+            this.type = type;
+            this.isLong = type == long.class || type == Long.class;
+            if (defaultText == null || defaultText.equals(NO_DEFAULT)) {
+                this.defaultValue = null;
+            } else {
+                try {
+                    this.defaultValue = converter.convert(defaultText);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("defaultValue \"" + defaultText + "\" of " + name
+                            + " is not a valid " + typeName(type));
+                }
+            }
+        }
+
+        @Override
+        Object bind(HttpRequest req) throws BindException {
+            QueryParameters params = req.getQueryParameters();
+            int length = params.valueLength(name);
+            if (length < 0) {
+                params = req.getFormParameters();
+                length = params.valueLength(name);
+            }
+            if (length <= 0) {
+                if (defaultValue == null && type.isPrimitive()) {
+                    throw new BindException("Missing parameter " + name);
+                }
+                return defaultValue;
+            }
+            try {
+                // the argument array holds objects, so the value is boxed here either way
+                return isLong ? (Object) params.getLong(name, 0L) : (Object) params.getInt(name, 0);
+            } catch (NumberFormatException e) {
+                throw new BindException("Invalid parameter " + name + ": expected " + typeName(type));
+            }
+        }
+
+        @Override
+        void appendKey(HttpRequest req, StringBuilder key) {
+            appendValue(key, req.getValue(name));
+        }
+    }
+
+    /** Every value of a repeated parameter, or the comma-separated default when there is none. */
+    private static final class ListBinder extends ParamBinder {
+
+        private final String name;
+        private final Class<?> element;
+        private final Converter converter;
+        private final List<Object> defaultValue;
+
+        ListBinder(String name, Class<?> element, Converter converter, String defaultText) {
+            this.name = name;
+            this.element = element;
+            this.converter = converter;
+            if (defaultText == null || defaultText.equals(NO_DEFAULT)) {
+                this.defaultValue = List.of();
+            } else {
+                List<Object> values = new ArrayList<>();
+                for (String s : defaultText.split(",")) {
+                    try {
+                        values.add(converter.convert(s.trim()));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("defaultValue \"" + defaultText + "\" of " + name
+                                + " is not a list of " + typeName(element));
+                    }
+                }
+                this.defaultValue = List.copyOf(values);
+            }
+        }
+
+        @Override
+        Object bind(HttpRequest req) throws BindException {
+            List<String> values = req.getValues(name);
+            if (values.isEmpty()) {
+                return defaultValue;
+            }
+            List<Object> list = new ArrayList<>(values.size());
+            for (String value : values) {
+                list.add(convert(converter, value, element, "parameter " + name));
+            }
+            return list;
+        }
+
+        @Override
+        void appendKey(HttpRequest req, StringBuilder key) {
+            List<String> values = req.getValues(name);
+            key.append(values.size()).append('[');
+            for (String value : values) {
+                appendValue(key, value);
+            }
+        }
+    }
+
+    /** A record built with its canonical constructor from one binder per component. */
+    private static final class RecordBinder extends ParamBinder {
+
+        private final Class<?> type;
+        private final ParamBinder[] components;
+        private final MethodHandle constructor;
+
+        RecordBinder(Class<?> type) {
+            this.type = type;
+            RecordComponent[] rc = type.getRecordComponents();
+            components = new ParamBinder[rc.length];
+            Class<?>[] types = new Class<?>[rc.length];
+            for (int i = 0; i < rc.length; i++) {
+                types[i] = rc[i].getType();
+                if (types[i].isRecord()) {
+                    throw new IllegalArgumentException("Nested record " + types[i].getName() + " in " + type.getName());
+                }
+                components[i] = forParam(rc[i].getName(), types[i], rc[i].getGenericType(), NO_DEFAULT);
+            }
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+                constructor = lookup.findConstructor(type, MethodType.methodType(void.class, types))
+                        .asSpreader(Object[].class, rc.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("No accessible canonical constructor in " + type.getName(), e);
+            }
+        }
+
+        @Override
+        Object bind(HttpRequest req) throws BindException {
+            Object[] args = new Object[components.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = components[i].bind(req);
+            }
+            try {
+                return (Object) constructor.invokeExact(args);
+            } catch (RuntimeException e) {
+                // the record rejected the values, e.g. in a compact constructor
+                throw new BindException("Invalid " + type.getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+            } catch (Throwable t) {
+                throw new IllegalStateException("Could not construct " + type.getName(), t);
+            }
+        }
+
+        @Override
+        void appendKey(HttpRequest req, StringBuilder key) {
+            for (ParamBinder component : components) {
+                component.appendKey(req, key);
+            }
+        }
+    }
+
+    /** The request body, empty when the request has none. */
+    private static final class BodyBinder extends ParamBinder {
+
+        private final Class<?> type;
+
+        BodyBinder(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        Object bind(HttpRequest req) {
+            SpooledBody body = req.body;
+            if (type == InputStream.class) {
+                return req.getBody();
+            }
+            if (type == ReadableByteChannel.class) {
+                return req.getBodyChannel();
+            }
+            try {
+                if (type == String.class) {
+                    return body != null ? body.text(StandardCharsets.UTF_8) : "";
+                }
+                return body != null ? body.bytes() : new byte[0];
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read request body", e);
+            }
+        }
+
+        @Override
+        void appendKey(HttpRequest req, StringBuilder key) {
+            // routes that take the body are not cached
+            key.append("-;");
+        }
+    }
+
+    /** A path variable; the route always has a value for it. */
+    private static final class PathBinder extends ParamBinder {
+
+        private final String name;
+        private final Class<?> type;
+        private final Converter converter;
+
+        PathBinder(String name, Class<?> type, Converter converter) {
+            this.name = name;
+            this.type = type;
+            this.converter = converter;
+        }
+
+        @Override
+        Object bind(HttpRequest req) throws BindException {
+            String value = req.getPathVariable(name);
+            if (value == null) {
+                return null;
+            }
+            return convert(converter, value, type, "path variable " + name);
+        }
+
+        @Override
+        void appendKey(HttpRequest req, StringBuilder key) {
+            appendValue(key, req.getPathVariable(name));
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.example.demo.httpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parameters of a query string or of an {@code application/x-www-form-urlencoded} body.
+ * <p>
+ * The raw string is scanned once into an index of key/value offsets; names are compared against
+ * the raw text and values are only percent-decoded when they are read. A name may appear several
+ * times, and a pair without {@code '='} has an empty value.
+ */
+public final class QueryParameters {
+
+    static final QueryParameters EMPTY = new QueryParameters("");
+
+    private final String raw;
+    // per pair: keyStart, keyEnd, valueStart, valueEnd
+    private int[] index = new int[16];
+    private int count;
+
+    private QueryParameters(String raw) {
+        this.raw = raw;
+        int len = raw.length();
+        int start = 0;
+        while (start <= len) {
+            int end = raw.indexOf('&', start);
+            if (end < 0) {
+                end = len;
+            }
+            if (end > start) {
+                int eq = raw.indexOf('=', start);
+                if (eq < 0 || eq > end) {
+                    add(start, end, end, end);
+                } else {
+                    add(start, eq, eq + 1, end);
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @param raw the encoded query string or form body, may be null
+     */
+    public static QueryParameters parse(String raw) {
+        return raw == null || raw.isEmpty() ? EMPTY : new QueryParameters(raw);
+    }
+
+    private void add(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        int i = count * 4;
+        if (i + 4 > index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[i] = keyStart;
+        index[i + 1] = keyEnd;
+        index[i + 2] = valueStart;
+        index[i + 3] = valueEnd;
+        count++;
+    }
+
+    /** Number of name/value pairs, counting repeated names. */
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(String name) {
+        return find(name, 0) >= 0;
+    }
+
+    /**
+     * @return the first decoded value of {@code name}, or null if it is absent
+     */
+    public String get(String name) {
+        int i = find(name, 0);
+        return i < 0 ? null : decode(index[i * 4 + 2], index[i * 4 + 3]);
+    }
+
+    /**
+     * @return every decoded value of {@code name}, in order; empty if it is absent
+     */
+    public List<String> getAll(String name) {
+        int i = find(name, 0);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>(2);
+        for (; i >= 0; i = find(name, i + 1)) {
+            values.add(decode(index[i * 4 + 2], index[i * 4 + 3]));
+        }
+        return values;
+    }
+
+    /** Decoded names, without repeats, in order of first appearance. */
+    public Set<String> names() {
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            names.add(decode(index[i * 4], index[i * 4 + 1]));
+        }
+        return names;
+    }
+
+    /**
+     * @return the first value of {@code name} as an int, or {@code defaultValue} if it is absent
+     * @throws NumberFormatException if the value is not an int
+     */
+    public int getInt(String name, int defaultValue) {
+        int i = find(name, 0);
+        if (i < 0) {
+            return defaultValue;
+        }
+        int start = index[i * 4 + 2];
+        int end = index[i * 4 + 3];
+        return isPlain(start, end) ? Integer.parseInt(raw, start, end, 10) : Integer.parseInt(decode(start, end));
+    }
+
+    /**
+     * @return the first value of {@code name} as a long, or {@code defaultValue} if it is absent
+     * @throws NumberFormatException if the value is not a long
+     */
+    public long getLong(String name, long defaultValue) {
+        int i = find(name, 0);
+        if (i < 0) {
+            return defaultValue;
+        }
+        int start = index[i * 4 + 2];
+        int end = index[i * 4 + 3];
+        return isPlain(start, end) ? Long.parseLong(raw, start, end, 10) : Long.parseLong(decode(start, end));
+    }
+
+    /**
+     * @return the length of the first raw value of {@code name}, or -1 if it is absent
+     */
+    int valueLength(String name) {
+        int i = find(name, 0);
+        return i < 0 ? -1 : index[i * 4 + 3] - index[i * 4 + 2];
+    }
+
+    /**
+     * @return the first value of {@code name} as a double, or {@code defaultValue} if it is absent
+     * @throws NumberFormatException if the value is not a number
+     */
+    public double getDouble(String name, double defaultValue) {
+        String v = get(name);
+        return v == null ? defaultValue : Double.parseDouble(v);
+    }
+
+    /**
+     * @return true for {@code true}/{@code on}/{@code 1}/{@code yes} (any case) or an empty value,
+     * false for any other value, {@code defaultValue} if it is absent
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String v = get(name);
+        if (v == null) {
+            return defaultValue;
+        }
+        return v.isEmpty() || v.equalsIgnoreCase("true") || v.equalsIgnoreCase("on") || v.equals("1") || v.equalsIgnoreCase("yes");
+    }
+
+    private int find(String name, int from) {
+        for (int i = from; i < count; i++) {
+            int start = index[i * 4];
+            int end = index[i * 4 + 1];
+            if (isPlain(start, end)) {
+                if (end - start == name.length() && raw.regionMatches(start, name, 0, name.length())) {
+                    return i;
+                }
+            } else if (decode(start, end).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isPlain(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c == '%' || c == '+') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int start, int end) {
+        String s = raw.substring(start, end);
+        return isPlain(start, end) ? s : HttpRequest.percentDecode(s, true);
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.example.demo.httpserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free token buckets, one per slot, using the generic cell rate algorithm: each slot holds
+ * only the time at which its bucket will be full again, so taking a token is one read and one
+ * compare-and-set, with no refill thread and no allocation.
+ * <p>
+ * Keys (client addresses) are hashed to a fixed number of slots. Two keys that share a slot
+ * share its budget, which can only make the limit stricter for them; with enough slots for the
+ * number of active clients this is rare. Slots are spaced a cache line apart so clients on
+ * different cores do not contend.
+ */
+final class RateLimiter {
+
+    /** Longs per slot, so that each slot has a 64-byte cache line to itself. */
+    private static final int STRIDE = 8;
+    private static final long EPOCH = System.nanoTime();
+
+    private final long interval;
+    private final long tolerance;
+    private final int mask;
+    private final AtomicLongArray full;
+
+    /**
+     * @param perSecond sustained rate of each bucket
+     * @param burst tokens a full bucket holds, the requests allowed at once after a quiet period
+     * @param slots number of buckets, rounded up to a power of two
+     */
+    RateLimiter(double perSecond, int burst, int slots) {
+        if (perSecond <= 0 || burst < 1 || slots < 1) {
+            throw new IllegalArgumentException("rate " + perSecond + ", burst " + burst + ", slots " + slots);
+        }
+        this.interval = Math.max(1, (long) (1e9 / perSecond));
+        this.tolerance = interval * burst;
+        int n = Integer.highestOneBit(Math.max(1, slots - 1)) << (slots > 1 ? 1 : 0);
+        this.mask = n - 1;
+        this.full = new AtomicLongArray(n * STRIDE);
+    }
+
+    /**
+     * Take a token from the bucket of {@code key}.
+     *
+     * @param nanoTime the current {@link System#nanoTime()}, which the caller usually has at hand
+     * @return false if the bucket is empty
+     */
+    boolean tryAcquire(int key, long nanoTime) {
+        int i = slot(key);
+        long now = nanoTime - EPOCH;
+        for (;;) {
+            long t = full.get(i);
+            long next = Math.max(t, now) + interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (full.compareAndSet(i, t, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return whether the bucket of {@code key} has a token, without taking it
+     */
+    boolean hasToken(int key) {
+        long now = System.nanoTime() - EPOCH;
+        return Math.max(full.get(slot(key)), now) + interval - now <= tolerance;
+    }
+
+    private int slot(int key) {
+        key ^= key >>> 16;
+        key *= 0x45d9f3b;
+        key ^= key >>> 16;
+        return (key & mask) * STRIDE;
+    }
+
+}
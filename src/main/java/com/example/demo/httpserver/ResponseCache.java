@@ -0,0 +1,194 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Responses of one {@code @Cacheable} route, fully encoded and keyed by the route's bound
+ * parameter values. Entries expire after the TTL and the least recently used ones are evicted
+ * beyond the entry or byte bound. A response larger than the byte bound is sent but not kept.
+ * <p>
+ * Concurrent requests for a missing or expired key share one call to the controller: the first
+ * one loads it and the others wait for its result instead of calling the controller as well.
+ */
+public final class ResponseCache {
+
+    /** Computes the controller result on a miss. */
+    interface Loader {
+        Object load() throws InvocationTargetException;
+    }
+
+    /** A cached 200 response with its headers already encoded. */
+    static final class Response {
+        private final byte[] body;
+        private final byte[] keepAliveHeader;
+        private final byte[] closeHeader;
+
+        Response(Object result) {
+            boolean json = Json.isJson(result);
+            if (json) {
+                body = Json.toBytes(result);
+            } else {
+                body = result != null ? result.toString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+            }
+            String header = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: " + (json ? Json.CONTENT_TYPE : "text/html") + "\r\n"
+                    + "Content-Length: " + body.length + "\r\n";
+            keepAliveHeader = (header + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            closeHeader = (header + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        void write(OutputStream out, boolean keepAlive) throws IOException {
+            out.write(keepAlive ? keepAliveHeader : closeHeader);
+            out.write(body);
+            Metrics.status(200);
+        }
+
+        int weight() {
+            return body.length + keepAliveHeader.length + closeHeader.length;
+        }
+    }
+
+    private static final class Node {
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+        final long expiresAt;
+        int weight;
+
+        Node(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResponseCache(long ttlSeconds, int maxEntries, long maxBytes) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached response for {@code key}, loading it with {@code loader} if it is
+     * missing or expired
+     * @throws InvocationTargetException if the controller failed, for the loading request and
+     * every request waiting on it; failures are not cached
+     */
+    Response get(String key, Loader loader) throws InvocationTargetException {
+        Node node;
+        boolean load = false;
+        synchronized (this) {
+            node = nodes.get(key);
+            long now = System.nanoTime();
+            if (node == null || (node.response.isDone() && now - node.expiresAt >= 0)) {
+                if (node != null) {
+                    remove(key, node);
+                }
+                node = new Node(now + ttlNanos);
+                nodes.put(key, node);
+                load = true;
+            }
+        }
+
+        if (load) {
+            misses.increment();
+            Response response;
+            try {
+                response = new Response(loader.load());
+            } catch (InvocationTargetException | RuntimeException e) {
+                synchronized (this) {
+                    remove(key, node);
+                }
+                node.response.completeExceptionally(e instanceof InvocationTargetException ? e.getCause() : e);
+                throw e;
+            }
+            node.response.complete(response);
+            synchronized (this) {
+                if (nodes.get(key) == node) {
+                    if (response.weight() > maxBytes) {
+                        // keeping it would evict every other response and then itself
+                        nodes.remove(key);
+                    } else {
+                        node.weight = response.weight();
+                        bytes += node.weight;
+                        evict(node);
+                    }
+                }
+            }
+            return response;
+        }
+
+        hits.increment();
+        try {
+            return node.response.get();
+        } catch (ExecutionException e) {
+            throw new InvocationTargetException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    private void remove(String key, Node node) {
+        if (nodes.remove(key, node)) {
+            bytes -= node.weight;
+        }
+    }
+
+    /**
+     * Remove the least recently used responses until the cache is within its bounds, keeping
+     * {@code added}, the response just loaded.
+     */
+    private void evict(Node added) {
+        Iterator<Map.Entry<String, Node>> it = nodes.entrySet().iterator();
+        while ((nodes.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Node eldest = it.next().getValue();
+            if (eldest == added) {
+                continue;
+            }
+            it.remove();
+            bytes -= eldest.weight;
+            evictions.increment();
+        }
+    }
+
+    /** Requests answered from the cache, including those that waited for a concurrent load. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Requests that called the controller. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /** Bytes held by cached responses. */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.example.demo.httpserver;
+
+import com.example.demo.annotations.Cacheable;
+import com.example.demo.annotations.PathVariable;
+import com.example.demo.annotations.PostMapping;
+import com.example.demo.annotations.RateLimit;
+import com.example.demo.annotations.RequestBody;
+import com.example.demo.annotations.RequestParam;
+import com.example.demo.annotations.Timeout;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A controller method compiled once at registration: a {@link MethodHandle} bound to the
+ * controller instance, or the direct call of a generated {@link ControllerRoutes}, plus the
+ * parameter-binding plan read from its annotations, so the per-request path does no annotation
+ * lookups and no reflective {@code Method.invoke}.
+ */
+final class RouteInvoker {
+
+    private final Method method;
+    private final MethodHandle handle;
+    private final ControllerRoutes routes;
+    private final int index;
+    private final ParamBinder[] binders;
+    private final Class<?>[] contextTypes;
+    private ResponseCache cache;
+    private Metrics.Route metrics;
+    private long timeoutMillis = ServerConfig.asyncTimeoutMs;
+    private RateLimiter rateLimit;
+
+    private RouteInvoker(Method method, MethodHandle handle, ControllerRoutes routes, int index,
+            ParamBinder[] binders, Class<?>[] contextTypes) {
+        this.method = method;
+        this.handle = handle;
+        this.routes = routes;
+        this.index = index;
+        this.binders = binders;
+        this.contextTypes = contextTypes;
+    }
+
+    /**
+     * Compile {@code m} into an invoker. Parameters of type {@link HttpRequest} or
+     * {@link HttpResponse} get the current request and response; {@link RequestParam} and
+     * {@link PathVariable} parameters are converted to their declared type as described in
+     * {@link ParamBinder}, and a {@link RequestBody} parameter gets the body; other parameters
+     * are bound to null.
+     *
+     * @throws IllegalArgumentException if a parameter has a type that cannot be bound, a
+     * default value that does not convert to it, or the rate of a {@code RateLimit} is not positive
+     */
+    static RouteInvoker compile(Method m, Object instance) throws IllegalAccessException {
+        m.setAccessible(true);
+        MethodHandle mh = MethodHandles.lookup().unreflect(m);
+        if (!Modifier.isStatic(m.getModifiers())) {
+            mh = mh.bindTo(instance);
+        }
+        Parameter[] params = m.getParameters();
+        mh = mh.asSpreader(Object[].class, params.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+
+        // the same description of the route that generated code gives, read from the annotations
+        ControllerRoutes.Route route = new ControllerRoutes.Route(m.isAnnotationPresent(PostMapping.class) ? "POST" : "GET",
+                null, m.toString(), m.getReturnType());
+        for (Parameter param : params) {
+            Class<?> type = param.getType();
+            RequestParam rp = param.getAnnotation(RequestParam.class);
+            PathVariable pv = param.getAnnotation(PathVariable.class);
+            if (type == HttpRequest.class) {
+                route.request();
+            } else if (type == HttpResponse.class) {
+                route.response();
+            } else if (param.isAnnotationPresent(RequestBody.class)) {
+                route.body(type);
+            } else if (rp != null) {
+                Class<?> element = null;
+                if (type == List.class || type == Collection.class || type == Iterable.class) {
+                    element = String.class;
+                    if (param.getParameterizedType() instanceof ParameterizedType pt && pt.getActualTypeArguments()[0] instanceof Class<?> c) {
+                        element = c;
+                    }
+                }
+                route.param(rp.value(), type, element, rp.defaultValue());
+            } else if (pv != null) {
+                route.pathVariable(pv.value(), type);
+            } else {
+                route.unbound(type);
+            }
+        }
+        boolean async = CompletionStage.class.isAssignableFrom(m.getReturnType());
+        Type resultType = m.getGenericReturnType();
+        if (async) {
+            route.async(Object.class);
+            resultType = resultType instanceof ParameterizedType pt ? pt.getActualTypeArguments()[0] : Object.class;
+        }
+        Timeout timeout = m.getAnnotation(Timeout.class);
+        if (timeout != null) {
+            route.timeout(timeout.millis());
+        }
+        RateLimit rateLimit = m.getAnnotation(RateLimit.class);
+        if (rateLimit != null) {
+            route.rateLimit(rateLimit.perSecond(), rateLimit.burst());
+        }
+        Cacheable cacheable = m.getAnnotation(Cacheable.class);
+        if (cacheable != null) {
+            route.cacheable(cacheable.ttlSeconds(), cacheable.maxEntries(), cacheable.maxBytes());
+        }
+        return build(route, resultType, mh, m, null, -1);
+    }
+
+    /**
+     * Compile a route described by generated code, which the invoker calls directly.
+     *
+     * @param index position of the route in {@link ControllerRoutes#routes()}
+     * @throws IllegalArgumentException as {@link #compile(Method, Object)}
+     */
+    static RouteInvoker compile(ControllerRoutes routes, int index, ControllerRoutes.Route route) {
+        return build(route, route.asyncType != null ? route.asyncType : route.resultType, null, null, routes, index);
+    }
+
+    private static RouteInvoker build(ControllerRoutes.Route route, Type resultType, MethodHandle mh, Method m,
+            ControllerRoutes routes, int index) {
+        int count = route.params.size();
+        ParamBinder[] binders = new ParamBinder[count];
+        Class<?>[] contextTypes = new Class<?>[count];
+        boolean usesContext = false;
+        for (int i = 0; i < count; i++) {
+            ControllerRoutes.Param param = route.params.get(i);
+            try {
+                switch (param.kind()) {
+                    case ControllerRoutes.Route.REQUEST, ControllerRoutes.Route.RESPONSE -> contextTypes[i] = param.type();
+                    case ControllerRoutes.Route.BODY -> binders[i] = ParamBinder.forBody(param.type());
+                    case ControllerRoutes.Route.PARAM -> binders[i] = param.elementType() != null
+                            ? ParamBinder.forList(param.name(), param.elementType(), param.defaultValue())
+                            : ParamBinder.forParam(param.name(), param.type(), param.type(), param.defaultValue());
+                    case ControllerRoutes.Route.PATH -> binders[i] = ParamBinder.forPathVariable(param.name(), param.type());
+                    default -> {
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("parameter " + i + " of " + route.name + ": " + e.getMessage(), e);
+            }
+            usesContext |= param.kind() == ControllerRoutes.Route.REQUEST || param.kind() == ControllerRoutes.Route.RESPONSE
+                    || param.kind() == ControllerRoutes.Route.BODY;
+        }
+        RouteInvoker invoker = new RouteInvoker(m, mh, routes, index, binders, contextTypes);
+        boolean async = route.asyncType != null;
+        if (async || (resultType instanceof Class<?> c ? Json.isJsonType(c) && c != EventStream.class : true)) {
+            Json.prepare(resultType);
+        }
+
+        if (route.timeoutMillis >= 0) {
+            if (async) {
+                invoker.timeoutMillis = route.timeoutMillis;
+            } else {
+                System.err.println("@Timeout ignored on " + route.name + ": it does not return a CompletionStage");
+            }
+        }
+
+        if (route.ratePerSecond != 0) {
+            invoker.rateLimit = new RateLimiter(route.ratePerSecond, route.rateBurst, 1);
+        }
+
+        if (route.cacheTtlSeconds >= 0) {
+            if (route.httpMethod.equals("POST")) {
+                System.err.println("@Cacheable ignored on " + route.name + ": POST responses are not cached");
+            } else if (usesContext) {
+                // the response could depend on anything in the request, or be streamed
+                System.err.println("@Cacheable ignored on " + route.name + ": it takes an HttpRequest, HttpResponse or the body");
+            } else {
+                invoker.cache = new ResponseCache(route.cacheTtlSeconds, route.cacheMaxEntries, route.cacheMaxBytes);
+            }
+        }
+        return invoker;
+    }
+
+    /**
+     * @return how long a {@code CompletionStage} result of the method may take to complete
+     */
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return the route's {@code @RateLimit} bucket, or null
+     */
+    RateLimiter getRateLimit() {
+        return rateLimit;
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the response cache of a {@code @Cacheable} method, or null
+     */
+    ResponseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the request counters of the route this invoker is registered for, or null
+     */
+    Metrics.Route getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(Metrics.Route metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The values this method would be called with, as a cache key: parameters the method does not
+     * bind, and their order in the query, do not change it.
+     */
+    String cacheKey(HttpRequest req) {
+        StringBuilder key = new StringBuilder(32);
+        for (ParamBinder binder : binders) {
+            if (binder != null) {
+                binder.appendKey(req, key);
+            } else {
+                key.append("-;");
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Call the controller method without a response object.
+     */
+    Object invoke(HttpRequest req) throws InvocationTargetException, ParamBinder.BindException {
+        return invoke(req, null);
+    }
+
+    /**
+     * Bind the request parameters and call the controller method.
+     *
+     * @throws InvocationTargetException wrapping anything thrown by the controller
+     * @throws ParamBinder.BindException if a request value cannot be bound to its parameter
+     */
+    Object invoke(HttpRequest req, HttpResponse res) throws InvocationTargetException, ParamBinder.BindException {
+        return call(bind(req, res));
+    }
+
+    /**
+     * @return the arguments for a call answering {@code req}
+     * @throws ParamBinder.BindException if a request value cannot be bound to its parameter
+     */
+    Object[] bind(HttpRequest req, HttpResponse res) throws ParamBinder.BindException {
+        Object[] args = new Object[binders.length];
+        for (int i = 0; i < args.length; i++) {
+            if (binders[i] != null) {
+                args[i] = binders[i].bind(req);
+            } else if (contextTypes[i] == HttpRequest.class) {
+                args[i] = req;
+            } else if (contextTypes[i] == HttpResponse.class) {
+                args[i] = res;
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Call the controller method with arguments from {@link #bind}.
+     *
+     * @throws InvocationTargetException wrapping anything thrown by the controller
+     */
+    Object call(Object[] args) throws InvocationTargetException {
+        try {
+            return handle != null ? (Object) handle.invokeExact(args) : routes.invoke(index, args);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+}
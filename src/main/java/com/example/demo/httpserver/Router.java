@@ -0,0 +1,297 @@
+package com.example.demo.httpserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Radix tree of route patterns. Static text is stored in compressed edges, so matching walks the
+ * request path once, character by character, whatever the number of registered routes.
+ * <p>
+ * Pattern syntax:
+ * <ul>
+ * <li>{@code /users/{id}} binds one path segment to the variable {@code id}</li>
+ * <li>{@code /files/{*path}} (or a trailing {@code *}, bound as {@code "*"}) binds the rest of the path</li>
+ * </ul>
+ * Static edges win over variables, which win over catch-alls. Each pattern can hold one target
+ * per HTTP method.
+ *
+ * @param <T> route target
+ */
+final class Router<T> {
+
+    private final Node<T> root = new Node<>("");
+    private int maxVariables;
+    private int size;
+
+    /**
+     * Register {@code target} for {@code method} requests matching {@code pattern}.
+     *
+     * @return the target previously registered for the same method and pattern, or null
+     * @throws IllegalArgumentException if the pattern is malformed or conflicts with a route
+     */
+    T add(String method, String pattern, T target) {
+        if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+            throw new IllegalArgumentException("Route must start with '/': " + pattern);
+        }
+        Node<T> n = insert(root, pattern, 0, 0);
+        if (n.targets == null) {
+            n.targets = new HashMap<>();
+            n.pattern = pattern;
+        }
+        T previous = n.targets.put(method, target);
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    /** Number of registered (method, pattern) pairs. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the route for a request.
+     *
+     * @return the match, which may carry no target for {@code method} (see {@link Match#allowedMethods()}),
+     * or null when no pattern matches the path; a HEAD request gets the GET target
+     */
+    Match<T> match(String method, String path) {
+        Match<T> m = new Match<>(path, maxVariables);
+        Node<T> n = lookup(root, path, 0, m);
+        if (n == null) {
+            return null;
+        }
+        m.node = n;
+        m.target = n.targets.get(method);
+        if (m.target == null && method.equals("HEAD")) {
+            m.target = n.targets.get("GET");
+        }
+        return m;
+    }
+
+    private Node<T> insert(Node<T> n, String p, int i, int vars) {
+        maxVariables = Math.max(maxVariables, vars);
+        if (i == p.length()) {
+            return n;
+        }
+        char c = p.charAt(i);
+        boolean segmentStart = i == 0 || p.charAt(i - 1) == '/';
+        if (c == '*' && i == p.length() - 1) {
+            if (!segmentStart) {
+                throw new IllegalArgumentException("Catch-all must span whole segments: " + p);
+            }
+            return catchAll(n, "*", p, vars);
+        }
+        if (c == '{') {
+            if (!segmentStart) {
+                throw new IllegalArgumentException("Variable must span a whole segment: " + p);
+            }
+            int close = p.indexOf('}', i);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed variable in route: " + p);
+            }
+            String name = p.substring(i + 1, close);
+            if (name.startsWith("*")) {
+                if (close != p.length() - 1) {
+                    throw new IllegalArgumentException("Catch-all must end the route: " + p);
+                }
+                return catchAll(n, name.substring(1), p, vars);
+            }
+            if (name.isEmpty() || (close + 1 < p.length() && p.charAt(close + 1) != '/')) {
+                throw new IllegalArgumentException("Variable must span a whole segment: " + p);
+            }
+            if (n.variable == null) {
+                n.variable = new Node<>("");
+                n.variableName = name;
+            } else if (!n.variableName.equals(name)) {
+                throw new IllegalArgumentException("Conflicting variable {" + name + "} and {" + n.variableName + "} in route: " + p);
+            }
+            return insert(n.variable, p, close + 1, vars + 1);
+        }
+
+        int end = i;
+        while (end < p.length() && p.charAt(end) != '{' && !(p.charAt(end) == '*' && end == p.length() - 1)) {
+            end++;
+        }
+        Node<T> child = n.child(c);
+        if (child == null) {
+            child = new Node<>(p.substring(i, end));
+            n.addChild(child);
+            return insert(child, p, end, vars);
+        }
+        int common = 0;
+        int max = Math.min(child.prefix.length(), end - i);
+        while (common < max && child.prefix.charAt(common) == p.charAt(i + common)) {
+            common++;
+        }
+        if (common < child.prefix.length()) {
+            Node<T> split = new Node<>(child.prefix.substring(0, common));
+            child.prefix = child.prefix.substring(common);
+            split.addChild(child);
+            n.replaceChild(c, split);
+            child = split;
+        }
+        return insert(child, p, i + common, vars);
+    }
+
+    private Node<T> catchAll(Node<T> n, String name, String p, int vars) {
+        maxVariables = Math.max(maxVariables, vars + 1);
+        if (n.catchAll == null) {
+            n.catchAll = new Node<>("");
+            n.catchAllName = name;
+        } else if (!n.catchAllName.equals(name)) {
+            throw new IllegalArgumentException("Conflicting catch-all in route: " + p);
+        }
+        return n.catchAll;
+    }
+
+    private static <T> Node<T> lookup(Node<T> n, String path, int i, Match<T> m) {
+        int len = path.length();
+        if (i == len && n.targets != null) {
+            return n;
+        }
+        if (i < len) {
+            Node<T> child = n.child(path.charAt(i));
+            if (child != null && path.startsWith(child.prefix, i)) {
+                Node<T> found = lookup(child, path, i + child.prefix.length(), m);
+                if (found != null) {
+                    return found;
+                }
+            }
+            if (n.variable != null && path.charAt(i) != '/') {
+                int end = path.indexOf('/', i);
+                if (end < 0) {
+                    end = len;
+                }
+                m.push(n.variableName, i, end);
+                Node<T> found = lookup(n.variable, path, end, m);
+                if (found != null) {
+                    return found;
+                }
+                m.pop();
+            }
+        }
+        if (n.catchAll != null && n.catchAll.targets != null) {
+            m.push(n.catchAllName, i, len);
+            return n.catchAll;
+        }
+        return null;
+    }
+
+    private static final class Node<T> {
+        private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
+        String prefix;
+        char[] indices = new char[0];
+        Node<T>[] children = noChildren();
+        Node<T> variable;
+        String variableName;
+        Node<T> catchAll;
+        String catchAllName;
+        Map<String, T> targets;
+        String pattern;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /** The shared empty array, typed for this node; it is never written, only copied. */
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] noChildren() {
+            return (Node<T>[]) NO_CHILDREN;
+        }
+
+        Node<T> child(char c) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node<T> child) {
+            int n = indices.length;
+            indices = Arrays.copyOf(indices, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            indices[n] = child.prefix.charAt(0);
+            children[n] = child;
+        }
+
+        void replaceChild(char c, Node<T> child) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == c) {
+                    children[i] = child;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Result of a lookup. Variable values are kept as offsets into the path and only cut out and
+     * decoded when asked for.
+     */
+    static final class Match<T> {
+        private final String path;
+        private final String[] names;
+        private final int[] bounds;
+        private int count;
+        private Node<T> node;
+        private T target;
+
+        private Match(String path, int capacity) {
+            this.path = path;
+            this.names = new String[capacity];
+            this.bounds = new int[capacity * 2];
+        }
+
+        private void push(String name, int start, int end) {
+            names[count] = name;
+            bounds[count * 2] = start;
+            bounds[count * 2 + 1] = end;
+            count++;
+        }
+
+        private void pop() {
+            count--;
+        }
+
+        /** Target for the request method, or null if the pattern has none for it. */
+        T target() {
+            return target;
+        }
+
+        /** The pattern the path matched, e.g. {@code /users/{id}}. */
+        String pattern() {
+            return node.pattern;
+        }
+
+        /** Methods registered for the matched pattern. */
+        Set<String> allowedMethods() {
+            Set<String> methods = new TreeSet<>(node.targets.keySet());
+            if (methods.contains("GET")) {
+                methods.add("HEAD");
+            }
+            return methods;
+        }
+
+        /**
+         * @return the percent-decoded value bound to {@code name}, or null
+         */
+        String variable(String name) {
+            for (int i = 0; i < count; i++) {
+                if (names[i].equals(name)) {
+                    String raw = path.substring(bounds[i * 2], bounds[i * 2 + 1]);
+                    return raw.indexOf('%') < 0 ? raw : HttpRequest.percentDecode(raw, false);
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.example.demo.httpserver;
+
+/**
+ * Runtime settings for the HTTP server.
+ *
+ * Each value is read from a system property (e.g. {@code -Dserver.keepAlive.timeoutMs=5000})
+ * and falls back to the matching environment variable (e.g. {@code SERVER_KEEPALIVE_TIMEOUTMS})
+ * and then to the default.
+ */
+public final class ServerConfig {
+
+    /** Port to listen on ({@code SERVER_PORT} in the environment). */
+    public static int port = intValue("server.port", 35000);
+
+    /** Address to listen on; empty listens on every interface. */
+    public static String host = value("server.host", "");
+
+    /**
+     * Comma-separated {@code [host:]port} addresses to listen on, replacing {@link #host} and
+     * {@link #port}, e.g. {@code 0.0.0.0:35000,127.0.0.1:9090}.
+     */
+    public static String listen = value("server.listen", "");
+
+    /** Pending connections the kernel queues for each listener before refusing new ones. */
+    public static int backlog = intValue("server.backlog", 1024);
+
+    /** Threads accepting connections on each listener (blocking engine) or event loops accepting (nio engine). */
+    public static int acceptors = intValue("server.acceptors", 1);
+
+    /**
+     * Give each acceptor its own listening socket with {@code SO_REUSEPORT}, so the kernel spreads
+     * connections across them; also lets several server processes share the port.
+     */
+    public static boolean reusePort = Boolean.parseBoolean(value("server.reusePort", "false"));
+
+    /** Disable Nagle's algorithm on accepted connections. */
+    public static boolean tcpNoDelay = Boolean.parseBoolean(value("server.tcpNoDelay", "true"));
+
+    /** Socket receive buffer in bytes; 0 keeps the system default. */
+    public static int receiveBufferBytes = intValue("server.socket.receiveBuffer", 0);
+
+    /** Socket send buffer in bytes; 0 keeps the system default. */
+    public static int sendBufferBytes = intValue("server.socket.sendBuffer", 0);
+
+    /** Connections an nio event loop accepts per wake-up before serving its other channels. */
+    public static int acceptBatch = intValue("server.nio.acceptBatch", 64);
+
+    /**
+     * Comma-separated packages scanned for controllers when the class path has no compile-time
+     * controller index; empty scans every package.
+     */
+    public static String scanPackages = value("server.scan.packages", "");
+
+    /** Idle time a persistent connection may wait for its next request before it is closed. */
+    public static int keepAliveTimeoutMs = intValue("server.keepAlive.timeoutMs", 5000);
+
+    /** Maximum number of requests served on one connection before it is closed. */
+    public static int maxRequestsPerConnection = intValue("server.keepAlive.maxRequests", 100);
+
+    /**
+     * Connection engine: {@code nio} holds idle connections without a thread; {@code blocking}
+     * serves each connection on a worker for as long as it stays open.
+     */
+    public static String engine = value("server.engine", "nio");
+
+    /** How worker tasks run: {@code platform} (bounded thread pool) or {@code virtual} (virtual thread per task). */
+    public static String executionMode = value("server.execution", "platform");
+
+    /** Threads that run controllers (and, for the blocking engine, own whole connections). */
+    public static int workerThreads = intValue("server.workerThreads", 10);
+
+    /** Tasks that may wait for a platform worker before new ones are rejected with 503. */
+    public static int workerQueue = intValue("server.workerQueue", 1000);
+
+    /** Tasks that may run or wait at once in virtual mode before new ones are rejected with 503. */
+    public static int virtualMaxConcurrent = intValue("server.virtual.maxConcurrent", 10000);
+
+    /** Selector threads used by the nio engine. */
+    public static int eventLoops = intValue("server.nio.eventLoops", Runtime.getRuntime().availableProcessors());
+
+    /** Time a controller's {@code CompletionStage} result may take before the request gets 504; {@code @Timeout} overrides it per route. */
+    public static int asyncTimeoutMs = intValue("server.async.timeoutMs", 30000);
+
+    /** Requests per second allowed to each client address before 429; 0 does not limit clients. */
+    public static double rateLimitPerClient = doubleValue("server.rateLimit.perClient", 0);
+
+    /** Requests a client may send at once after a quiet period. */
+    public static int rateLimitClientBurst = intValue("server.rateLimit.clientBurst", 50);
+
+    /** Buckets client addresses are hashed to; clients sharing one share its rate. */
+    public static int rateLimitClientSlots = intValue("server.rateLimit.clientSlots", 4096);
+
+    /** Most controller calls in progress at once before 503; 0 does not limit them. */
+    public static int concurrencyLimit = intValue("server.concurrency.limit", 0);
+
+    /** Lower the concurrency limit while controller latency is above its baseline. */
+    public static boolean concurrencyAdaptive = Boolean.parseBoolean(value("server.concurrency.adaptive", "false"));
+
+    /** Lowest limit the adaptive concurrency limit goes down to. */
+    public static int concurrencyMinLimit = intValue("server.concurrency.minLimit", 4);
+
+    /** Ratio of average to baseline latency above which the adaptive limit is lowered. */
+    public static double concurrencyTolerance = doubleValue("server.concurrency.tolerance", 2.0);
+
+    /** Largest accepted request line plus headers, in bytes; larger heads get 414 or 431. */
+    public static int maxHeaderBytes = intValue("server.http.maxHeaderBytes", 8192);
+
+    /** Largest accepted number of request headers; more get 431. */
+    public static int maxHeaders = intValue("server.http.maxHeaders", 100);
+
+    /** Largest form body read for request parameters; larger ones get 413. */
+    public static int maxFormBytes = intValue("server.http.maxFormBytes", 64 * 1024);
+
+    /** Largest request body; a larger declared length gets 413 before the body is read. */
+    public static long maxBodyBytes = longValue("server.http.maxBodyBytes", 100L * 1024 * 1024);
+
+    /** Request bodies up to this size are kept in memory; larger ones are written to a temporary file. */
+    public static int bodyMemoryBytes = intValue("server.http.bodyMemoryBytes", 64 * 1024);
+
+    /** Directory for the temporary files of large request bodies; empty uses {@code java.io.tmpdir}. */
+    public static String bodyTempDir = value("server.http.bodyTempDir", "");
+
+    /** Directory whose files are served ahead of the bundled webroot; none by default. */
+    public static String staticDir = value("server.static.dir", null);
+
+    /** Memory budget of the static resource cache, in bytes; least recently used files are evicted beyond it. */
+    public static int staticCacheBytes = intValue("server.static.cacheBytes", 32 * 1024 * 1024);
+
+    /** Largest static file kept in the cache; bigger files are read on every request. */
+    public static int staticCacheMaxEntryBytes = intValue("server.static.cacheMaxEntryBytes", 8 * 1024 * 1024);
+
+    /** Smallest text file that gets a gzip variant; smaller ones are always sent as is. */
+    public static int staticGzipMinBytes = intValue("server.static.gzipMinBytes", 1024);
+
+    /** A comment is sent on an event stream that has been quiet this long, so idle connections stay open. */
+    public static long sseHeartbeatMs = longValue("server.sse.heartbeatMs", 15000);
+
+    /** Reconnection delay sent to event stream clients. */
+    public static long sseRetryMs = longValue("server.sse.retryMs", 3000);
+
+    /** Recent events an event stream keeps for clients reconnecting with {@code Last-Event-ID}. */
+    public static int sseReplayEvents = intValue("server.sse.replayEvents", 100);
+
+    /** Bytes of events that may wait for one subscriber whose socket is full before it is dropped as too slow. */
+    public static long sseMaxQueuedBytes = longValue("server.sse.maxQueuedBytes", 1024 * 1024);
+
+    /** Time a subscriber may accept none of its waiting events before it is dropped. */
+    public static long sseStallTimeoutMs = longValue("server.sse.stallTimeoutMs", 30000);
+
+    /** Print one line per request (asynchronously, dropping lines under overload). */
+    public static boolean accessLog = Boolean.parseBoolean(value("server.accessLog", "false"));
+
+    /**
+     * How indexed controllers are registered: {@code generated} uses the route classes written at
+     * compile time where there are any, {@code reflective} reads annotations and builds method handles.
+     */
+    public static String registration = value("server.registration", "generated");
+
+    /**
+     * Send one request to every route once the server is ready, then stop; used to record the
+     * classes startup and the first requests load into a class data sharing archive.
+     */
+    public static boolean training = Boolean.parseBoolean(value("server.training", "false"));
+
+    private ServerConfig() {
+    }
+
+    static String value(String name, String defaultValue) {
+        String v = System.getProperty(name);
+        if (v == null) {
+            v = System.getenv(name.toUpperCase().replace('.', '_'));
+        }
+        return v != null && !v.isBlank() ? v.trim() : defaultValue;
+    }
+
+    static double doubleValue(String name, double defaultValue) {
+        String v = value(name, null);
+        if (v == null) return defaultValue;
+        try {
+            return Double.parseDouble(v);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + name + ": " + v + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long longValue(String name, long defaultValue) {
+        String v = value(name, null);
+        if (v == null) return defaultValue;
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + name + ": " + v + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static int intValue(String name, int defaultValue) {
+        String v = value(name, null);
+        if (v == null) return defaultValue;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + name + ": " + v + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+}
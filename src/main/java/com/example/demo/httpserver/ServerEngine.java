@@ -0,0 +1,25 @@
+package com.example.demo.httpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Accepts client connections and feeds their requests to {@link HttpServer#handleRequest}.
+ * The engine is chosen at startup with {@code server.engine}.
+ */
+interface ServerEngine {
+
+    /**
+     * Listen on every address and serve connections until {@link #stop()} is called.
+     *
+     * @throws IOException if an address cannot be bound
+     */
+    void serve(List<InetSocketAddress> addresses) throws IOException;
+
+    /**
+     * Stop accepting connections and make {@link #serve} return.
+     */
+    void stop();
+
+}
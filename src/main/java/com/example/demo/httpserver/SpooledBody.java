@@ -0,0 +1,309 @@
+package com.example.demo.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The body of a request, decoded from its {@code Content-Length} or {@code chunked} framing as
+ * the engine feeds it bytes from the connection. Bodies up to {@code server.http.bodyMemoryBytes}
+ * are kept in memory; larger ones are written to a temporary file as they arrive, so the heap
+ * used by an upload does not grow with its size. The temporary file is deleted by
+ * {@link #release()}, which the engine calls once the response has been written.
+ */
+final class SpooledBody {
+
+    /** Interim response sent to a client that waits with {@code Expect: 100-continue}. */
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+
+    // chunked decoding states
+    private static final int SIZE = 0;
+    private static final int EXTENSION = 1;
+    private static final int SIZE_LF = 2;
+    private static final int DATA = 3;
+    private static final int DATA_CR = 4;
+    private static final int DATA_LF = 5;
+    private static final int TRAILER = 6;
+    private static final int TRAILER_LINE = 7;
+    private static final int TRAILER_LF = 8;
+    private static final int DONE = 9;
+
+    /** Longest chunk size line or trailer line accepted. */
+    private static final int MAX_LINE = 4096;
+
+    private final boolean chunked;
+    private final long maxBytes;
+    private final int memoryBytes;
+    /** Whether the declared length is known to be over {@link #memoryBytes}. */
+    private final boolean spill;
+    /** Bytes of the current chunk, or of the whole body when not chunked, still to come. */
+    private long remaining;
+    private int state;
+    private int lineLength;
+    private boolean sizeDigits;
+
+    private byte[] memory;
+    private int memoryLength;
+    private Path file;
+    private FileChannel fileChannel;
+    private long length;
+
+    private SpooledBody(boolean chunked, long contentLength, long maxBytes, int memoryBytes) {
+        this.chunked = chunked;
+        this.maxBytes = maxBytes;
+        this.memoryBytes = memoryBytes;
+        this.remaining = chunked ? 0 : contentLength;
+        this.state = chunked ? SIZE : (contentLength == 0 ? DONE : DATA);
+        this.spill = !chunked && contentLength > memoryBytes;
+        this.memory = new byte[spill ? 0 : (int) Math.min(memoryBytes, chunked ? 4096 : contentLength)];
+    }
+
+    /**
+     * The body a request announces in its head. A form body is capped by
+     * {@code server.http.maxFormBytes} and always kept in memory, since it is parsed for its
+     * parameters; any other body by {@code server.http.maxBodyBytes}.
+     *
+     * @return the body to read before the request is handled, or null if it has none
+     * @throws HttpRequestParser.ParseException 413 if the declared length is over the limit, so the
+     * request is refused before its body is read; 501 for a transfer coding other than chunked;
+     * 400 if both a length and a transfer coding are given
+     */
+    static SpooledBody forRequest(HttpRequest req) throws HttpRequestParser.ParseException {
+        String coding = req.getHeader("transfer-encoding");
+        long contentLength = req.getContentLength();
+        if (coding == null && contentLength <= 0) {
+            return null;
+        }
+        if (coding != null && contentLength >= 0) {
+            // a request that can be framed two ways is how requests get smuggled past proxies
+            throw new HttpRequestParser.ParseException(400, "Both Content-Length and Transfer-Encoding");
+        }
+        if (coding != null && !coding.trim().equalsIgnoreCase("chunked")) {
+            throw new HttpRequestParser.ParseException(501, "Unsupported Transfer-Encoding");
+        }
+        boolean form = req.hasFormBody();
+        long max = form ? ServerConfig.maxFormBytes : ServerConfig.maxBodyBytes;
+        if (contentLength > max) {
+            throw new HttpRequestParser.ParseException(413, "Payload Too Large");
+        }
+        int memory = form ? ServerConfig.maxFormBytes : ServerConfig.bodyMemoryBytes;
+        return new SpooledBody(coding != null, contentLength, max, memory);
+    }
+
+    /**
+     * A complete body held in memory, for requests built without a connection.
+     */
+    static SpooledBody of(byte[] bytes) {
+        SpooledBody body = new SpooledBody(false, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+        body.memory = bytes;
+        body.memoryLength = bytes.length;
+        body.length = bytes.length;
+        return body;
+    }
+
+    /**
+     * Take body bytes from {@code buf} between {@code from} and {@code limit}, absolute indexes
+     * that leave the buffer's position untouched. Bytes after the end of the body, such as a
+     * pipelined request, are not taken.
+     *
+     * @return the number of bytes taken
+     * @throws HttpRequestParser.ParseException 413 when a chunked body grows over the limit, 400 if
+     * the chunked framing is malformed
+     * @throws IOException if the temporary file cannot be written
+     */
+    int feed(ByteBuffer buf, int from, int limit) throws HttpRequestParser.ParseException, IOException {
+        int p = from;
+        while (p < limit && state != DONE) {
+            if (state == DATA) {
+                int n = (int) Math.min(limit - p, remaining);
+                store(buf, p, n);
+                p += n;
+                remaining -= n;
+                if (remaining == 0) {
+                    state = chunked ? DATA_CR : DONE;
+                }
+                continue;
+            }
+            byte b = buf.get(p++);
+            if (++lineLength > MAX_LINE) {
+                throw new HttpRequestParser.ParseException(400, "Chunk line too long");
+            }
+            switch (state) {
+                case SIZE -> {
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        if (remaining > (Long.MAX_VALUE >> 4)) {
+                            throw new HttpRequestParser.ParseException(413, "Payload Too Large");
+                        }
+                        remaining = remaining << 4 | digit;
+                        sizeDigits = true;
+                    } else if (sizeDigits && (b == ';' || b == ' ' || b == '\t')) {
+                        state = EXTENSION;
+                    } else if (sizeDigits && b == '\r') {
+                        state = SIZE_LF;
+                    } else {
+                        throw new HttpRequestParser.ParseException(400, "Invalid chunk size");
+                    }
+                }
+                case EXTENSION -> {
+                    if (b == '\r') {
+                        state = SIZE_LF;
+                    }
+                }
+                case SIZE_LF -> {
+                    expect(b, '\n');
+                    if (length + remaining > maxBytes) {
+                        throw new HttpRequestParser.ParseException(413, "Payload Too Large");
+                    }
+                    lineLength = 0;
+                    sizeDigits = false;
+                    state = remaining == 0 ? TRAILER : DATA;
+                }
+                case DATA_CR -> {
+                    expect(b, '\r');
+                    state = DATA_LF;
+                }
+                case DATA_LF -> {
+                    expect(b, '\n');
+                    lineLength = 0;
+                    state = SIZE;
+                }
+                case TRAILER -> state = b == '\r' ? TRAILER_LF : TRAILER_LINE;
+                case TRAILER_LINE -> {
+                    // trailer fields are read past, not kept
+                    if (b == '\n') {
+                        lineLength = 0;
+                        state = TRAILER;
+                    }
+                }
+                case TRAILER_LF -> {
+                    expect(b, '\n');
+                    state = DONE;
+                }
+                default -> throw new IllegalStateException();
+            }
+        }
+        return p - from;
+    }
+
+    private static void expect(byte b, char c) throws HttpRequestParser.ParseException {
+        if (b != c) {
+            throw new HttpRequestParser.ParseException(400, "Invalid chunked body");
+        }
+    }
+
+    /** Keep {@code n} bytes, moving the body to a temporary file once it outgrows memory. */
+    private void store(ByteBuffer buf, int p, int n) throws IOException {
+        length += n;
+        if (fileChannel == null && !spill && memoryLength + n <= memoryBytes) {
+            if (memoryLength + n > memory.length) {
+                memory = Arrays.copyOf(memory, (int) Math.min(memoryBytes, Math.max(memoryLength + n, 2L * memory.length)));
+            }
+            buf.get(p, memory, memoryLength, n);
+            memoryLength += n;
+            return;
+        }
+        if (fileChannel == null) {
+            Path dir = ServerConfig.bodyTempDir.isEmpty() ? Paths.get(System.getProperty("java.io.tmpdir")) : Paths.get(ServerConfig.bodyTempDir);
+            file = Files.createTempFile(dir, "upload-", ".body");
+            fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileChannel.write(ByteBuffer.wrap(memory, 0, memoryLength));
+            memory = null;
+            memoryLength = 0;
+        }
+        ByteBuffer part = buf.duplicate().limit(p + n).position(p);
+        while (part.hasRemaining()) {
+            fileChannel.write(part);
+        }
+    }
+
+    /**
+     * Whether feeding {@code n} more bytes, chunk framing included, keeps the body in memory, so
+     * {@link #feed} does no file I/O.
+     */
+    boolean fitsInMemory(int n) {
+        return fileChannel == null && !spill && memoryLength + (long) n <= memoryBytes;
+    }
+
+    /** Whether the whole body has been read. */
+    boolean isComplete() {
+        return state == DONE;
+    }
+
+    /** Bytes of body read so far; the whole length once complete. */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return a new stream over the whole body
+     */
+    InputStream stream() {
+        if (fileChannel == null) {
+            return new ByteArrayInputStream(memory, 0, memoryLength);
+        }
+        return Channels.newInputStream(channel());
+    }
+
+    /**
+     * @return a new channel over the whole body; a spilled body is read from its file
+     */
+    ReadableByteChannel channel() {
+        if (fileChannel == null) {
+            return Channels.newChannel(stream());
+        }
+        try {
+            return FileChannel.open(file, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Request body no longer available", e);
+        }
+    }
+
+    /**
+     * @throws IOException if the body is in a file that cannot be read
+     */
+    byte[] bytes() throws IOException {
+        if (fileChannel == null) {
+            return memoryLength == memory.length ? memory : Arrays.copyOf(memory, memoryLength);
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Request body of " + length + " bytes does not fit in an array");
+        }
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * @throws IOException if the body is in a file that cannot be read
+     */
+    String text(Charset charset) throws IOException {
+        if (fileChannel == null) {
+            return new String(memory, 0, memoryLength, charset);
+        }
+        return new String(bytes(), charset);
+    }
+
+    /** Delete the temporary file, if any; the body cannot be read afterwards. */
+    void release() {
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + file + ": " + e.getMessage());
+            }
+        }
+        memory = null;
+    }
+
+}
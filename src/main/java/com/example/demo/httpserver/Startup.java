@@ -0,0 +1,93 @@
+package com.example.demo.httpserver;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Startup timing, in milliseconds: the time from JVM start to {@link HttpServer#runServer}, then
+ * each phase until the server listens (controller discovery, route registration, binding the
+ * listeners), and the arrival of the first request. Printed as one line when the server is ready
+ * and one when the first request arrives.
+ */
+final class Startup {
+
+    private static final StringBuilder report = new StringBuilder();
+    /** Milliseconds from JVM start to {@link #begin()}, or -1 if the OS does not say; it reports to about 10 ms. */
+    private static long jvmMillis = -1;
+    private static long beginNanos;
+    private static long lastNanos;
+    private static long readyNanos;
+    private static boolean begun;
+    private static volatile boolean firstRequestSeen;
+    private static final CompletableFuture<Void> whenReady = new CompletableFuture<>();
+
+    private Startup() {
+    }
+
+    /** Start timing; phases marked before this, as when tests register controllers, are not reported. */
+    static synchronized void begin() {
+        beginNanos = lastNanos = System.nanoTime();
+        begun = true;
+        long now = System.currentTimeMillis();
+        ProcessHandle.current().info().startInstant()
+                .ifPresent(start -> jvmMillis = Math.max(0, now - start.toEpochMilli()));
+        if (jvmMillis >= 0) {
+            report.append("jvm ").append(jvmMillis);
+        }
+    }
+
+    /** End the phase that started at the previous mark. */
+    static synchronized void mark(String phase) {
+        if (!begun || readyNanos != 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        report.append(report.length() > 0 ? ", " : "").append(phase).append(' ').append(millis(now - lastNanos));
+        lastNanos = now;
+    }
+
+    /** The listeners are bound; called by the engine. */
+    static synchronized void ready() {
+        if (begun && readyNanos == 0) {
+            mark("bind");
+            readyNanos = System.nanoTime();
+            System.out.println("Startup (ms): " + report + "; ready " + sinceStart(readyNanos));
+        }
+        whenReady.complete(null);
+    }
+
+    /**
+     * @return completed once the server accepts connections
+     */
+    static CompletableFuture<Void> whenReady() {
+        return whenReady;
+    }
+
+    /** Called for every request; only the first one is reported. */
+    static void requestReceived() {
+        if (!firstRequestSeen) {
+            firstRequest();
+        }
+    }
+
+    private static synchronized void firstRequest() {
+        if (firstRequestSeen) {
+            return;
+        }
+        firstRequestSeen = true;
+        if (readyNanos != 0) {
+            long now = System.nanoTime();
+            System.out.println("First request " + millis(now - readyNanos) + " ms after ready, " + sinceStart(now));
+        }
+    }
+
+    private static String sinceStart(long nanos) {
+        return jvmMillis >= 0
+                ? (jvmMillis + millis(nanos - beginNanos)) + " ms after JVM start"
+                : millis(nanos - beginNanos) + " ms after server start";
+    }
+
+    private static long millis(long nanos) {
+        return Math.round(nanos / 1e6);
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.example.demo.httpserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Static files served from a directory on the filesystem (see {@link HttpServer#staticfiles}).
+ * <p>
+ * Bodies never pass through the heap: the file channel is handed to the engine, which sends it
+ * with {@link FileChannel#transferTo}, so serving a large download takes no more memory than a
+ * small one. Single-range {@code Range} requests get 206 partial responses, and files carry an
+ * ETag built from their size and modification time plus Last-Modified for conditional requests.
+ */
+final class StaticFileRoot {
+
+    private final Path root;
+
+    /**
+     * @throws IOException if {@code dir} does not exist
+     * @throws IllegalArgumentException if {@code dir} is not a directory
+     */
+    StaticFileRoot(Path dir) throws IOException {
+        this.root = dir.toRealPath();
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Not a directory: " + dir);
+        }
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Answer a request for {@code path} (decoded, starting with '/') from this directory.
+     *
+     * @return false, without writing anything, if there is no regular file for the path under the root
+     */
+    boolean serve(HttpRequest req, String path, OutputStream os, boolean keepAlive) throws IOException {
+        Path file = resolve(path);
+        if (file == null) {
+            return false;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!attrs.isRegularFile()) {
+            return false;
+        }
+
+        long length = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+        String validators = "ETag: " + etag + "\r\n"
+                + "Last-Modified: " + StaticResourceCache.httpDate(lastModified) + "\r\n"
+                + "Accept-Ranges: bytes\r\n";
+        String connection = "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+
+        if (StaticResourceCache.notModified(req, etag, lastModified)) {
+            os.write(("HTTP/1.1 304 Not Modified\r\n" + validators + connection).getBytes(StandardCharsets.US_ASCII));
+            Metrics.status(304);
+            return true;
+        }
+
+        long start = 0;
+        long count = length;
+        int status = 200;
+        String contentRange = "";
+        String range = req.getHeader("range");
+        if (range != null && ifRangeMatches(req.getHeader("if-range"), etag, lastModified)) {
+            long[] r = parseRange(range, length);
+            if (r == UNSATISFIABLE) {
+                HttpServer.writeResponse(os, 416, "text/plain", "Content-Range: bytes */" + length + "\r\n",
+                        "Range Not Satisfiable".getBytes(StandardCharsets.UTF_8), keepAlive);
+                return true;
+            }
+            if (r != null) {
+                start = r[0];
+                count = r[1] - r[0] + 1;
+                status = 206;
+                contentRange = "Content-Range: bytes " + r[0] + "-" + r[1] + "/" + length + "\r\n";
+            }
+        }
+
+        String header = "HTTP/1.1 " + status + " " + HttpServer.reasonPhrase(status) + "\r\n"
+                + "Content-Type: " + HttpServer.guessContentType(path) + "\r\n"
+                + "Content-Length: " + count + "\r\n"
+                + contentRange
+                + validators
+                + connection;
+        os.write(header.getBytes(StandardCharsets.US_ASCII));
+        Metrics.status(status);
+        if (req.getMethod().equals("HEAD")) {
+            return true;
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        if (os instanceof FileSender sender) {
+            sender.sendFile(channel, start, count);
+        } else {
+            try (channel) {
+                WritableByteChannel target = Channels.newChannel(os);
+                while (count > 0) {
+                    long n = channel.transferTo(start, count, target);
+                    if (n <= 0) {
+                        throw new EOFException("File truncated: " + file);
+                    }
+                    start += n;
+                    count -= n;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the real path of the file for {@code path}, or null if it does not exist or lies
+     * outside the root (through {@code ..} segments or a symbolic link)
+     */
+    private Path resolve(String path) throws IOException {
+        if (path.indexOf('\0') >= 0) {
+            return null;
+        }
+        try {
+            Path file = root.resolve(path.substring(1)).normalize();
+            if (!file.startsWith(root)) {
+                return null;
+            }
+            file = file.toRealPath();
+            return file.startsWith(root) ? file : null;
+        } catch (InvalidPathException | NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * Parse a single {@code bytes=first-last}, {@code bytes=first-} or {@code bytes=-suffix} range.
+     *
+     * @return {first, last} clamped to the file, {@link #UNSATISFIABLE}, or null to ignore the
+     * header and send the whole file (other units, several ranges or a malformed value)
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A Range only applies if the If-Range validator, when present, still matches the file.
+     */
+    private static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        return !ifRange.startsWith("W/") && StaticResourceCache.notModifiedSince(ifRange, lastModified);
+    }
+
+}
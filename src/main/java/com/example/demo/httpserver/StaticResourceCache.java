@@ -0,0 +1,327 @@
+package com.example.demo.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Size-bounded LRU cache of classpath static resources. Each entry keeps the body together with
+ * its response headers already encoded, a strong ETag and a Last-Modified date, so a hit is two
+ * buffer writes and conditional requests can be answered with 304 without touching the body.
+ * <p>
+ * Text-like files of at least {@code server.static.gzipMinBytes} also get a gzip variant, taken
+ * from a {@code .gz} file next to the resource when one is shipped and compressed once on load
+ * otherwise. Clients whose Accept-Encoding allows gzip are sent that variant, and both carry
+ * {@code Vary: Accept-Encoding}.
+ */
+public final class StaticResourceCache {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+    private static final long STARTED = System.currentTimeMillis() / 1000 * 1000;
+
+    /**
+     * One encoding of a resource: its body, its strong ETag and its ready-to-send headers.
+     */
+    static final class Variant {
+        final byte[] body;
+        final String etag;
+        private final byte[] okKeepAlive;
+        private final byte[] okClose;
+        private final byte[] notModifiedKeepAlive;
+        private final byte[] notModifiedClose;
+
+        Variant(byte[] body, String etag, String contentType, String encoding, boolean vary, long lastModified) {
+            this.body = body;
+            this.etag = etag;
+            String validators = "ETag: " + etag + "\r\n"
+                    + "Last-Modified: " + httpDate(lastModified) + "\r\n"
+                    + (vary ? "Vary: Accept-Encoding\r\n" : "");
+            String ok = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + (encoding != null ? "Content-Encoding: " + encoding + "\r\n" : "")
+                    + "Content-Length: " + body.length + "\r\n"
+                    + validators;
+            String notModified = "HTTP/1.1 304 Not Modified\r\n" + validators;
+            this.okKeepAlive = (ok + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.okClose = (ok + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.notModifiedKeepAlive = (notModified + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.notModifiedClose = (notModified + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        byte[] header(boolean keepAlive) {
+            return keepAlive ? okKeepAlive : okClose;
+        }
+
+        byte[] notModifiedHeader(boolean keepAlive) {
+            return keepAlive ? notModifiedKeepAlive : notModifiedClose;
+        }
+
+        int weight() {
+            return body.length + okKeepAlive.length * 4;
+        }
+    }
+
+    /** A cached resource: the identity variant and, for compressible files, a gzip one. */
+    static final class Entry {
+        final String contentType;
+        final long lastModified;
+        final Variant identity;
+        final Variant gzip;
+
+        Entry(byte[] body, byte[] gzipBody, String contentType, long lastModified) {
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            String etag = strongEtag(body);
+            boolean vary = gzipBody != null;
+            this.identity = new Variant(body, "\"" + etag + "\"", contentType, null, vary, lastModified);
+            this.gzip = gzipBody == null ? null
+                    : new Variant(gzipBody, "\"" + etag + "-gz\"", contentType, "gzip", vary, lastModified);
+        }
+
+        /**
+         * @return the gzip variant if there is one and the request's Accept-Encoding allows it,
+         * the identity variant otherwise
+         */
+        Variant select(HttpRequest req) {
+            return gzip != null && acceptsGzip(req.getHeader("accept-encoding")) ? gzip : identity;
+        }
+
+        /**
+         * Whether the request's validators show the client already has {@code variant}.
+         */
+        boolean notModified(HttpRequest req, Variant variant) {
+            return StaticResourceCache.notModified(req, variant.etag, lastModified);
+        }
+
+        int weight() {
+            return identity.weight() + (gzip != null ? gzip.weight() : 0);
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final int gzipMinBytes;
+
+    StaticResourceCache(long maxBytes, long maxEntryBytes, int gzipMinBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.gzipMinBytes = gzipMinBytes;
+    }
+
+    /**
+     * @param resourcePath classpath path such as {@code webroot/index.html}
+     * @return the cached or freshly loaded entry, or null if there is no such resource
+     */
+    Entry get(String resourcePath) throws IOException {
+        synchronized (this) {
+            Entry e = entries.get(resourcePath);
+            if (e != null) {
+                hits.increment();
+                return e;
+            }
+        }
+        misses.increment();
+
+        URL url = HttpServer.class.getClassLoader().getResource(resourcePath);
+        if (url == null) {
+            return null;
+        }
+        URLConnection conn = url.openConnection();
+        conn.setUseCaches(false);
+        long lastModified = conn.getLastModified();
+        byte[] body;
+        try (InputStream is = conn.getInputStream()) {
+            body = is.readAllBytes();
+        }
+        String contentType = HttpServer.guessContentType(resourcePath);
+        byte[] gzipBody = null;
+        if (body.length >= gzipMinBytes && isCompressible(contentType)) {
+            gzipBody = precompressed(resourcePath);
+            if (gzipBody == null) {
+                gzipBody = gzip(body);
+            }
+            if (gzipBody.length >= body.length) {
+                gzipBody = null;
+            }
+        }
+        Entry e = new Entry(body, gzipBody, contentType, lastModified > 0 ? lastModified : STARTED);
+        if (e.weight() <= maxEntryBytes) {
+            put(resourcePath, e);
+        }
+        return e;
+    }
+
+    private synchronized void put(String key, Entry e) {
+        Entry previous = entries.put(key, e);
+        if (previous != null) {
+            bytes -= previous.weight();
+        }
+        bytes += e.weight();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.weight();
+            evictions.increment();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Bytes held by cached bodies and headers. */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether the request's validators match a representation with {@code etag} last modified
+     * at {@code lastModified}: If-None-Match wins over If-Modified-Since, as RFC 9110 requires.
+     */
+    static boolean notModified(HttpRequest req, String etag, long lastModified) {
+        String inm = req.getHeader("if-none-match");
+        if (inm != null) {
+            for (String tag : inm.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ims = req.getHeader("if-modified-since");
+        return ims != null && notModifiedSince(ims, lastModified);
+    }
+
+    /**
+     * @return whether {@code lastModified} is not later than the HTTP date {@code since}
+     * (compared in whole seconds); false if the date cannot be parsed
+     */
+    static boolean notModifiedSince(String since, long lastModified) {
+        try {
+            long millis = ZonedDateTime.parse(since, HTTP_DATE).toInstant().toEpochMilli();
+            return lastModified / 1000 <= millis / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /** Format epoch millis as an HTTP date, e.g. {@code Tue, 3 Jun 2008 11:05:30 GMT}. */
+    static String httpDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * Whether an Accept-Encoding value allows gzip: listed (or covered by {@code *}) without
+     * {@code q=0}.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String coding : acceptEncoding.split(",")) {
+            int semi = coding.indexOf(';');
+            String name = (semi < 0 ? coding : coding.substring(0, semi)).trim();
+            boolean refused = semi >= 0 && isZeroQuality(coding.substring(semi + 1));
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                return !refused;
+            }
+            if (name.equals("*")) {
+                wildcard = !refused;
+            }
+        }
+        return wildcard;
+    }
+
+    private static boolean isZeroQuality(String params) {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.regionMatches(true, 0, "q=", 0, 2)) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) == 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Text-like types; images, archives and fonts are already compressed. */
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json") || contentType.startsWith("image/svg+xml");
+    }
+
+    /**
+     * @return the contents of a {@code .gz} file shipped next to the resource, or null
+     */
+    private static byte[] precompressed(String resourcePath) throws IOException {
+        try (InputStream is = HttpServer.class.getClassLoader().getResourceAsStream(resourcePath + ".gz")) {
+            return is != null ? is.readAllBytes() : null;
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 3 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gz.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static String strongEtag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
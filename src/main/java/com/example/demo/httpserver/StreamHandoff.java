@@ -0,0 +1,19 @@
+package com.example.demo.httpserver;
+
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+/**
+ * A response output whose connection can be given away once the response has been handled, for
+ * a response that outlives its request, such as an event stream. The engine then neither reads
+ * further requests from the connection nor closes it.
+ */
+interface StreamHandoff {
+
+    /**
+     * After the current response, pass the connection's channel, in non-blocking mode, to
+     * {@code target}, which owns it from then on. Bytes written to the output before this are sent first.
+     */
+    void handOff(Consumer<SocketChannel> target);
+
+}
@@ -0,0 +1,110 @@
+package com.example.demo.httpserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes connection (blocking engine) or request (nio engine) tasks in the mode chosen with
+ * {@code server.execution}:
+ * <ul>
+ * <li>{@code platform}: a fixed pool of {@code server.workerThreads} threads with a queue of at
+ * most {@code server.workerQueue} waiting tasks</li>
+ * <li>{@code virtual}: one virtual thread per task, at most {@code server.virtual.maxConcurrent}
+ * at a time</li>
+ * </ul>
+ * Tasks beyond those bounds are rejected so the engine can answer 503 instead of queuing them.
+ */
+public final class WorkerPool {
+
+    private final String mode;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    private WorkerPool(String mode, ExecutorService executor, int maxPending) {
+        this.mode = mode;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    static WorkerPool create() {
+        if ("virtual".equalsIgnoreCase(ServerConfig.executionMode)) {
+            return new WorkerPool("virtual", Executors.newVirtualThreadPerTaskExecutor(), ServerConfig.virtualMaxConcurrent);
+        }
+        int threads = Math.max(1, ServerConfig.workerThreads);
+        BlockingQueue<Runnable> queue = ServerConfig.workerQueue > 0
+                ? new ArrayBlockingQueue<>(ServerConfig.workerQueue)
+                : new SynchronousQueue<>();
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                new ThreadPoolExecutor.AbortPolicy());
+        return new WorkerPool("platform", executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Run a task unless the pool is saturated.
+     *
+     * @return false when the task was rejected
+     */
+    public boolean execute(Runnable task) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                active.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                    pending.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /** Whether tasks share a fixed number of threads, so that a task waiting idle keeps another from running. */
+    boolean hasFixedThreads() {
+        return mode.equals("platform");
+    }
+
+    /** Tasks currently running. */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /** Tasks accepted but still waiting for a thread. */
+    public int getQueuedCount() {
+        return Math.max(0, pending.get() - active.get());
+    }
+
+    /** Tasks turned away because the pool was saturated. */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    void shutdown() {
+        HttpServer.shutdownPool(executor);
+    }
+
+}
@@ -0,0 +1,377 @@
+package com.example.demo.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes the binary names of all {@code @RestController} classes to
+ * {@value #INDEX}, one per line, so the server can register controllers at startup without
+ * scanning the class path.
+ * <p>
+ * For each controller it can call directly, it also generates {@code <Controller>_Routes}, a
+ * {@code ControllerRoutes} that creates the controller, describes its routes and calls its
+ * methods without reflection, and lists it in {@value #SERVICES}. Controllers without a non-private
+ * no-arg constructor, or with private mapped methods, are left to reflective registration.
+ * <p>
+ * Entries from a previous (incremental) compilation are kept as long as the class still exists
+ * and is still a controller. Mapped methods outside a controller are reported as warnings, since
+ * they would never be registered.
+ */
+@SupportedAnnotationTypes({ControllerIndexProcessor.REST_CONTROLLER, ControllerIndexProcessor.GET_MAPPING,
+        ControllerIndexProcessor.POST_MAPPING})
+public class ControllerIndexProcessor extends AbstractProcessor {
+
+    /** Class path resource holding the index; read by {@code HttpServer.loadServices}. */
+    public static final String INDEX = "META-INF/microspring/controllers";
+
+    /** Service file listing the generated route classes; read with {@code ServiceLoader}. */
+    public static final String SERVICES = "META-INF/services/com.example.demo.httpserver.ControllerRoutes";
+
+    static final String REST_CONTROLLER = "com.example.demo.annotations.RestController";
+    static final String GET_MAPPING = "com.example.demo.annotations.GetMapping";
+    static final String POST_MAPPING = "com.example.demo.annotations.PostMapping";
+
+    private static final String ANNOTATIONS = "com.example.demo.annotations.";
+    private static final String HTTP_SERVER = "com.example.demo.httpserver.";
+
+    private final Set<String> controllers = new TreeSet<>();
+    private final Set<String> generated = new TreeSet<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        readPreviousIndex();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            writeServices();
+            return false;
+        }
+        TypeElement restController = processingEnv.getElementUtils().getTypeElement(REST_CONTROLLER);
+        if (restController != null) {
+            for (Element e : roundEnv.getElementsAnnotatedWith(restController)) {
+                if (e.getKind() != ElementKind.CLASS || e.getModifiers().contains(Modifier.ABSTRACT)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "@RestController is only registered on concrete classes", e);
+                    continue;
+                }
+                controllers.add(processingEnv.getElementUtils().getBinaryName((TypeElement) e).toString());
+                generateRoutes((TypeElement) e);
+            }
+        }
+        for (String mapping : List.of(GET_MAPPING, POST_MAPPING)) {
+            TypeElement annotation = processingEnv.getElementUtils().getTypeElement(mapping);
+            if (annotation == null) {
+                continue;
+            }
+            for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (!isController(e.getEnclosingElement())) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "@" + annotation.getSimpleName()
+                            + " method is not in a @RestController class and will not be registered", e);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the {@code ControllerRoutes} of {@code controller}, unless the generated class could
+     * not create it or call one of its mapped methods.
+     */
+    private void generateRoutes(TypeElement controller) {
+        for (Element e = controller; e.getKind().isClass() || e.getKind().isInterface(); e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)
+                    || (((TypeElement) e).getNestingKind() == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC))
+                    || ((TypeElement) e).getNestingKind().compareTo(NestingKind.MEMBER) > 0) {
+                note(controller, "it or a class enclosing it is private or not static");
+                return;
+            }
+        }
+        boolean constructor = false;
+        for (ExecutableElement c : ElementFilter.constructorsIn(controller.getEnclosedElements())) {
+            constructor |= c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE);
+        }
+        if (!constructor) {
+            note(controller, "it has no non-private constructor without parameters");
+            return;
+        }
+
+        Types types = processingEnv.getTypeUtils();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(controller).toString();
+        String pkg = processingEnv.getElementUtils().getPackageOf(controller).getQualifiedName().toString();
+        String simpleName = (pkg.isEmpty() ? binaryName : binaryName.substring(pkg.length() + 1)).replace('$', '_') + "_Routes";
+        String controllerType = controller.getQualifiedName().toString();
+
+        StringBuilder routes = new StringBuilder();
+        StringBuilder cases = new StringBuilder();
+        int index = 0;
+        for (ExecutableElement m : ElementFilter.methodsIn(controller.getEnclosedElements())) {
+            List<String> httpMethods = new ArrayList<>();
+            List<String> paths = new ArrayList<>();
+            for (String mapping : List.of(GET_MAPPING, POST_MAPPING)) {
+                Map<String, Object> values = annotation(m, mapping);
+                if (values != null) {
+                    httpMethods.add(mapping.equals(GET_MAPPING) ? "GET" : "POST");
+                    paths.add((String) values.get("value"));
+                }
+            }
+            if (httpMethods.isEmpty()) {
+                continue;
+            }
+            if (m.getModifiers().contains(Modifier.PRIVATE)) {
+                note(controller, m.getSimpleName() + " is private");
+                return;
+            }
+
+            StringBuilder route = new StringBuilder();
+            TypeMirror returnType = m.getReturnType();
+            route.append(classLiteral(returnType)).append(')');
+            TypeMirror stage = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.concurrent.CompletionStage").asType());
+            if (returnType.getKind() == TypeKind.DECLARED && types.isAssignable(types.erasure(returnType), stage)) {
+                List<? extends TypeMirror> args = ((DeclaredType) returnType).getTypeArguments();
+                route.append("\n                        .async(")
+                        .append(args.size() == 1 && args.get(0).getKind() == TypeKind.DECLARED ? classLiteral(args.get(0)) : "Object.class")
+                        .append(')');
+            }
+            StringBuilder call = new StringBuilder();
+            List<? extends VariableElement> params = m.getParameters();
+            for (int i = 0; i < params.size(); i++) {
+                VariableElement param = params.get(i);
+                TypeMirror type = param.asType();
+                String erasure = types.erasure(type).toString();
+                Map<String, Object> requestParam = annotation(param, ANNOTATIONS + "RequestParam");
+                Map<String, Object> pathVariable = annotation(param, ANNOTATIONS + "PathVariable");
+                route.append("\n                        .");
+                if (erasure.equals(HTTP_SERVER + "HttpRequest")) {
+                    route.append("request()");
+                } else if (erasure.equals(HTTP_SERVER + "HttpResponse")) {
+                    route.append("response()");
+                } else if (annotation(param, ANNOTATIONS + "RequestBody") != null) {
+                    route.append("body(").append(classLiteral(type)).append(')');
+                } else if (requestParam != null) {
+                    String element = "null";
+                    if (erasure.equals("java.util.List") || erasure.equals("java.util.Collection") || erasure.equals("java.lang.Iterable")) {
+                        List<? extends TypeMirror> args = ((DeclaredType) type).getTypeArguments();
+                        element = args.size() == 1 && args.get(0).getKind() == TypeKind.DECLARED ? classLiteral(args.get(0)) : "String.class";
+                    }
+                    route.append("param(").append(constant(requestParam.get("value"))).append(", ").append(classLiteral(type))
+                            .append(", ").append(element).append(", ").append(constant(requestParam.get("defaultValue"))).append(')');
+                } else if (pathVariable != null) {
+                    route.append("pathVariable(").append(constant(pathVariable.get("value"))).append(", ")
+                            .append(classLiteral(type)).append(')');
+                } else {
+                    route.append("unbound(").append(classLiteral(type)).append(')');
+                }
+                call.append(i > 0 ? ", " : "").append('(').append(type.getKind().isPrimitive()
+                        ? types.boxedClass((PrimitiveType) type).getQualifiedName() : erasure).append(") args[").append(i).append(']');
+            }
+            Map<String, Object> timeout = annotation(m, ANNOTATIONS + "Timeout");
+            if (timeout != null) {
+                route.append("\n                        .timeout(").append(constant(timeout.get("millis"))).append(')');
+            }
+            Map<String, Object> rateLimit = annotation(m, ANNOTATIONS + "RateLimit");
+            if (rateLimit != null) {
+                route.append("\n                        .rateLimit(").append(constant(rateLimit.get("perSecond"))).append(", ")
+                        .append(constant(rateLimit.get("burst"))).append(')');
+            }
+            Map<String, Object> cacheable = annotation(m, ANNOTATIONS + "Cacheable");
+            if (cacheable != null) {
+                route.append("\n                        .cacheable(").append(constant(cacheable.get("ttlSeconds"))).append(", ")
+                        .append(constant(cacheable.get("maxEntries"))).append(", ").append(constant(cacheable.get("maxBytes"))).append(')');
+            }
+
+            String target = (m.getModifiers().contains(Modifier.STATIC) ? controllerType : "controller")
+                    + "." + m.getSimpleName() + "(" + call + ")";
+            for (int i = 0; i < httpMethods.size(); i++) {
+                routes.append(index > 0 ? ",\n" : "").append("                new Route(\"").append(httpMethods.get(i)).append("\", ")
+                        .append(constant(paths.get(i))).append(", ").append(constant(binaryName + "." + m.getSimpleName()))
+                        .append(", ").append(route);
+                cases.append("            case ").append(index++).append(" -> ");
+                if (m.getReturnType().getKind() == TypeKind.VOID) {
+                    cases.append("{\n                ").append(target).append(";\n                yield null;\n            }\n");
+                } else {
+                    cases.append(target).append(";\n");
+                }
+            }
+        }
+
+        String source = (pkg.isEmpty() ? "" : "package " + pkg + ";\n\n")
+                + "import " + HTTP_SERVER + "ControllerRoutes;\n"
+                + "import java.util.List;\n\n"
+                + "/** Routes of {@link " + controllerType + "}; generated by " + getClass().getSimpleName() + ". */\n"
+                + "@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n"
+                + "public final class " + simpleName + " implements ControllerRoutes {\n\n"
+                + "    private final " + controllerType + " controller = new " + controllerType + "();\n\n"
+                + "    @Override\n"
+                + "    public Class<?> controller() {\n"
+                + "        return " + controllerType + ".class;\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public List<Route> routes() {\n"
+                + "        return List.of(\n" + routes + ");\n"
+                + "    }\n\n"
+                + "    @Override\n"
+                + "    public Object invoke(int index, Object[] args) throws Throwable {\n"
+                + "        return switch (index) {\n" + cases
+                + "            default -> throw new IndexOutOfBoundsException(index);\n"
+                + "        };\n"
+                + "    }\n\n"
+                + "}\n";
+        String name = pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(name, controller);
+            try (Writer w = file.openWriter()) {
+                w.write(source);
+            }
+            generated.add(name);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + name + ": " + e.getMessage(), controller);
+        }
+    }
+
+    private void note(TypeElement controller, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "No generated routes for " + controller.getQualifiedName() + ": " + reason + "; it is registered reflectively", controller);
+    }
+
+    /**
+     * @return the values of the annotation {@code type} on {@code e}, defaults included, by name; null if it is absent
+     */
+    private Map<String, Object> annotation(Element e, String type) {
+        for (AnnotationMirror a : e.getAnnotationMirrors()) {
+            if (((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().contentEquals(type)) {
+                Map<String, Object> values = new HashMap<>();
+                for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> v
+                        : processingEnv.getElementUtils().getElementValuesWithDefaults(a).entrySet()) {
+                    values.put(v.getKey().getSimpleName().toString(), v.getValue().getValue());
+                }
+                return values;
+            }
+        }
+        return null;
+    }
+
+    private String constant(Object value) {
+        return processingEnv.getElementUtils().getConstantExpression(value);
+    }
+
+    private String classLiteral(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString() + ".class";
+    }
+
+    private boolean isController(Element e) {
+        if (e == null) {
+            return false;
+        }
+        for (AnnotationMirror a : e.getAnnotationMirrors()) {
+            if (((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().contentEquals(REST_CONTROLLER)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readPreviousIndex() {
+        try {
+            FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(previous.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    TypeElement type = line.isEmpty() ? null
+                            : processingEnv.getElementUtils().getTypeElement(line.replace('$', '.'));
+                    if (type != null && isController(type)) {
+                        controllers.add(line);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no index from an earlier compilation
+        }
+    }
+
+    private void writeServices() {
+        try {
+            FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(previous.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    // route classes of controllers not recompiled this time
+                    if (!line.isEmpty() && processingEnv.getElementUtils().getTypeElement(line) != null) {
+                        generated.add(line);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no service file from an earlier compilation
+        }
+        try {
+            FileObject services = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+            try (Writer w = services.openWriter()) {
+                for (String name : generated) {
+                    w.write(name);
+                    w.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + SERVICES + ": " + e.getMessage());
+        }
+    }
+
+    private void writeIndex() {
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (Writer w = index.openWriter()) {
+                for (String name : controllers) {
+                    w.write(name);
+                    w.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + INDEX + ": " + e.getMessage());
+        }
+    }
+
+}
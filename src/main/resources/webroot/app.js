@@ -25,6 +25,33 @@ function loadPostMsg(inp) {
     });
 }
 
+// Eventos del servidor: EventSource mantiene la conexión y se reconecta solo (con Last-Event-ID)
+function subscribeEvents() {
+  if (!window.EventSource) {
+    return;
+  }
+  const clock = new EventSource("/app/events/clock");
+  clock.addEventListener("tick", (e) => {
+    document.getElementById("clock").innerText = e.data;
+  });
+  const messages = new EventSource("/app/events");
+  messages.onmessage = (e) => {
+    const panel = document.getElementById("messages");
+    const line = document.createElement("div");
+    line.innerText = "#" + e.lastEventId + ": " + e.data;
+    panel.prepend(line);
+  };
+}
+
+// Publica un mensaje para todos los clientes conectados a /app/events
+function sendMessage() {
+  const text = document.getElementById("message").value;
+  fetch("/app/events", { method: "POST", headers: { "Content-Type": "text/plain" }, body: text })
+    .catch((err) => {
+      document.getElementById("messages").innerText = "Error: " + err;
+    });
+}
+
 // Función para apagar el servidor
 function shutdownServer() {
   const shutdownMsg = document.getElementById("shutdownmsg");
@@ -57,6 +84,7 @@ function shutdownServer() {
 // Framework Demo functionality
 document.addEventListener('DOMContentLoaded', function() {
     console.log('🚀 Combined Web Framework Demo loaded!');
+    subscribeEvents();
     
     // Add click handlers to API links
     const apiLinks = document.querySelectorAll('.endpoint a');
@@ -1,9 +1,35 @@
 package com.example.demo;
 
+import com.example.demo.annotations.Cacheable;
+import com.example.demo.annotations.GetMapping;
+import com.example.demo.annotations.RateLimit;
+import com.example.demo.annotations.RequestParam;
+import com.example.demo.annotations.RestController;
+import com.example.demo.examples.GreetingController;
+import com.example.demo.httpserver.ControllerRoutes;
+import com.example.demo.httpserver.EventStream;
 import com.example.demo.httpserver.HttpServer;
+import com.example.demo.httpserver.Json;
+import com.example.demo.httpserver.Metrics;
+import com.example.demo.httpserver.QueryParameters;
+import com.example.demo.httpserver.ResponseCache;
+import com.example.demo.httpserver.ServerConfig;
+import com.example.demo.httpserver.StaticResourceCache;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
 import java.net.URI;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -18,6 +44,269 @@ public class HttpServerMoreTests {
         assertTrue(resp.contains("Hola World"), "Expected default greeting when no name provided");
     }
 
+    @Test
+    void testPathVariableIsBoundFromRoute() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.GreetingController"});
+        String resp = HttpServer.invokeService(new URI("/app/greeting/Ana%20Maria"));
+        assertTrue(resp.contains("Hola Ana Maria"), "Expected {name} path variable to be decoded and bound");
+    }
+
+    @Test
+    void testInvokeServiceAnswersUnknownRoutesAndMethodsLikeTheEngines() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.GreetingController"});
+        String missing = HttpServer.invokeService(new URI("/app/no-such-route"));
+        assertTrue(missing.startsWith("HTTP/1.1 404 Not Found\r\n"), missing);
+        assertTrue(missing.endsWith("\r\n\r\nNot Found"), missing);
+        String wrongMethod = HttpServer.invokeService("DELETE", new URI("/app/greeting/Ana"), null);
+        assertTrue(wrongMethod.startsWith("HTTP/1.1 405 Method Not Allowed\r\n"), wrongMethod);
+        assertEquals("GET, HEAD", header(wrongMethod, "Allow"));
+    }
+
+    @Test
+    void testStreamedResponseIsChunkedOnlyWhenLarge() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.NumbersController"});
+        String small = HttpServer.invokeService(new URI("/app/numbers?count=3"));
+        assertTrue(small.contains("Content-Length: 21"), "A small body should be sent with a Content-Length");
+        assertTrue(small.endsWith("3,9\n"));
+        String large = HttpServer.invokeService(new URI("/app/numbers?count=5000"));
+        assertTrue(large.contains("Transfer-Encoding: chunked"), "A large body should be streamed in chunks");
+        assertTrue(large.endsWith("5000,25000000\n\r\n0\r\n\r\n"), "The chunked body should end with the last chunk");
+    }
+
+    @Test
+    void testTypedParameterIsConvertedOrRejected() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.NumbersController"});
+        assertTrue(HttpServer.invokeService(new URI("/app/numbers?count=2")).endsWith("2,4\n"));
+        assertTrue(HttpServer.invokeService(new URI("/app/numbers?count=%32")).endsWith("2,4\n"),
+                "An encoded number should be decoded before it is parsed");
+        assertTrue(HttpServer.invokeService(new URI("/app/numbers?count=")).endsWith("10,100\n"),
+                "An empty value should take the default");
+        String bad = HttpServer.invokeService(new URI("/app/numbers?count=ten"));
+        assertTrue(bad.startsWith("HTTP/1.1 400"), "A value that is not a number should be a 400");
+        assertTrue(bad.contains("count"), "The 400 should name the parameter");
+    }
+
+    @Test
+    void testRecordResultIsSentAsJson() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.GreetingController"});
+        String resp = HttpServer.invokeService(new URI("/app/json/greeting?name=Ana%22s"));
+        assertTrue(resp.contains("Content-Type: application/json"), "A record result should be sent as JSON");
+        assertTrue(resp.endsWith(",\"content\":\"Hello, Ana\\\"s!\"}"), "Expected the record components, escaped");
+    }
+
+    @Test
+    void testJsonLargerThanTheFirstBufferIsWrittenWhole() {
+        List<String> items = new ArrayList<>();
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            items.add("item \"" + i + "\"");
+            expected.append(i > 0 ? "," : "").append("\"item \\\"").append(i).append("\\\"\"");
+        }
+        assertEquals(expected.append(']').toString(), Json.toJson(items),
+                "A document that outgrows the first buffer should continue in the pooled one");
+    }
+
+    @Test
+    void testFutureResultIsAwaitedOrTimesOut() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.GreetingController"});
+        String resp = HttpServer.invokeService(new URI("/app/async/greeting?name=Ana&delayMs=10"));
+        assertTrue(resp.endsWith("\"content\":\"Hello, Ana!\"}"), "Expected the value the future completed with");
+        String late = HttpServer.invokeService(new URI("/app/async/greeting?delayMs=5000"));
+        assertTrue(late.startsWith("HTTP/1.1 504"), "A future slower than the route's @Timeout should be a 504");
+    }
+
+    @Test
+    void testPostBodyIsBoundToParameter() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.UploadController"});
+        String resp = HttpServer.invokeService("POST", new URI("/app/upload"), "abc".getBytes());
+        assertTrue(resp.endsWith("{\"bytes\":3,\"crc32\":\"352441c2\"}"), "Expected the size and checksum of the body");
+        String echo = HttpServer.invokeService("POST", new URI("/app/echo"), "héllo".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        assertTrue(echo.endsWith("héllo"), "Expected the body decoded as UTF-8");
+    }
+
+    @Test
+    void testEnginesReadChunkedAndSpilledBodies(@TempDir Path dir) throws Exception {
+        int memory = ServerConfig.bodyMemoryBytes;
+        String tempDir = ServerConfig.bodyTempDir;
+        long maxBody = ServerConfig.maxBodyBytes;
+        ServerConfig.bodyMemoryBytes = 1024;
+        ServerConfig.bodyTempDir = dir.toString();
+        ServerConfig.maxBodyBytes = 1_000_000;
+        byte[] large = new byte[200_000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i * 31 + i / 7);
+        }
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(large);
+        String largeUpload = "{\"bytes\":200000,\"crc32\":\"" + Long.toHexString(crc.getValue()) + "\"}";
+        try {
+            for (String engine : new String[]{"blocking", "nio"}) {
+                int port = startServer(engine, "com.example.demo.examples.UploadController", "com.example.demo.examples.GreetingController");
+                try {
+                    // chunk extensions and trailer fields are read past; the next request follows the last chunk
+                    String chunked = exchange(port, "POST /app/upload HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                            + "2;note=x\r\nab\r\n1\r\nc\r\n0\r\nX-Checksum: 352441c2\r\n\r\n"
+                            + "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                    assertTrue(chunked.contains("{\"bytes\":3,\"crc32\":\"352441c2\"}"), engine + ": " + chunked);
+                    assertTrue(chunked.endsWith("Hola World"), engine + ": the pipelined request should follow the trailer");
+
+                    try (Socket socket = new Socket("127.0.0.1", port)) {
+                        socket.setSoTimeout(10000);
+                        java.io.OutputStream out = socket.getOutputStream();
+                        out.write(("POST /app/upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + large.length + "\r\n\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                        out.write(large, 0, 100_000);
+                        waitUntil(() -> countFiles(dir) == 1);
+                        out.write(large, 100_000, large.length - 100_000);
+                        assertTrue(readResponse(socket).endsWith(largeUpload), engine + ": the spilled body should be read whole");
+                        waitUntil(() -> countFiles(dir) == 0);
+
+                        // a chunked body spills once it outgrows memory
+                        out.write("POST /app/upload HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+                                .getBytes(StandardCharsets.US_ASCII));
+                        for (int off = 0; off < large.length; off += 50_000) {
+                            out.write((Integer.toHexString(50_000) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                            out.write(large, off, 50_000);
+                            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                        }
+                        out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                        assertTrue(readResponse(socket).endsWith(largeUpload), engine + ": the spilled chunked body should be read whole");
+                        waitUntil(() -> countFiles(dir) == 0);
+                    }
+
+                    String tooLarge = exchange(port, "POST /app/upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2000000\r\n\r\n");
+                    assertTrue(tooLarge.startsWith("HTTP/1.1 413"), engine + ": a declared length over the limit should be refused unread");
+
+                    try (Socket socket = new Socket("127.0.0.1", port)) {
+                        socket.setSoTimeout(10000);
+                        socket.getOutputStream().write("POST /app/upload HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 3\r\n\r\n"
+                                .getBytes(StandardCharsets.US_ASCII));
+                        assertEquals("HTTP/1.1 100 Continue\r\n\r\n", readResponse(socket), engine + ": the client should be told to send the body");
+                        socket.getOutputStream().write("abc".getBytes(StandardCharsets.US_ASCII));
+                        assertTrue(readResponse(socket).endsWith("{\"bytes\":3,\"crc32\":\"352441c2\"}"), engine);
+                    }
+
+                    String ambiguous = exchange(port, "POST /app/upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n"
+                            + "Transfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n0\r\n\r\n");
+                    assertTrue(ambiguous.startsWith("HTTP/1.1 400"), engine + ": a body framed two ways should be refused");
+                } finally {
+                    HttpServer.stop();
+                }
+            }
+        } finally {
+            ServerConfig.bodyMemoryBytes = memory;
+            ServerConfig.bodyTempDir = tempDir;
+            ServerConfig.maxBodyBytes = maxBody;
+        }
+    }
+
+    @Test
+    void testConflictingContentLengthsAre400() throws Exception {
+        for (String engine : new String[]{"blocking", "nio"}) {
+            int port = startServer(engine, "com.example.demo.examples.UploadController");
+            try {
+                String resp = exchange(port, "POST /app/upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n"
+                        + "Content-Length: 30\r\n\r\nabc");
+                assertTrue(resp.startsWith("HTTP/1.1 400"), engine + ": a body with two lengths should be refused: " + resp);
+            } finally {
+                HttpServer.stop();
+            }
+        }
+    }
+
+    @Test
+    void testMetricsCountRouteRequests() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.NumbersController"});
+        HttpServer.invokeService(new URI("/app/numbers?count=1"));
+        String metrics = Metrics.render();
+        assertTrue(metrics.contains("http_server_route_requests_total{method=\"GET\",route=\"/numbers\"}"), "Expected a request counter for /numbers");
+        assertTrue(metrics.contains("# TYPE http_server_phase_seconds histogram"));
+        assertTrue(metrics.contains("http_server_phase_seconds_bucket{phase=\"invoke\",le=\"0.001\"}"));
+        String total = sampleValue(metrics, "http_server_route_seconds_count{method=\"GET\",route=\"/numbers\"}");
+        assertNotNull(total, "Expected a latency count for /numbers");
+        assertEquals(total, sampleValue(metrics, "http_server_route_seconds_bucket{method=\"GET\",route=\"/numbers\",le=\"+Inf\"}"),
+                "The +Inf bucket should hold every request");
+        assertTrue(metrics.contains("http_server_responses_total{status=\"200\"}"));
+    }
+
+    @Test
+    void testCacheableRouteAnswersRepeatedParametersFromTheCache() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.GreetingController"});
+        ResponseCache cache = HttpServer.getResponseCaches().get("/greeting");
+        assertNotNull(cache, "The @Cacheable route should have a response cache");
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        String first = HttpServer.invokeService(new URI("/app/greeting?name=Cached"));
+        String second = HttpServer.invokeService(new URI("/app/greeting?name=Cached"));
+        assertTrue(first.startsWith("HTTP/1.1 200") && first.endsWith("Hola Cached"));
+        assertEquals(first, second, "A hit should answer with the response of the miss");
+        assertEquals(misses + 1, cache.getMisses(), "Only the first request should call the controller");
+        assertEquals(hits + 1, cache.getHits());
+        String other = HttpServer.invokeService(new URI("/app/greeting?name=Other"));
+        assertTrue(other.endsWith("Hola Other"), "Another parameter value should not be answered from the first entry");
+        assertEquals(misses + 2, cache.getMisses());
+        assertEquals(2, cache.size());
+        assertTrue(cache.getBytes() > 0, "The cache should count the bytes of its responses");
+    }
+
+    @Test
+    void testCacheableRouteSkipsOversizedResponsesAndExpiresEntries() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.HttpServerMoreTests$SizedController"});
+        ResponseCache cache = HttpServer.getResponseCaches().get("/sized");
+        SizedController.calls.set(0);
+        HttpServer.invokeService(new URI("/app/sized?size=10"));
+        HttpServer.invokeService(new URI("/app/sized?size=20"));
+        assertEquals(2, cache.size());
+        long bytes = cache.getBytes();
+
+        String big = HttpServer.invokeService(new URI("/app/sized?size=5000"));
+        assertTrue(big.endsWith("x".repeat(5000)), "A response over maxBytes should still be sent");
+        HttpServer.invokeService(new URI("/app/sized?size=5000"));
+        assertEquals(4, SizedController.calls.get(), "A response over maxBytes should not be cached");
+        assertEquals(2, cache.size(), "A response over maxBytes should not evict the others");
+        assertEquals(bytes, cache.getBytes());
+        assertEquals(0, cache.getEvictions());
+
+        HttpServer.invokeService(new URI("/app/sized?size=1800"));
+        assertEquals(1, cache.size(), "A response that fits only alone should evict the others but stay");
+        assertEquals(2, cache.getEvictions());
+        long hits = cache.getHits();
+        HttpServer.invokeService(new URI("/app/sized?size=1800"));
+        assertEquals(hits + 1, cache.getHits());
+
+        Thread.sleep(1100);
+        assertTrue(HttpServer.invokeService(new URI("/app/sized?size=1800")).endsWith("x".repeat(1800)));
+        assertEquals(6, SizedController.calls.get(), "An entry past its TTL should be loaded again");
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    void testRoutesOnOnePathKeepTheirOwnMetricsAndCache() throws Exception {
+        // the @Cacheable GET /greeting is registered first, then POST /greeting
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.GreetingController", "com.example.demo.examples.UploadController"});
+        HttpServer.invokeService(new URI("/app/greeting?name=Cache"));
+        HttpServer.invokeService(new URI("/app/greeting?name=Cache"));
+        HttpServer.invokeService("POST", new URI("/app/greeting"), "name=Ana".getBytes());
+        assertNotNull(HttpServer.getResponseCaches().get("/greeting"), "The GET route's cache should stay registered");
+        assertNotNull(HttpServer.services.get("/greeting"), "The POST route should not replace the GET entry");
+        assertTrue(HttpServer.services.containsKey("POST /greeting"));
+        String metrics = Metrics.render();
+        assertTrue(metrics.contains("http_server_response_cache_hits_total{method=\"GET\",route=\"/greeting\"}"), "Expected the GET route's cache hits");
+        assertTrue(metrics.contains("http_server_response_cache_misses_total{method=\"GET\",route=\"/greeting\"}"), "Expected the GET route's cache misses");
+        assertTrue(metrics.contains("http_server_route_requests_total{method=\"POST\",route=\"/greeting\"}"), "Expected a separate counter for POST");
+    }
+
+    @Test
+    void testQueryParametersDecodeAndKeepRepeatedValues() {
+        QueryParameters params = QueryParameters.parse("name=Ana+Maria&tag=a&tag=b%26c&n=42&flag");
+        assertEquals("Ana Maria", params.get("name"));
+        assertEquals(java.util.List.of("a", "b&c"), params.getAll("tag"));
+        assertEquals(42, params.getInt("n", 0));
+        assertEquals(7, params.getInt("missing", 7));
+        assertTrue(params.getBoolean("flag", false));
+        assertNull(params.get("missing"));
+    }
+
     @Test
     void testAutoDiscoveryRegistersControllers() throws Exception {
         // clear maps then auto-discover
@@ -26,6 +315,721 @@ public class HttpServerMoreTests {
         assertTrue(HttpServer.services.containsKey("/greeting"), "Auto-discovery should register /greeting");
     }
 
+    @Test
+    void testControllerIndexListsControllersAndIsUsedInsteadOfScanning() throws Exception {
+        List<String> indexed;
+        try (java.io.InputStream in = HttpServer.class.getClassLoader().getResourceAsStream("META-INF/microspring/controllers")) {
+            assertNotNull(in, "The annotation processor should write the controller index");
+            indexed = List.of(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\\s+"));
+        }
+        assertEquals(List.of("com.example.demo.examples.EventsController", "com.example.demo.examples.GreetingController",
+                "com.example.demo.examples.NumbersController", "com.example.demo.examples.UploadController"), indexed,
+                "Only classes annotated as controllers should be indexed");
+
+        String packages = ServerConfig.scanPackages;
+        // a scan of this package would find nothing, so the routes can only come from the index
+        ServerConfig.scanPackages = "com.example.none";
+        try {
+            HttpServer.services.clear();
+            HttpServer.loadServices(new String[]{});
+        } finally {
+            ServerConfig.scanPackages = packages;
+        }
+        for (String route : new String[]{"/events", "/greeting", "/numbers", "POST /upload"}) {
+            assertTrue(HttpServer.services.containsKey(route), route + " should be registered from the index");
+        }
+        assertTrue(HttpServer.invokeService(new URI("/app/numbers?count=1")).endsWith("1,1\n"));
+    }
+
+    @Test
+    void testGeneratedRoutesCallController() throws Throwable {
+        ControllerRoutes greeting = null;
+        for (ControllerRoutes routes : ServiceLoader.load(ControllerRoutes.class)) {
+            if (routes.controller() == GreetingController.class) {
+                greeting = routes;
+            }
+        }
+        assertNotNull(greeting, "The annotation processor should generate and list routes for GreetingController");
+        assertEquals(4, greeting.routes().size());
+        assertEquals("Hola Ana", greeting.invoke(0, new Object[]{"Ana"}));
+    }
+
+    @Test
+    void testEventStreamRouteAnswersWithEventStream() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.examples.EventsController"});
+        String posted = HttpServer.invokeService("POST", new URI("/app/events"), "hola".getBytes());
+        assertTrue(posted.contains("\"text\":\"hola\""), "POST /events should return the published message");
+        String stream = HttpServer.invokeService(new URI("/app/events"));
+        assertTrue(stream.contains("Content-Type: text/event-stream"), stream);
+        assertTrue(stream.contains("retry: "), stream);
+        assertFalse(stream.contains("data: hola"), "Events are only replayed to clients sending Last-Event-ID");
+    }
+
+    @Test
+    void testEventStreamFansOutReplaysBeatsAndDropsSlowClients() throws Exception {
+        long heartbeat = ServerConfig.sseHeartbeatMs;
+        long maxQueued = ServerConfig.sseMaxQueuedBytes;
+        ServerConfig.sseHeartbeatMs = 200;
+        ServerConfig.sseMaxQueuedBytes = 64 * 1024;
+        String subscribe = "GET /app/stream HTTP/1.1\r\nHost: localhost\r\n";
+        try {
+            for (String engine : new String[]{"blocking", "nio"}) {
+                EventStream stream = new EventStream();
+                StreamController.stream = stream;
+                int port = startServer(engine, "com.example.demo.HttpServerMoreTests$StreamController");
+                try {
+                    stream.publish("first");
+                    try (Socket a = new Socket("127.0.0.1", port); Socket b = new Socket("127.0.0.1", port)) {
+                        a.setSoTimeout(10000);
+                        b.setSoTimeout(10000);
+                        a.getOutputStream().write((subscribe + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                        assertTrue(readUntil(a, "retry: ").startsWith("HTTP/1.1 200"), engine);
+                        b.getOutputStream().write((subscribe + "Last-Event-ID: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                        assertTrue(readUntil(b, "data: first\n\n").contains("id: 1\n"), engine + ": the missed event should be replayed");
+                        waitUntil(() -> stream.subscribers() == 2);
+
+                        stream.publish("second");
+                        String toA = readUntil(a, "data: second\n\n");
+                        assertTrue(toA.contains("id: 2\n"), engine + ": " + toA);
+                        assertFalse(toA.contains("data: first"), engine + ": only a client with Last-Event-ID gets replays");
+                        assertTrue(readUntil(b, "data: second\n\n").contains("id: 2\n"), engine + ": every subscriber should get the event");
+
+                        readUntil(a, ":\n\n");
+                        readUntil(b, ":\n\n");
+                    }
+                    waitUntil(() -> stream.subscribers() == 0);
+
+                    String dropped = sampleValue(Metrics.render(), "http_server_sse_dropped_total");
+                    try (Socket slow = new Socket()) {
+                        slow.setReceiveBufferSize(4096);
+                        slow.connect(new InetSocketAddress("127.0.0.1", port));
+                        slow.getOutputStream().write((subscribe + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                        waitUntil(() -> stream.subscribers() == 1);
+                        // the client reads nothing, so its socket fills and the backlog grows past the limit
+                        String event = "x".repeat(16 * 1024);
+                        long deadline = System.nanoTime() + 5_000_000_000L;
+                        while (stream.subscribers() == 1) {
+                            assertTrue(System.nanoTime() < deadline, engine + ": a client that does not read should be dropped");
+                            stream.publish(event);
+                            Thread.sleep(1);
+                        }
+                    }
+                    assertEquals(String.valueOf(Long.parseLong(dropped) + 1), sampleValue(Metrics.render(), "http_server_sse_dropped_total"));
+
+                    try (Socket last = new Socket("127.0.0.1", port)) {
+                        last.setSoTimeout(10000);
+                        last.getOutputStream().write((subscribe + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                        readUntil(last, "retry: ");
+                        waitUntil(() -> stream.subscribers() == 1);
+                        HttpServer.stop();
+                        last.getInputStream().readAllBytes();
+                        assertEquals(0, stream.subscribers(), engine + ": stopping the server should close its streams");
+                    }
+                } finally {
+                    HttpServer.stop();
+                }
+            }
+        } finally {
+            ServerConfig.sseHeartbeatMs = heartbeat;
+            ServerConfig.sseMaxQueuedBytes = maxQueued;
+        }
+    }
+
+    @Test
+    void testEventStreamNumbersEvents() {
+        EventStream stream = new EventStream(2);
+        assertEquals(0, stream.lastEventId());
+        assertEquals(1, stream.publish("a"));
+        assertEquals(2, stream.publish("tick", "b"));
+        assertEquals(2, stream.lastEventId());
+        assertEquals(0, stream.subscribers());
+        assertThrows(IllegalArgumentException.class, () -> stream.publish("bad\ntype", "c"));
+    }
+
+    @Test
+    void testHeadAnswersWithoutBodyOnKeepAliveConnection() throws Exception {
+        for (String engine : new String[]{"blocking", "nio"}) {
+            int port = startServer(engine, "com.example.demo.examples.GreetingController");
+            try {
+                String resp = exchange(port, "HEAD /styles.css HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "HEAD /app/greeting?name=Ana HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        + "GET /styles.css HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                int headEnd = resp.indexOf("\r\n\r\n") + 4;
+                assertTrue(resp.startsWith("HTTP/1.1 200"), engine + ": " + resp);
+                assertTrue(resp.startsWith("HTTP/1.1 200", headEnd), engine + ": HEAD on a route should match GET");
+                int getStart = resp.indexOf("\r\n\r\n", headEnd) + 4;
+                assertTrue(resp.startsWith("HTTP/1.1 200", getStart), engine + ": the GET response should follow the heads directly");
+                String length = header(resp.substring(0, headEnd), "Content-Length");
+                int getBody = resp.indexOf("\r\n\r\n", getStart) + 4;
+                assertEquals(length, header(resp.substring(getStart, getBody), "Content-Length"));
+                assertEquals(Integer.parseInt(length), resp.length() - getBody, engine + ": HEAD should announce the GET body length");
+            } finally {
+                HttpServer.stop();
+            }
+        }
+    }
+
+    @Test
+    void testMethodMismatchIs405WithAllow() throws Exception {
+        for (String engine : new String[]{"blocking", "nio"}) {
+            int port = startServer(engine, "com.example.demo.examples.GreetingController");
+            try {
+                String resp = exchange(port, "DELETE /app/greeting/Ana HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                assertTrue(resp.startsWith("HTTP/1.1 405"), engine + ": " + resp);
+                assertEquals("GET, HEAD", header(resp, "Allow"));
+            } finally {
+                HttpServer.stop();
+            }
+        }
+    }
+
+    @Test
+    void testIdleKeepAliveConnectionDoesNotHoldTheOnlyWorker() throws Exception {
+        int workers = ServerConfig.workerThreads;
+        ServerConfig.workerThreads = 1;
+        try {
+            int port = startServer("blocking", "com.example.demo.examples.GreetingController");
+            try (Socket idle = new Socket("127.0.0.1", port)) {
+                idle.setSoTimeout(10000);
+                idle.getOutputStream().write("GET /app/greeting?name=Idle HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertTrue(readResponse(idle).endsWith("Hola Idle"));
+                long start = System.nanoTime();
+                String resp = exchange(port, "GET /app/greeting?name=Next HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                assertTrue(resp.endsWith("Hola Next"), resp);
+                assertTrue(millis < ServerConfig.keepAliveTimeoutMs / 2, "Waited " + millis + " ms for the idle connection's worker");
+            } finally {
+                HttpServer.stop();
+            }
+        } finally {
+            ServerConfig.workerThreads = workers;
+        }
+    }
+
+    @Test
+    void testNioEngineAnswersPipelinedRequestsInOrderUpToTheConnectionLimit() throws Exception {
+        int max = ServerConfig.maxRequestsPerConnection;
+        ServerConfig.maxRequestsPerConnection = 3;
+        try {
+            int port = startServer("nio", "com.example.demo.examples.GreetingController");
+            try {
+                StringBuilder requests = new StringBuilder();
+                for (String name : new String[]{"A", "B", "C", "D"}) {
+                    requests.append("GET /app/greeting?name=").append(name).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                }
+                // sent in one write and without Connection: close; the server ends the connection
+                String resp = exchange(port, requests.toString());
+                assertEquals(3, resp.split("HTTP/1.1 200", -1).length - 1, resp);
+                assertTrue(resp.indexOf("Hola A") < resp.indexOf("Hola B") && resp.indexOf("Hola B") < resp.indexOf("Hola C"),
+                        "Pipelined responses should keep the order of the requests: " + resp);
+                assertFalse(resp.contains("Hola D"), "The request past the limit should not be served");
+                int last = resp.lastIndexOf("HTTP/1.1 200");
+                assertEquals("keep-alive", header(resp.substring(0, last), "Connection"));
+                assertEquals("close", header(resp.substring(last), "Connection"));
+            } finally {
+                HttpServer.stop();
+            }
+        } finally {
+            ServerConfig.maxRequestsPerConnection = max;
+        }
+    }
+
+    @Test
+    void testNioEngineClosesIdleKeepAliveConnection() throws Exception {
+        int timeout = ServerConfig.keepAliveTimeoutMs;
+        ServerConfig.keepAliveTimeoutMs = 200;
+        try {
+            int port = startServer("nio", "com.example.demo.examples.GreetingController");
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10000);
+                socket.getOutputStream().write("GET /app/greeting?name=Ana HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                String resp = readResponse(socket);
+                assertEquals("keep-alive", header(resp, "Connection"));
+                long start = System.nanoTime();
+                assertEquals(-1, socket.getInputStream().read(), "The idle connection should be closed");
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                assertTrue(millis < 5000, "Closed after " + millis + " ms instead of about 200");
+            } finally {
+                HttpServer.stop();
+            }
+        } finally {
+            ServerConfig.keepAliveTimeoutMs = timeout;
+        }
+    }
+
+    @Test
+    void testServerListensOnEveryAddressWithReusePortAcceptors() throws Exception {
+        String listen = ServerConfig.listen;
+        boolean reusePort = ServerConfig.reusePort;
+        int acceptors = ServerConfig.acceptors;
+        boolean reusePortSupported;
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            reusePortSupported = probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+        ServerConfig.reusePort = true;
+        ServerConfig.acceptors = 2;
+        try {
+            for (String engine : new String[]{"blocking", "nio"}) {
+                int first = freePort();
+                int second = freePort();
+                ServerConfig.listen = "127.0.0.1:" + first + ", 127.0.0.1:" + second;
+                startServer(engine, first, "com.example.demo.examples.GreetingController");
+                try {
+                    if (reusePortSupported) {
+                        // binding succeeds only if the server's sockets were bound with SO_REUSEPORT too
+                        try (ServerSocketChannel other = ServerSocketChannel.open()) {
+                            other.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                            other.bind(new InetSocketAddress("127.0.0.1", second));
+                        }
+                    }
+                    for (int port : new int[]{first, second}) {
+                        for (int i = 0; i < 4; i++) {
+                            String resp = exchange(port, "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                            assertTrue(resp.startsWith("HTTP/1.1 200") && resp.endsWith("Hola World"), engine + " on " + port + ": " + resp);
+                        }
+                    }
+                } finally {
+                    HttpServer.stop();
+                }
+            }
+        } finally {
+            ServerConfig.listen = listen;
+            ServerConfig.reusePort = reusePort;
+            ServerConfig.acceptors = acceptors;
+        }
+    }
+
+    @Test
+    void testSaturatedWorkerPoolAnswers503() throws Exception {
+        int workers = ServerConfig.workerThreads;
+        int queue = ServerConfig.workerQueue;
+        int virtualMax = ServerConfig.virtualMaxConcurrent;
+        String mode = ServerConfig.executionMode;
+        ServerConfig.workerThreads = 1;
+        ServerConfig.workerQueue = 0;
+        ServerConfig.virtualMaxConcurrent = 1;
+        try {
+            for (String execution : new String[]{"platform", "virtual"}) {
+                ServerConfig.executionMode = execution;
+                int port = startServer("blocking", "com.example.demo.examples.GreetingController");
+                awaitIdleWorkers(port);
+                try (Socket busy = new Socket("127.0.0.1", port)) {
+                    // half a request head keeps the only worker reading
+                    busy.getOutputStream().write("GET /app/greeting HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+                    waitUntil(() -> HttpServer.getWorkerPool().getActiveCount() == 1);
+                    assertEquals(execution, HttpServer.getWorkerPool().getMode());
+                    long rejected = HttpServer.getWorkerPool().getRejectedCount();
+                    // the 503 is sent on accept; a request left unread would reset the connection
+                    String resp;
+                    try (Socket rejectedSocket = new Socket("127.0.0.1", port)) {
+                        rejectedSocket.setSoTimeout(10000);
+                        resp = new String(rejectedSocket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+                    }
+                    assertTrue(resp.startsWith("HTTP/1.1 503"), execution + ": " + resp);
+                    assertEquals(rejected + 1, HttpServer.getWorkerPool().getRejectedCount());
+                } finally {
+                    HttpServer.stop();
+                }
+            }
+        } finally {
+            ServerConfig.workerThreads = workers;
+            ServerConfig.workerQueue = queue;
+            ServerConfig.virtualMaxConcurrent = virtualMax;
+            ServerConfig.executionMode = mode;
+        }
+    }
+
+    @Test
+    void testClientOverItsRateIsAnswered429() throws Exception {
+        double perClient = ServerConfig.rateLimitPerClient;
+        int burst = ServerConfig.rateLimitClientBurst;
+        ServerConfig.rateLimitPerClient = 0.001;
+        ServerConfig.rateLimitClientBurst = 2;
+        try {
+            for (String engine : new String[]{"blocking", "nio"}) {
+                int port = startServer(engine, "com.example.demo.examples.GreetingController");
+                try {
+                    String get = "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\n\r\n";
+                    String resp = exchange(port, get + get + "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                    String[] statuses = resp.split("HTTP/1.1 ");
+                    assertEquals(4, statuses.length, engine + ": " + resp);
+                    assertTrue(statuses[1].startsWith("200") && statuses[2].startsWith("200"), engine + ": the burst should be served");
+                    assertTrue(statuses[3].startsWith("429"), engine + ": the request over the burst should be a 429");
+                    assertEquals("1", header(statuses[3], "Retry-After"));
+                    String refused = exchange(port, "");
+                    assertTrue(refused.startsWith("HTTP/1.1 429"), engine + ": a client without tokens should be refused at accept");
+                } finally {
+                    HttpServer.stop();
+                }
+            }
+        } finally {
+            ServerConfig.rateLimitPerClient = perClient;
+            ServerConfig.rateLimitClientBurst = burst;
+        }
+    }
+
+    @Test
+    void testRouteOverItsRateLimitIsAnswered429() throws Exception {
+        HttpServer.loadServices(new String[]{"com.example.demo.HttpServerMoreTests$LimitedController"});
+        String metrics = Metrics.render();
+        long rejected = Long.parseLong(sampleValue(metrics, "http_server_admission_rejected_total{reason=\"route_rate\"}"));
+        assertTrue(HttpServer.invokeService(new URI("/app/limited")).endsWith("limited"));
+        assertTrue(HttpServer.invokeService(new URI("/app/limited")).endsWith("limited"));
+        String over = HttpServer.invokeService(new URI("/app/limited"));
+        assertTrue(over.startsWith("HTTP/1.1 429"), "A request over the route's burst should be a 429 without calling it");
+        assertEquals(String.valueOf(rejected + 1),
+                sampleValue(Metrics.render(), "http_server_admission_rejected_total{reason=\"route_rate\"}"));
+    }
+
+    @Test
+    void testCallOverTheConcurrencyLimitIsAnswered503() throws Exception {
+        int limit = ServerConfig.concurrencyLimit;
+        ServerConfig.concurrencyLimit = 1;
+        int port = startServer("blocking", "com.example.demo.examples.GreetingController");
+        try (Socket slow = new Socket("127.0.0.1", port)) {
+            slow.setSoTimeout(10000);
+            // an asynchronous call holds its place until its response is written
+            slow.getOutputStream().write("GET /app/async/greeting?delayMs=500 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            waitUntil(() -> "1".equals(sampleValue(Metrics.render(), "http_server_concurrency_in_flight")));
+            assertEquals("1", sampleValue(Metrics.render(), "http_server_concurrency_limit"));
+            String resp = exchange(port, "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            assertTrue(resp.startsWith("HTTP/1.1 503"), "A call over the limit should be a 503: " + resp);
+            assertTrue(readResponse(slow).startsWith("HTTP/1.1 200"), "The call in progress should complete");
+            waitUntil(() -> "0".equals(sampleValue(Metrics.render(), "http_server_concurrency_in_flight")));
+            assertTrue(exchange(port, "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .startsWith("HTTP/1.1 200"), "A call after the first one completed should be served");
+        } finally {
+            HttpServer.stop();
+            ServerConfig.concurrencyLimit = limit;
+        }
+    }
+
+    @Test
+    void testStaticFileIsRevalidatedWithEtagAndLastModified() throws Exception {
+        int port = startServer("nio", "com.example.demo.examples.GreetingController");
+        try {
+            String first = exchange(port, "GET /styles.css HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            String head = first.substring(0, first.indexOf("\r\n\r\n") + 2);
+            String etag = header(head, "ETag");
+            String lastModified = header(head, "Last-Modified");
+            assertNotNull(etag, head);
+            assertNotNull(lastModified, head);
+            String resp = exchange(port, "GET /styles.css HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + etag + "\r\n\r\n"
+                    + "GET /styles.css HTTP/1.1\r\nHost: localhost\r\nIf-Modified-Since: " + lastModified + "\r\n\r\n"
+                    + "GET /styles.css HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: \"stale\"\r\nConnection: close\r\n\r\n");
+            // a 304 has no body, so each response starts right after the previous head
+            assertTrue(resp.startsWith("HTTP/1.1 304"), resp);
+            int second = resp.indexOf("\r\n\r\n") + 4;
+            assertEquals(etag, header(resp.substring(0, second), "ETag"));
+            assertTrue(resp.startsWith("HTTP/1.1 304", second), "If-Modified-Since should also give a 304: " + resp);
+            int third = resp.indexOf("\r\n\r\n", second) + 4;
+            assertTrue(resp.startsWith("HTTP/1.1 200", third), "Another ETag should get the file: " + resp);
+            assertEquals(first, resp.substring(third));
+        } finally {
+            HttpServer.stop();
+        }
+    }
+
+    @Test
+    void testStaticCacheEvictsLeastRecentlyUsedFile() throws Exception {
+        int cacheBytes = ServerConfig.staticCacheBytes;
+        int gzipMinBytes = ServerConfig.staticGzipMinBytes;
+        // room for two of the ~4 KB files with their headers, not three; no gzip variants
+        ServerConfig.staticCacheBytes = 12000;
+        ServerConfig.staticGzipMinBytes = Integer.MAX_VALUE;
+        try {
+            int port = startServer("nio", "com.example.demo.examples.GreetingController");
+            try {
+                StaticResourceCache cache = HttpServer.getStaticCache();
+                String get = "GET %s HTTP/1.1\r\nHost: localhost\r\n\r\n";
+                exchange(port, String.format(get, "/app.js") + String.format(get, "/styles.css")
+                        + String.format(get, "/app.js") + String.format(get, "/index.html")
+                        + "GET /app.js HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                assertEquals(3, cache.getMisses(), "Each file should be loaded once");
+                assertEquals(2, cache.getHits(), "app.js, used last, should have stayed cached");
+                assertEquals(1, cache.getEvictions(), "Loading index.html should evict styles.css");
+                assertEquals(2, cache.size());
+                assertTrue(cache.getBytes() <= 12000);
+                exchange(port, "GET /styles.css HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                assertEquals(4, cache.getMisses(), "styles.css should have been the one evicted");
+            } finally {
+                HttpServer.stop();
+            }
+        } finally {
+            ServerConfig.staticCacheBytes = cacheBytes;
+            ServerConfig.staticGzipMinBytes = gzipMinBytes;
+        }
+    }
+
+    @Test
+    void testStaticTextIsSentGzippedToClientsThatAcceptIt() throws Exception {
+        int port = startServer("nio", "com.example.demo.examples.GreetingController");
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10000);
+            java.io.OutputStream out = socket.getOutputStream();
+            out.write("GET /app.js HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: br, gzip\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String gzipped = readResponse(socket);
+            out.write("GET /app.js HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip;q=0, identity\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String plain = readResponse(socket);
+
+            String gzippedHead = gzipped.substring(0, gzipped.indexOf("\r\n\r\n") + 4);
+            String plainHead = plain.substring(0, plain.indexOf("\r\n\r\n") + 4);
+            assertEquals("gzip", header(gzippedHead, "Content-Encoding"), gzippedHead);
+            assertNull(header(plainHead, "Content-Encoding"), "q=0 should refuse gzip: " + plainHead);
+            assertEquals("Accept-Encoding", header(gzippedHead, "Vary"));
+            assertEquals("Accept-Encoding", header(plainHead, "Vary"), "Caches need Vary on the identity response too");
+            assertNotEquals(header(gzippedHead, "ETag"), header(plainHead, "ETag"), "Each encoding needs its own ETag");
+
+            byte[] compressed = gzipped.substring(gzippedHead.length()).getBytes(StandardCharsets.ISO_8859_1);
+            byte[] body = plain.substring(plainHead.length()).getBytes(StandardCharsets.ISO_8859_1);
+            assertTrue(compressed.length < body.length);
+            try (java.util.zip.GZIPInputStream in = new java.util.zip.GZIPInputStream(new java.io.ByteArrayInputStream(compressed))) {
+                assertArrayEquals(body, in.readAllBytes(), "The gzip variant should decompress to the file");
+            }
+        } finally {
+            HttpServer.stop();
+        }
+    }
+
+    @Test
+    void testStaticDirectoryAnswersRangeRequests(@TempDir Path dir) throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append(String.format("line %03d\n", i));
+        }
+        String content = text.toString();
+        java.nio.file.Files.writeString(dir.resolve("range.txt"), content);
+        HttpServer.staticfiles(dir.toString());
+        for (String engine : new String[]{"blocking", "nio"}) {
+            int port = startServer(engine, "com.example.demo.examples.GreetingController");
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10000);
+                java.io.OutputStream out = socket.getOutputStream();
+                String get = "GET /range.txt HTTP/1.1\r\nHost: localhost\r\n";
+
+                out.write((get + "Range: bytes=9-17\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String middle = readResponse(socket);
+                assertTrue(middle.startsWith("HTTP/1.1 206"), engine + ": " + middle);
+                assertEquals("bytes 9-17/" + content.length(), header(middle, "Content-Range"));
+                assertTrue(middle.endsWith("\r\n\r\n" + content.substring(9, 18)), middle);
+                String etag = header(middle, "ETag");
+
+                out.write((get + "Range: bytes=-9\r\nIf-Range: " + etag + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String suffix = readResponse(socket);
+                assertTrue(suffix.startsWith("HTTP/1.1 206"), engine + ": " + suffix);
+                assertTrue(suffix.endsWith("\r\n\r\nline 099\n"), suffix);
+
+                out.write((get + "Range: bytes=5000-\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String unsatisfiable = readResponse(socket);
+                assertTrue(unsatisfiable.startsWith("HTTP/1.1 416"), engine + ": " + unsatisfiable);
+                assertEquals("bytes */" + content.length(), header(unsatisfiable, "Content-Range"));
+
+                out.write((get + "Range: bytes=0-9\r\nIf-Range: \"changed\"\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String whole = readResponse(socket);
+                assertTrue(whole.startsWith("HTTP/1.1 200"), engine + ": a stale If-Range should get the whole file: " + whole);
+                assertTrue(whole.endsWith("\r\n\r\n" + content), engine);
+            } finally {
+                HttpServer.stop();
+            }
+        }
+    }
+
+    /**
+     * Run the server on {@code engine} and a free port in the background until
+     * {@link HttpServer#stop()}, registering {@code controllers}, or every indexed controller if none.
+     *
+     * @return the port, once the server accepts connections
+     */
+    private static int startServer(String engine, String... controllers) throws Exception {
+        ServerConfig.port = freePort();
+        return startServer(engine, ServerConfig.port, controllers);
+    }
+
+    /**
+     * Run the server as {@link #startServer(String, String...)} does, on the addresses already
+     * configured, and wait until it accepts connections on {@code port}.
+     */
+    private static int startServer(String engine, int port, String... controllers) throws Exception {
+        ServerConfig.engine = engine;
+        Thread server = new Thread(() -> {
+            try {
+                HttpServer.runServer(controllers);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }, "test-server");
+        server.setDaemon(true);
+        server.start();
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (true) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                return port;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    /**
+     * Wait until the connections made so far, such as the one {@link #startServer} probes with,
+     * have given their workers back. A request that is served shows that they were accepted.
+     */
+    private static void awaitIdleWorkers(int port) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (true) {
+            try {
+                if (exchange(port, "GET /app/greeting HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").startsWith("HTTP/1.1 200")) {
+                    break;
+                }
+            } catch (IOException e) {
+                // turned away with the request unread, which resets the connection
+            }
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for a worker");
+            Thread.sleep(5);
+        }
+        waitUntil(() -> HttpServer.getWorkerPool().getActiveCount() == 0);
+    }
+
+    /**
+     * Wait up to 5 seconds for {@code condition}.
+     */
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the server");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Send {@code requests} on one connection, the last with {@code Connection: close}.
+     *
+     * @return everything the server sent until it closed the connection
+     */
+    private static String exchange(int port, String requests) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write(requests.getBytes(StandardCharsets.ISO_8859_1));
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Read one response framed with Content-Length from {@code socket}, leaving it open.
+     */
+    private static String readResponse(Socket socket) throws IOException {
+        java.io.InputStream in = socket.getInputStream();
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new java.io.EOFException("Connection closed in the response head: " + head);
+            }
+            head.append((char) b);
+        }
+        String length = header(head.toString(), "Content-Length");
+        byte[] body = in.readNBytes(length == null ? 0 : Integer.parseInt(length));
+        return head + new String(body, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read from {@code socket} until {@code marker} has arrived.
+     *
+     * @return everything read
+     */
+    private static String readUntil(Socket socket, String marker) throws IOException {
+        java.io.InputStream in = socket.getInputStream();
+        StringBuilder sb = new StringBuilder();
+        byte[] buf = new byte[4096];
+        while (sb.indexOf(marker) < 0) {
+            int n = in.read(buf);
+            if (n < 0) {
+                throw new java.io.EOFException("Connection closed before " + marker + ": " + sb);
+            }
+            sb.append(new String(buf, 0, n, StandardCharsets.ISO_8859_1));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the value of header {@code name} in the response head {@code head}, or null
+     */
+    private static String header(String head, String name) {
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /** Files in {@code dir}, such as spilled request bodies. */
+    private static int countFiles(Path dir) {
+        try (java.util.stream.Stream<Path> files = java.nio.file.Files.list(dir)) {
+            return (int) files.count();
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /** The value of the sample named {@code series} in Prometheus text, or null. */
+    private static String sampleValue(String metrics, String series) {
+        for (String line : metrics.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return line.substring(series.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /** A route answering with the stream a test sets. */
+    @RestController
+    public static class StreamController {
+
+        static volatile EventStream stream;
+
+        @GetMapping("/stream")
+        public EventStream stream() {
+            return stream;
+        }
+    }
+
+    /** A route whose responses live one second and are kept up to 2000 bytes in all. */
+    @RestController
+    public static class SizedController {
+
+        static final java.util.concurrent.atomic.AtomicInteger calls = new java.util.concurrent.atomic.AtomicInteger();
+
+        @GetMapping("/sized")
+        @Cacheable(ttlSeconds = 1, maxBytes = 2000)
+        public String sized(@RequestParam("size") int size) {
+            calls.incrementAndGet();
+            return "x".repeat(size);
+        }
+    }
+
+    /** A route that serves two requests at once and one every 1000 seconds after that. */
+    @RestController
+    public static class LimitedController {
+
+        @GetMapping("/limited")
+        @RateLimit(perSecond = 0.001, burst = 2)
+        public String limited() {
+            return "limited";
+        }
+    }
+
     @Test
     void testStaticAppJsIsPackaged() {
         // resource must be available on classpath under webroot
@@ -0,0 +1,37 @@
+package com.example.demo.httpserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccessLogTests {
+
+    @Test
+    void testLogTurnedOnAfterLoadingIsWritten() throws Exception {
+        boolean enabled = ServerConfig.accessLog;
+        PrintStream console = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        // loaded with logging off, as Metrics.render() does
+        long dropped = AccessLog.getDropped();
+        ServerConfig.accessLog = true;
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            assertTrue(AccessLog.enabled());
+            AccessLog.log("GET Path: /logged-after-load");
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (!captured.toString(StandardCharsets.UTF_8).contains("/logged-after-load")) {
+                assertTrue(System.nanoTime() < deadline, "The line should be written by the log's thread");
+                Thread.sleep(5);
+            }
+            assertEquals(dropped, AccessLog.getDropped());
+        } finally {
+            System.setOut(console);
+            ServerConfig.accessLog = enabled;
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.example.demo.httpserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpRequestParserTests {
+
+    private static final String HEAD = "POST /app/upload?name=Ana%20Maria HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Content-Length: 3\r\n"
+            + "X-Empty:\r\n"
+            + "\r\n";
+
+    @Test
+    void testHeadSplitAtAnyByteIsParsedWhenComplete() throws Exception {
+        byte[] head = HEAD.getBytes(StandardCharsets.US_ASCII);
+        HttpRequestParser parser = new HttpRequestParser(8192, 100);
+        for (int split = 1; split < head.length; split++) {
+            ByteBuffer buf = ByteBuffer.allocate(1024);
+            parser.reset(0);
+            buf.put(head, 0, split);
+            assertFalse(parser.parse(buf, buf.position()), "Incomplete after " + split + " bytes");
+            buf.put(head, split, head.length - split);
+            assertTrue(parser.parse(buf, buf.position()), "Complete after the rest, split at " + split);
+            assertRequest(parser.request(buf), head.length, parser);
+        }
+    }
+
+    @Test
+    void testHeadFedOneByteAtATimeIsParsed() throws Exception {
+        byte[] head = HEAD.getBytes(StandardCharsets.US_ASCII);
+        HttpRequestParser parser = new HttpRequestParser(8192, 100);
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        parser.reset(0);
+        for (int i = 0; i < head.length - 1; i++) {
+            buf.put(head[i]);
+            assertFalse(parser.parse(buf, buf.position()));
+        }
+        buf.put(head[head.length - 1]);
+        assertTrue(parser.parse(buf, buf.position()));
+        assertRequest(parser.request(buf), head.length, parser);
+    }
+
+    @Test
+    void testDetachedRequestSurvivesTheNextHead() throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap((HEAD + "GET /other HTTP/1.1\r\nHost: example\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        HttpRequestParser parser = new HttpRequestParser(8192, 100);
+        parser.reset(0);
+        assertTrue(parser.parse(buf, buf.limit()));
+        HttpRequest first = parser.request(buf);
+        first.detach();
+        parser.reset(parser.headEnd());
+        assertTrue(parser.parse(buf, buf.limit()));
+        HttpRequest second = parser.request(buf);
+        assertEquals("/other", second.getPath());
+        assertEquals("example", second.getHeader("host"));
+        assertEquals("/app/upload", first.getPath(), "A detached request should keep its own offsets");
+        assertEquals("localhost", first.getHeader("host"));
+    }
+
+    @Test
+    void testLongTargetIs414() {
+        String head = "GET /" + "a".repeat(300) + " HTTP/1.1\r\n\r\n";
+        assertEquals(414, parseError(head, 256, 100).status);
+    }
+
+    @Test
+    void testLargeHeadIs431() {
+        String head = "GET / HTTP/1.1\r\nX-Large: " + "a".repeat(300) + "\r\n\r\n";
+        assertEquals(431, parseError(head, 256, 100).status);
+    }
+
+    @Test
+    void testTooManyHeadersIs431() {
+        String head = "GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\nD: 4\r\n\r\n";
+        HttpRequestParser.ParseException e = parseError(head, 8192, 3);
+        assertEquals(431, e.status);
+        assertEquals("Too many headers", e.getMessage());
+    }
+
+    @Test
+    void testBadPercentEncodingIs400() {
+        assertEquals(400, parseError("GET /a%zz HTTP/1.1\r\n\r\n", 8192, 100).status);
+        assertEquals(400, parseError("GET /a%4 HTTP/1.1\r\n\r\n", 8192, 100).status);
+        assertEquals(400, parseError("GET /a% HTTP/1.1\r\n\r\n", 8192, 100).status);
+    }
+
+    @Test
+    void testRepeatedContentLengthMustAgree() throws Exception {
+        assertEquals(5, parse("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\n").getContentLength());
+        assertEquals(5, parse("POST / HTTP/1.1\r\nContent-Length: 5 , 5\r\n\r\n").getContentLength());
+        assertThrows(IllegalArgumentException.class,
+                () -> parse("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 50\r\n\r\n"));
+        assertThrows(IllegalArgumentException.class, () -> parse("POST / HTTP/1.1\r\nContent-Length: 5, 50\r\n\r\n"));
+        assertThrows(IllegalArgumentException.class, () -> parse("POST / HTTP/1.1\r\nContent-Length: 5,\r\n\r\n"));
+    }
+
+    private static void assertRequest(HttpRequest req, int headLength, HttpRequestParser parser) {
+        assertEquals("POST", req.getMethod());
+        assertEquals("/app/upload", req.getPath());
+        assertEquals("Ana Maria", req.getValue("name"));
+        assertEquals("localhost", req.getHeader("host"));
+        assertEquals("", req.getHeader("x-empty"));
+        assertEquals(3, req.getContentLength());
+        assertEquals(headLength, parser.headEnd());
+    }
+
+    private static HttpRequest parse(String head) throws HttpRequestParser.ParseException {
+        ByteBuffer buf = ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII));
+        HttpRequestParser parser = new HttpRequestParser(8192, 100);
+        parser.reset(0);
+        assertTrue(parser.parse(buf, buf.limit()));
+        return parser.request(buf);
+    }
+
+    private static HttpRequestParser.ParseException parseError(String head, int maxHeadBytes, int maxHeaders) {
+        ByteBuffer buf = ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII));
+        HttpRequestParser parser = new HttpRequestParser(maxHeadBytes, maxHeaders);
+        parser.reset(0);
+        return assertThrows(HttpRequestParser.ParseException.class, () -> parser.parse(buf, buf.limit()));
+    }
+
+}
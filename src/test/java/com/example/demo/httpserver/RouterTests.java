@@ -0,0 +1,59 @@
+package com.example.demo.httpserver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouterTests {
+
+    @Test
+    void testVariablesAndCatchAllsMustSpanWholeSegments() {
+        Router<String> router = new Router<>();
+        for (String pattern : new String[] {"/a{id}", "/a/{id}b", "/files*", "/files{*path}"}) {
+            assertThrows(IllegalArgumentException.class, () -> router.add("GET", pattern, "x"), pattern);
+        }
+        assertEquals(0, router.size());
+        assertNull(router.match("GET", "/abc"));
+
+        router.add("GET", "/a/{id}", "variable");
+        router.add("GET", "/files/*", "catchAll");
+        assertEquals("bc", router.match("GET", "/a/bc").variable("id"));
+        assertEquals("x/y", router.match("GET", "/files/x/y").variable("*"));
+        assertNull(router.match("GET", "/abc"));
+        assertNull(router.match("GET", "/filesx"));
+    }
+
+    @Test
+    void testStaticWinsOverVariableWhichWinsOverCatchAll() {
+        Router<String> router = new Router<>();
+        router.add("GET", "/users/{*rest}", "catchAll");
+        router.add("GET", "/users/{id}", "variable");
+        router.add("GET", "/users/me", "static");
+
+        assertEquals("static", router.match("GET", "/users/me").target());
+        Router.Match<String> variable = router.match("GET", "/users/mel");
+        assertEquals("variable", variable.target());
+        assertEquals("/users/{id}", variable.pattern());
+        assertEquals("mel", variable.variable("id"));
+        Router.Match<String> catchAll = router.match("GET", "/users/me/posts");
+        assertEquals("catchAll", catchAll.target());
+        assertEquals("me/posts", catchAll.variable("rest"));
+    }
+
+    @Test
+    void testMethodMismatchMatchesWithoutTarget() {
+        Router<String> router = new Router<>();
+        router.add("GET", "/items/{id}", "get");
+        router.add("POST", "/items/{id}", "post");
+
+        assertEquals("get", router.match("HEAD", "/items/1").target());
+        Router.Match<String> m = router.match("DELETE", "/items/1");
+        assertNotNull(m, "The path matches, so the engine can answer 405");
+        assertNull(m.target());
+        assertEquals(Set.of("GET", "HEAD", "POST"), m.allowedMethods());
+        assertNull(router.match("DELETE", "/other"));
+    }
+
+}